@@ -263,6 +263,29 @@ public class Configuration extends Properties
         { }, ",", true);
     }
 
+    /** Gets the properties for one section of the configuration, like one
+     * network when the bot is connected to a few. A section's properties are
+     * the ones starting with it's name and a dot ("freenode.server"), without
+     * that prefix. Anything the section doesn't set is looked up in this
+     * configuration, so sections only need what's different about them.
+     * 
+     * @param name The name of the section.
+     * @return The section's properties. */
+    public Configuration getSection(String name)
+    {
+        Configuration section = new Configuration(this);
+        String prefix = name + ".";
+        for (String key : this.stringPropertyNames())
+        {
+            if (key.startsWith(prefix) && key.length() > prefix.length())
+            {
+                section.setProperty(key.substring(prefix.length()),
+                                    this.getProperty(key));
+            }
+        }
+        return section;
+    }
+
     /** This class does not implement this method for the safety of user's
      * comments and order of elements. */
     @Override
@@ -20,7 +20,7 @@ public class Main
         try
         {
             checkDeps();
-            new SnipesBot(args);
+            new NetworkManager(args);
         } catch (IOException e)
         {
             System.err.println("SnipesBot: Connection error ("
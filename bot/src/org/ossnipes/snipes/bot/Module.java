@@ -21,6 +21,13 @@ import org.ossnipes.snipes.lib.events.IRCEventListener;
 
 public abstract class Module implements IRCEventListener
 {
+    static
+    {
+        // Modules subscribe to Event.values(), which should include the
+        // module events from the first module on.
+        ModuleEvent.load();
+    }
+
     public Module()
     {
         // Set all permissions to false, stopping NullPointerExceptions.
@@ -0,0 +1,121 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.bot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.ossnipes.snipes.lib.events.EventPool;
+
+/** Connects to every network in the configuration, with a {@link SnipesBot}
+ * for each. The bots all send their events with one pool of Threads, so
+ * another network doesn't mean another set of idle Threads, and if
+ * {@value PropertyConstants#NONBLOCKING_PROP_NAME} is on they share one I/O
+ * Thread as well.
+ * 
+ * If the {@value PropertyConstants#NETWORKS_PROP_NAME} property isn't set, a
+ * single bot is made from the whole configuration, just like before.
+ * 
+ * @author Jack McCracken
+ * @since Snipes 0.6 */
+public class NetworkManager implements PropertyConstants
+{
+    /** Loads the configuration and connects to every network in it. A
+     * network we can't connect to yet keeps it's bot, which tries again in
+     * the background.
+     * 
+     * @param args The arguments passed into the program.
+     * @throws IOException If there are no networks to connect to, or there's
+     *             only one bot and it couldn't connect. */
+    public NetworkManager(String[] args) throws IOException
+    {
+        this._c = SnipesBot.loadConfiguration(args);
+
+        String networks = this._c.getProperty(NETWORKS_PROP_NAME, "");
+        if (networks.trim().length() == 0)
+        {
+            this._pool = null;
+            this._bots.add(new SnipesBot(null, this._c, null));
+            return;
+        }
+
+        // The pool's settings are read from the top of the file, not from any
+        // one network.
+        this._pool = SnipesBot.readEventPool(this._c);
+
+        for (String network : this._c.getPropertyAsStringArray(NETWORKS_PROP_NAME))
+        {
+            if (network.length() == 0)
+            {
+                continue;
+            }
+            // A network that's down doesn't stop us using the others, it's
+            // bot keeps trying to connect on it's own.
+            this._bots.add(new SnipesBot(network,
+                                         this._c.getSection(network),
+                                         this._pool));
+        }
+
+        if (this._bots.isEmpty())
+        {
+            this._pool.shutdown();
+            throw new IOException("No networks to connect to.");
+        }
+    }
+
+    /** Gets the bots for every network, including any still trying to
+     * connect.
+     * 
+     * @return The bots, in the order their networks are configured. */
+    public List<SnipesBot> getBots()
+    {
+        return Collections.unmodifiableList(this._bots);
+    }
+
+    /** Gets the bot for a network.
+     * 
+     * @param network The name of the network, as it's called in the
+     *            {@value PropertyConstants#NETWORKS_PROP_NAME} property.
+     * @return The bot, or null if there's no such network. */
+    public SnipesBot getBot(String network)
+    {
+        for (SnipesBot bot : this._bots)
+        {
+            if (network.equals(bot.getNetworkName()))
+            {
+                return bot;
+            }
+        }
+        return null;
+    }
+
+    /** Gets the configuration every network's section is read from.
+     * 
+     * @return The configuration. */
+    public Configuration getConfiguration()
+    {
+        return this._c;
+    }
+
+    /** Gets the pool of Threads the bots share.
+     * 
+     * @return The pool, or null if there is only one bot and it has it's own. */
+    public EventPool getEventPool()
+    {
+        return this._pool;
+    }
+
+    private final Configuration _c;
+    private final EventPool _pool;
+    private final List<SnipesBot> _bots = new ArrayList<SnipesBot>();
+}
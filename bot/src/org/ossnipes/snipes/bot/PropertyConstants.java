@@ -10,6 +10,9 @@
 
 package org.ossnipes.snipes.bot;
 
+import org.ossnipes.snipes.lib.events.EventConstants;
+import org.ossnipes.snipes.lib.events.OverloadPolicy;
+import org.ossnipes.snipes.lib.events.ThreadLevel;
 import org.ossnipes.snipes.lib.irc.BotConstants;
 
 /** Contains all of the names of the properties in the bot. It is preferable to
@@ -42,6 +45,45 @@ public interface PropertyConstants extends BotConstants
     static final String DEBUG_PROP_NAME = "debug";
     static final boolean DEBUG_PROP_DEFAULT = false;
 
+    static final String NONBLOCKING_PROP_NAME = "nonblocking";
+    static final boolean NONBLOCKING_PROP_DEFAULT = false;
+
+    static final String SSL_PROP_NAME = "ssl";
+    static final boolean SSL_PROP_DEFAULT = false;
+
+    static final String SSL_PROTOCOLS_PROP_NAME = "sslprotocols";
+
+    static final String SSL_CIPHERS_PROP_NAME = "sslciphers";
+
+    static final String EVENT_THREADS_PROP_NAME = "eventthreads";
+    static final int EVENT_THREADS_PROP_DEFAULT = EventConstants.DEFAULT_EVENT_THREADS;
+
+    static final String EVENT_QUEUE_PROP_NAME = "eventqueue";
+    static final int EVENT_QUEUE_PROP_DEFAULT = EventConstants.DEFAULT_EVENT_QUEUE;
+
+    static final String EVENT_OVERLOAD_PROP_NAME = "eventoverload";
+    static final OverloadPolicy EVENT_OVERLOAD_PROP_DEFAULT = OverloadPolicy.BLOCK;
+
+    static final String THREAD_LEVEL_PROP_NAME = "threadlevel";
+    static final ThreadLevel THREAD_LEVEL_PROP_DEFAULT = ThreadLevel.TL_PER_HANDLER;
+
+    static final String SEND_BURST_PROP_NAME = "sendburst";
+    static final int SEND_BURST_PROP_DEFAULT = DEFAULT_SEND_BURST;
+
+    static final String SEND_INTERVAL_PROP_NAME = "sendinterval";
+    static final int SEND_INTERVAL_PROP_DEFAULT = (int)DEFAULT_SEND_INTERVAL;
+
+    static final String PING_INTERVAL_PROP_NAME = "pinginterval";
+    static final int PING_INTERVAL_PROP_DEFAULT = (int)DEFAULT_PING_INTERVAL;
+
+    static final String STALE_LAG_PROP_NAME = "stalelag";
+    static final int STALE_LAG_PROP_DEFAULT = DEFAULT_STALE_LAG_MULTIPLE;
+
+    /** The networks to connect to, each with a section of the configuration
+     * ("name.property"). If it isn't set, the bot connects to the one network
+     * the rest of the configuration describes. */
+    static final String NETWORKS_PROP_NAME = "networks";
+
     static final String ALT_CONF_PROP_NAME = "altconf";
     static final String ALT_CONF_PROP_DEFAULT = SnipesConstants.CONFIGURATION_FILENAME;
 }
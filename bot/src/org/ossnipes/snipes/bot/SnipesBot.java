@@ -17,9 +17,16 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.List;
 
+import javax.net.SocketFactory;
+
 import org.ossnipes.snipes.lib.events.Event;
 import org.ossnipes.snipes.lib.events.EventArgs;
+import org.ossnipes.snipes.lib.events.EventPool;
 import org.ossnipes.snipes.lib.events.IRCBase;
+import org.ossnipes.snipes.lib.events.OverloadPolicy;
+import org.ossnipes.snipes.lib.irc.IRCConstants;
+import org.ossnipes.snipes.lib.irc.SnipesSSLSocketFactory;
+import org.ossnipes.snipes.lib.irc.SnipesSocketFactory;
 
 /** The main class for the SnipesBot project.
  * 
@@ -34,11 +41,26 @@ public class SnipesBot extends IRCBase implements PropertyConstants,
      *             server. */
     public SnipesBot(String[] args) throws IOException
     {
-        // Parse our passed in args.
-        this.parseCmdArgs(args);
+        this(null, loadConfiguration(args), null);
+    }
 
-        // Initialise the configuration Object.
-        this.initialiseConfiguration();
+    /** Creates a new SnipesBot Object for one of the networks a
+     * {@link NetworkManager} connects to.
+     * 
+     * @param network The name of the network, or null if the bot is the only
+     *            one.
+     * @param c The configuration for the network.
+     * @param pool The pool of Threads to send events with, or null to set one
+     *            up from the configuration.
+     * @throws IOException If there is a error connecting to the specified
+     *             server and network is null. A bot for a network keeps
+     *             trying to connect in the background instead, so a network
+     *             that's down when we start isn't lost for good. */
+    public SnipesBot(String network, Configuration c, EventPool pool)
+        throws IOException
+    {
+        this._network = network;
+        this._c = c;
 
         // Get the nick, etc.
         this.readSetNickRealname();
@@ -46,25 +68,53 @@ public class SnipesBot extends IRCBase implements PropertyConstants,
         // See if we're in debugging/verbose mode.
         this.readSetDebugVerbose();
 
+        // Set up the Threads that send events.
+        this.setEventPool(pool != null ? pool : readEventPool(this._c));
+        // The "TL_" is optional, "threadlevel=virtual" reads better.
+        this.setThreadLevel(readEnumProperty(this._c, THREAD_LEVEL_PROP_NAME,
+                                             THREAD_LEVEL_PROP_DEFAULT, "TL_"));
+        this.readSetSendRate();
+        this.readSetKeepalive();
+
+        boolean connected = false;
         try
         {
             // Try and read the server and port.
             this.readServerPortConnect();
+            connected = true;
         } catch (UnknownHostException e)
         {
             System.err.println("Unknown host specified in " + SERVER_PROP_NAME
                                + " property.");
-            throw e;
+            if (network == null)
+            {
+                throw e;
+            }
         } catch (IOException e)
         {
             System.err
                 .println("Unknown IOException while connecting to host specified in "
                          + SERVER_PROP_NAME + " property.");
-            throw e;
+            if (network == null)
+            {
+                throw e;
+            }
         }
 
-        // Join channels.
-        this.readChannelsAndJoin();
+        if (connected)
+        {
+            // Join channels.
+            this.readChannelsAndJoin();
+        }
+        else
+        {
+            // The other networks carry on without us, we'll join once the
+            // server lets us in.
+            System.err.println("Could not connect to network " + network
+                               + ", trying again later.");
+            this._joinOnWelcome = true;
+            this.reconnectLater();
+        }
 
         // Load modules.
         this.readLoadModules();
@@ -106,55 +156,226 @@ public class SnipesBot extends IRCBase implements PropertyConstants,
         this.setVerbose(verbose != null ? verbose : false);
     }
 
-    /** Initialises the bot's configuration Object. */
-    private void initialiseConfiguration()
+    /** Reads the size of the event pool and what it does when it's
+     * overloaded, and sets it up.
+     * 
+     * @param c The configuration to read.
+     * @return The new pool. */
+    static EventPool readEventPool(Configuration c)
+    {
+        Integer threads = c.getPropertyAsInteger(EVENT_THREADS_PROP_NAME,
+                                                       EVENT_THREADS_PROP_DEFAULT);
+        if (threads == null || threads < 1)
+        {
+            System.err.println(EVENT_THREADS_PROP_NAME
+                               + " must be a positive integer. Using default value "
+                               + EVENT_THREADS_PROP_DEFAULT + ".");
+            threads = EVENT_THREADS_PROP_DEFAULT;
+        }
+
+        Integer queue = c.getPropertyAsInteger(EVENT_QUEUE_PROP_NAME,
+                                                     EVENT_QUEUE_PROP_DEFAULT);
+        if (queue == null || queue < 1)
+        {
+            System.err.println(EVENT_QUEUE_PROP_NAME
+                               + " must be a positive integer. Using default value "
+                               + EVENT_QUEUE_PROP_DEFAULT + ".");
+            queue = EVENT_QUEUE_PROP_DEFAULT;
+        }
+
+        OverloadPolicy policy = readEnumProperty(c, EVENT_OVERLOAD_PROP_NAME,
+                                                 EVENT_OVERLOAD_PROP_DEFAULT, "");
+
+        return new EventPool(threads, queue, policy);
+    }
+
+    /** Reads and sets how fast lines are sent to the server. */
+    private void readSetSendRate()
     {
+        Integer burst = this._c.getPropertyAsInteger(SEND_BURST_PROP_NAME,
+                                                     SEND_BURST_PROP_DEFAULT);
+        if (burst == null || burst < 1)
+        {
+            System.err.println(SEND_BURST_PROP_NAME
+                               + " must be a positive integer. Using default value "
+                               + SEND_BURST_PROP_DEFAULT + ".");
+            burst = SEND_BURST_PROP_DEFAULT;
+        }
+
+        // 0 turns pacing off, for servers that don't mind.
+        Integer interval = this._c.getPropertyAsInteger(SEND_INTERVAL_PROP_NAME,
+                                                        SEND_INTERVAL_PROP_DEFAULT);
+        if (interval == null || interval < 0)
+        {
+            System.err.println(SEND_INTERVAL_PROP_NAME
+                               + " must be 0 or a positive integer. Using default value "
+                               + SEND_INTERVAL_PROP_DEFAULT + ".");
+            interval = SEND_INTERVAL_PROP_DEFAULT;
+        }
+
+        this.setSendRate(burst, interval);
+    }
+
+    /** Reads how often to PING the server, and how long to wait for the
+     * answer before reconnecting. */
+    private void readSetKeepalive()
+    {
+        // 0 turns it off.
+        Integer interval = this._c.getPropertyAsInteger(PING_INTERVAL_PROP_NAME,
+                                                        PING_INTERVAL_PROP_DEFAULT);
+        if (interval == null || interval < 0)
+        {
+            System.err.println(PING_INTERVAL_PROP_NAME
+                               + " must be 0 or a positive integer. Using default value "
+                               + PING_INTERVAL_PROP_DEFAULT + ".");
+            interval = PING_INTERVAL_PROP_DEFAULT;
+        }
+
+        Integer multiple = this._c.getPropertyAsInteger(STALE_LAG_PROP_NAME,
+                                                        STALE_LAG_PROP_DEFAULT);
+        if (multiple == null || multiple < 1)
+        {
+            System.err.println(STALE_LAG_PROP_NAME
+                               + " must be a positive integer. Using default value "
+                               + STALE_LAG_PROP_DEFAULT + ".");
+            multiple = STALE_LAG_PROP_DEFAULT;
+        }
+
+        this.setKeepalive(interval, multiple);
+    }
+
+    /** Reads a property that has to be one of a enum's constants (case insensitive).
+     * 
+     * @param c The configuration to read.
+     * @param name The name of the property.
+     * @param defaultValue The value to use if the property isn't set or isn't valid.
+     * @param prefix A prefix that all the constants have, that can be left out of the property.
+     * @return The constant the property names, or defaultValue. */
+    private static <T extends Enum<T>> T readEnumProperty(Configuration c, String name,
+                                                          T defaultValue, String prefix)
+    {
+        String value = c.getProperty(name);
+        if (value == null)
+        {
+            return defaultValue;
+        }
+
+        value = value.trim().toUpperCase();
+        if (!value.startsWith(prefix))
+        {
+            value = prefix + value;
+        }
+
         try
         {
-            this._c = new Configuration(SnipesConstants.CONFIGURATION_FILENAME);
+            return Enum.valueOf(defaultValue.getDeclaringClass(), value);
+        } catch (IllegalArgumentException e)
+        {
+            System.err.println(name + " must be one of "
+                               + Arrays.toString(defaultValue.getDeclaringClass().getEnumConstants())
+                               + ". Using default value " + defaultValue + ".");
+            return defaultValue;
+        }
+    }
+
+    /** Loads the configuration file, and applies the command line arguments
+     * passed to the bot on top of it.
+     * 
+     * @param args The arguments to parse.
+     * @return The configuration. */
+    static Configuration loadConfiguration(String[] args)
+    {
+        Configuration c = null;
+        try
+        {
+            c = new Configuration(SnipesConstants.CONFIGURATION_FILENAME);
         } catch (IOException e)
         {
             System.err.println("Could not load configuration file "
                                + SnipesConstants.CONFIGURATION_FILENAME);
             System.exit(Exit.EXIT_CONFIGNOLOAD.ordinal());
         }
-    }
 
-    /** Parses the command line arguments passed to the bot.
-n     * 
-     * @param args The arguments to parse. */
-    private void parseCmdArgs(String[] args)
-    {
         // Call up the ArgumentParser to do it for us.
-        ArgumentParser.getParser().parseArgs(this._c, args);
+        ArgumentParser.getParser().parseArgs(c, args);
+        return c;
     }
 
     /** Reads the property values for server and port and connects */
     private void readServerPortConnect() throws IOException
     {
+        Boolean ssl = this._c.getPropertyAsBoolean(SSL_PROP_NAME, SSL_PROP_DEFAULT);
+        SocketFactory factory = ssl != null && ssl ? this.readSSLFactory()
+                                                   : SnipesSocketFactory.getDefault();
+        int defaultPort = factory instanceof SnipesSSLSocketFactory ? IRC_DEFAULT_SSL_PORT
+                                                                    : PORT_PROP_DEFAULT;
+
         // Get the port
-        Integer port = this._c.getPropertyAsInteger(PORT_PROP_NAME,
-                                                    PORT_PROP_DEFAULT);
+        Integer port = this._c.getPropertyAsInteger(PORT_PROP_NAME, defaultPort);
 
         if (port == null)
         {
             System.err.println(PORT_PROP_NAME
                                + " could not be parsed as a integer. Using default value "
-                               + PORT_PROP_DEFAULT + ".");
+                               + defaultPort + ".");
         }
 
-        String server = this._c.getProperty(SERVER_PROP_NAME, null);
+        // A few servers of the same network can be given, the first to
+        // answer is used.
+        String[] servers = this._c.getPropertyAsStringArray(SERVER_PROP_NAME, null);
 
-        if (server == null)
+        if (servers == null)
         {
             System.err.println("Required property " + SERVER_PROP_NAME + " not specified. Quitting.");
             System.exit(Exit.EXIT_INVALIDCONFIG.ordinal());
         }
 
+        // Share a I/O Thread with other bots in this JVM instead of having one of
+        // our own?
+        Boolean nonBlocking = this._c.getPropertyAsBoolean(NONBLOCKING_PROP_NAME,
+                                                           NONBLOCKING_PROP_DEFAULT);
+        this.setNonBlocking(nonBlocking != null ? nonBlocking : false);
+
         // Use the connect method to try and connect to the server.
         this.connect(
-            server,
-            port != null ? port : IRC_DEFAULT_PORT);
+            servers,
+            port != null ? port : defaultPort,
+            null,
+            factory);
+    }
+
+    /** Reads the TLS settings and makes a factory for them. Every factory
+     * uses the JVM's default SSLContext, so all the bots share one cache of
+     * sessions to resume when they reconnect.
+     * 
+     * @return The factory. */
+    private SocketFactory readSSLFactory()
+    {
+        String[] protocols = this._c.getPropertyAsStringArray(SSL_PROTOCOLS_PROP_NAME, null);
+        String[] ciphers = this._c.getPropertyAsStringArray(SSL_CIPHERS_PROP_NAME, null);
+        if (protocols == null && ciphers == null)
+        {
+            return SnipesSSLSocketFactory.getDefault();
+        }
+
+        SnipesSSLSocketFactory factory = new SnipesSSLSocketFactory(null);
+        try
+        {
+            factory.setProtocols(protocols);
+        } catch (IllegalArgumentException e)
+        {
+            System.err.println(SSL_PROTOCOLS_PROP_NAME + ": " + e.getMessage()
+                               + ". Using the default protocols.");
+        }
+        try
+        {
+            factory.setCipherSuites(ciphers);
+        } catch (IllegalArgumentException e)
+        {
+            System.err.println(SSL_CIPHERS_PROP_NAME + ": " + e.getMessage()
+                               + ". Using the default cipher suites.");
+        }
+        return factory;
     }
 
     /** Reads the property values for channels and joins them */
@@ -177,11 +398,18 @@ n     *
 
     }
 
-    /** {@inheritDoc} SnipesBot does not do anything in this method. */
+    /** {@inheritDoc} SnipesBot only uses this to join it's channels when it
+     * couldn't connect at first. */
     @Override
     public void handleEvent(Event ev, EventArgs args)
     {
-        // No event handling code.
+        if (this._joinOnWelcome && ev == Event.IRC_RESPONSE_CODE
+            && (Integer)args.getParam("code") == IRCConstants.RPL_WELCOME)
+        {
+            // After this the channels are joined again like any others.
+            this._joinOnWelcome = false;
+            this.readChannelsAndJoin();
+        }
     }
 
     // Configuration methods
@@ -193,6 +421,15 @@ n     *
         return this._c;
     }
 
+    /** Gets the name of the network this bot is connected to, as it's called
+     * in the {@value PropertyConstants#NETWORKS_PROP_NAME} property.
+     * 
+     * @return The name, or null if this is the only bot. */
+    public String getNetworkName()
+    {
+        return this._network;
+    }
+
     // End configuration methods
 
     // Module collection methods.
@@ -261,6 +498,9 @@ n     *
         super.run();
     }
 
+    private final String _network;
     private Configuration _c;
     private ModuleCollection _coll;
+    /** If the channels are still to be joined, because we couldn't connect at first. */
+    private volatile boolean _joinOnWelcome;
 }
@@ -59,7 +59,17 @@ public class TrackerPlugin extends Module
             // Check that it's in the channel and that it's not someone with a hostmask
             if (!host.contains("/")) {
                 sendData("Identified join from " + nick + "@" + host);
-                this.getParent().sendRaw("WHOIS " + nick);
+                if (this.getParent().getServerSupport().isCapEnabled("extended-join")) {
+                    // The JOIN already told us everything, no need to ask.
+                    String account = args.getParamAsString("account");
+                    if (account != null) {
+                        sendData("- (" + nick + ") ID: " + account);
+                    }
+                    reportUser(nick, args.getParamAsString("user"), args.getParamAsString("realname"));
+                }
+                else {
+                    this.getParent().sendRaw("WHOIS " + nick);
+                }
             }
         }
 		
@@ -74,10 +84,21 @@ public class TrackerPlugin extends Module
                 String resp = args.getParamAsString("resp_text");
                 String[] msgSplit = resp.split(" ");
                 String nick = args.getParamAsString("line").split(" ")[3];
-                sendData("- (" + nick + ") User: " + (msgSplit[1].startsWith("~") ? msgSplit[1].substring(1) : msgSplit[1]));
-                sendData("- (" + nick + ") Realname: " + resp.substring(resp.indexOf(":") + 1));
-                sendData("- (" + nick + ") Identd: " + (msgSplit[1].startsWith("~") ? "No" : "Yes"));
+                reportUser(nick, msgSplit[1], resp.substring(resp.indexOf(":") + 1));
             }
         }
     }
+
+    private void reportUser(String nick, String user, String realname) {
+        // A JOIN without a username (or realname) just doesn't get those lines.
+        if (user != null) {
+            sendData("- (" + nick + ") User: " + (user.startsWith("~") ? user.substring(1) : user));
+        }
+        if (realname != null) {
+            sendData("- (" + nick + ") Realname: " + realname);
+        }
+        if (user != null) {
+            sendData("- (" + nick + ") Identd: " + (user.startsWith("~") ? "No" : "Yes"));
+        }
+    }
 }
@@ -26,6 +26,7 @@ import org.ossnipes.snipes.lib.events.Channel;
 import org.ossnipes.snipes.lib.events.BotUser;
 import org.ossnipes.snipes.lib.events.Event;
 import org.ossnipes.snipes.lib.events.EventArgs;
+import org.ossnipes.snipes.lib.events.EventConstants;
 import org.ossnipes.snipes.lib.events.IRCEventListener;
 
 public class BouncerConnection extends Thread implements IRCEventListener
@@ -89,11 +90,12 @@ public class BouncerConnection extends Thread implements IRCEventListener
                                      + chan.getName());
             StringBuilder sb = new StringBuilder(":" + chan.getServerFrom() + " 353 " + chan.getName() + " :");
 
-            BotUser[] users = chan.getUsers();
+            // The list doesn't change under us, even if people join or part.
+            List<BotUser> users = chan.getUserList();
 			
-            for (int i = 0; i < users.length; i ++)
+            for (int i = 0; i < users.size(); i ++)
             {
-                sb.append(users[i].getNick(true) + (i == 0 ? "" : " "));
+                sb.append((i == 0 ? "" : " ") + chan.getNickWithPrefix(users.get(i)));
             }
 
             this.sendRawLineToClient(sb.toString());
@@ -247,18 +249,15 @@ public class BouncerConnection extends Thread implements IRCEventListener
     @Override
     public Event[] getRegisteredEvents()
     {
-        return Event.values();
+        // Each line from the server once, and nothing that isn't one.
+        return EventConstants.LINE_EVENTS.clone();
     }
 
     @Override
     public void handleEvent(Event ev, EventArgs args)
     {
-        // We don't want to double-pong.
-        if (ev != Event.IRC_PING)
-        {
-            // System.err.println("? " + ev);
-            this.sendRawLineToClient(args.getParamAsString("line"));
-        }
+        // PINGs never get here, the framework answers them itself.
+        this.sendRawLineToClient(args.getParamAsString("line"));
     }
 
     private boolean _isAuthed;
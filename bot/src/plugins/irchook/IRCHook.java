@@ -19,9 +19,17 @@ import org.ossnipes.snipes.bot.Module;
 import org.ossnipes.snipes.bot.ModuleReturn;
 import org.ossnipes.snipes.lib.events.Event;
 import org.ossnipes.snipes.lib.events.EventArgs;
+import org.ossnipes.snipes.lib.events.EventConstants;
 
 public class IRCHook extends Module implements Runnable
 {
+    @Override
+    public Event[] getRegisteredEvents()
+    {
+        // Each line from the server once. Module events have no line.
+        return EventConstants.LINE_EVENTS.clone();
+    }
+
     @Override
     public void handleEvent(Event ev, EventArgs args)
     {
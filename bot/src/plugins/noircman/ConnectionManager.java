@@ -16,6 +16,7 @@ import org.ossnipes.snipes.bot.Configuration;
 import org.ossnipes.snipes.lib.events.BotUtils;
 import org.ossnipes.snipes.lib.events.Event;
 import org.ossnipes.snipes.lib.events.EventArgs;
+import org.ossnipes.snipes.lib.events.EventConstants;
 import org.ossnipes.snipes.lib.events.IRCEventListener;
 
 public class ConnectionManager extends Thread implements IRCEventListener
@@ -181,7 +182,7 @@ public class ConnectionManager extends Thread implements IRCEventListener
     public Event[] getRegisteredEvents()
     {
         Boolean flagVal = this.flags.getPropertyAsBoolean("IRCR");
-        return flagVal == null ? null : (flagVal ? Event.values() : null);
+        return flagVal == null ? null : (flagVal ? EventConstants.LINE_EVENTS.clone() : null);
     }
 
     @Override
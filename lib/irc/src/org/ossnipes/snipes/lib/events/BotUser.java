@@ -10,9 +10,17 @@
 
 package org.ossnipes.snipes.lib.events;
 
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import org.ossnipes.snipes.lib.irc.BotConstants;
 import org.ossnipes.snipes.lib.irc.SnipesException;
 
+/**
+ * A user on the IRC network. There is only one of these for each user the bot
+ * shares a channel with, so when they change their nick or quit only this
+ * Object has to be changed. Their prefix (@, +, ...) is different in every
+ * channel, so that's kept by the {@link Channel}.
+ */
 public class BotUser implements BotConstants
 {
     public BotUser(String nick)
@@ -23,7 +31,15 @@ public class BotUser implements BotConstants
         }
         _nick = nick;
     }
-	
+
+    /**
+     * Gets the nick of this user.
+     * @param withPrefix If the nick was given with a prefix, if it should be kept.
+     * @return The nick.
+     * @deprecated Users tracked by the bot never have a prefix, they're different
+     *             in every channel. Use {@link Channel#getNickWithPrefix(BotUser)}.
+     */
+    @Deprecated
     public String getNick(boolean withPrefix)
     {
         // Final result
@@ -32,25 +48,91 @@ public class BotUser implements BotConstants
         {
             throw new SnipesException("User's nick is empty.");
         }
-        //TODO: More checking for user nicks and other things, this includes a handler for the mode event.
         else if (!withPrefix && BotUtils.arrayContains(IRC_NICKPREFIXES, nick.charAt(0)))
         {
             nick = nick.substring(1);
         }
         return nick;
     }
-	
-	
+
+
     // Cannot have a String version of this method. This class does not get the IRCBase instance which manages the channels.
     public boolean isInChannel(Channel channel)
     {
         return channel.isUserInChannel(this);
     }
-	
+
+    /**
+     * Gets the channels the bot knows this user is in (only ones the bot is in too).
+     * @return The channels.
+     */
+    public Channel[] getChannels()
+    {
+        return _channels.toArray(new Channel[0]);
+    }
+
     public String getNick()
     {
         return getNick(false);
     }
-	
-    private String _nick;
+
+    /**
+     * @return The username (the part before the @ in their hostmask), or null if we haven't seen it yet.
+     */
+    public String getUser()
+    {
+        return _user;
+    }
+
+    /**
+     * @return The host (the part after the @ in their hostmask), or null if we haven't seen it yet.
+     */
+    public String getHost()
+    {
+        return _host;
+    }
+
+    @Override
+    public String toString()
+    {
+        return _nick;
+    }
+
+    void setNick(String nick)
+    {
+        _nick = nick;
+    }
+
+    /** Sets the username and host, if they're known. Nulls are ignored. */
+    void setUserHost(String user, String host)
+    {
+        if (user != null)
+        {
+            _user = user;
+        }
+        if (host != null)
+        {
+            _host = host;
+        }
+    }
+
+    void addChannel(Channel c)
+    {
+        _channels.addIfAbsent(c);
+    }
+
+    /**
+     * @return True if that was the last channel we shared with them.
+     */
+    boolean removeChannel(Channel c)
+    {
+        _channels.remove(c);
+        return _channels.isEmpty();
+    }
+
+    private volatile String _nick;
+    private volatile String _user;
+    private volatile String _host;
+    /** Users are only in a few channels, and they change less than they're read. */
+    private final CopyOnWriteArrayList<Channel> _channels = new CopyOnWriteArrayList<Channel>();
 }
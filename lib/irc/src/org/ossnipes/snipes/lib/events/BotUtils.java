@@ -18,6 +18,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.ossnipes.snipes.lib.irc.BotConstants;
+import org.ossnipes.snipes.lib.irc.SnipesException;
 
 
 
@@ -84,79 +85,138 @@ public class BotUtils
      */
     public static void sendEvent(final EventArgs args, final EventHandlerCollection coll)
     {
-        // All parameters are final so they can be referenced inside of the thread.
-        class EvRunnable implements Runnable
+        Event ev = args.getEvent();
+        JavaEventHandlerManager[] mans = coll.getListeners(ev);
+        if (mans.length == 0)
         {
-            public void run()
-            {	
-                final Event ev = args.getEvent();
-                // Stick it in a new event thread.
-                coll.getCurrentEventTl().set(args);
-                // Is it a internal event?
-                final boolean isInternal = arrayContains(INTERNAL_EVENTS, ev);
-                final List<JavaEventHandlerManager> mans;
-				
-                if (InternalConstants.USE_EVLIST_COPY)
+            // Nobody's listening.
+            return;
+        }
+        ThreadLevel level = coll.getThreadLevel();
+
+        switch (level)
+        {
+        case TL_SINGLE:
+            // Everything on the caller's Thread.
+            new EvRunnable(args, coll, mans).run();
+            break;
+        case TL_PER_LISTENER_ORDERED:
+        case TL_VIRTUAL:
+            // Hand the event to each listener right here. For mailboxes this
+            // means every listener gets the events in the order they were sent,
+            // and virtual Threads are cheap enough to not need a event task.
+            boolean isInternal = arrayContains(INTERNAL_EVENTS, ev);
+            for (JavaEventHandlerManager ehm : mans)
+            {
+                EvHandlerRunnable r = new EvHandlerRunnable(ehm, args, coll, isInternal);
+                if (level == ThreadLevel.TL_VIRTUAL)
                 {
-                    mans = copyList(coll.getListeners());
+                    coll.dispatchVirtual(r, ev);
                 }
                 else
                 {
-                    mans = coll.getListeners();
+                    ehm.post(r, coll, ev);
+                }
+            }
+            break;
+        case TL_PER_EVENT:
+        case TL_PER_HANDLER:
+            coll.dispatch(new EvRunnable(args, coll, mans), ev);
+            break;
+        default:
+            throw new SnipesException("Unknown thread level " + level + ".");
+        }
+    }
+
+    /** Sends a event to every listener, either itself or by giving each one it's own task. */
+    private static class EvRunnable implements Runnable
+    {
+        EvRunnable(EventArgs args, EventHandlerCollection coll, JavaEventHandlerManager[] mans)
+        {
+            _args = args;
+            _coll = coll;
+            _mans = mans;
+        }
+
+        public void run()
+        {
+            final Event ev = _args.getEvent();
+            // Is it a internal event?
+            final boolean isInternal = arrayContains(INTERNAL_EVENTS, ev);
+
+            // Give each handler it's own task, unless the event pool
+            // is overloaded and wants us to do them all from here.
+            final boolean perHandler = _coll.getThreadLevel() == ThreadLevel.TL_PER_HANDLER
+                && !_coll.shouldCoalesce(_mans.length);
+
+            // Loop through the listeners
+            for (JavaEventHandlerManager ehm : _mans)
+            {
+                EvHandlerRunnable r = new EvHandlerRunnable(ehm, _args, _coll, isInternal);
+                if (perHandler)
+                {
+                    _coll.dispatch(r, ev);
                 }
-				
-                int i = 0;
-				
-                // Loop through the listeners
-                while (i < mans.size())
+                else
                 {
-                    final EventHandlerManager ehm = mans.get(i);
-                    class EvHandlerRunnable implements Runnable
-                    {
-                        @Override
-                        public void run() {
-                            boolean isBase = ehm.isIRCBase();
-                            if (!isBase)
-                            {
-                                if (ehm.isSubscribed(ev))
-                                {
-                                    ehm.sendEvent(ev, args);
-                                }
-                            }
-                            else
-                            {
-                                if (isInternal)
-                                {
-                                    ehm.handleInternalEvent(ev, args);
-                                }
-                                ehm.sendEvent(ev,args);
-                            }
-                        }
-                    }
-					
-                    if (coll.getThreadLevel() == ThreadLevel.TL_PER_HANDLER)
+                    r.run();
+                }
+            }
+        }
+
+        private final EventArgs _args;
+        private final EventHandlerCollection _coll;
+        /** The listeners that want the event, from {@link EventHandlerCollection#getListeners(Event)}. */
+        private final JavaEventHandlerManager[] _mans;
+    }
+
+    /** Sends a event to one listener. */
+    private static class EvHandlerRunnable implements Runnable
+    {
+        EvHandlerRunnable(EventHandlerManager ehm, EventArgs args, EventHandlerCollection coll, boolean isInternal)
+        {
+            _ehm = ehm;
+            _args = args;
+            _coll = coll;
+            _isInternal = isInternal;
+        }
+
+        @Override
+        public void run() {
+            Event ev = _args.getEvent();
+            // Handlers can send events themselves, so put back whatever was
+            // the current event when we're done.
+            ThreadLocal<EventArgs> current = _coll.getCurrentEventTl();
+            EventArgs previous = current.get();
+            current.set(_args);
+            try
+            {
+                if (!_ehm.isIRCBase())
+                {
+                    if (_ehm.isSubscribed(ev))
                     {
-                        coll.getThreadPool().execute(new EvHandlerRunnable());
+                        _ehm.sendEvent(ev, _args);
                     }
-                    else
+                }
+                else
+                {
+                    if (_isInternal)
                     {
-                        new EvHandlerRunnable().run();
+                        _ehm.handleInternalEvent(ev, _args);
                     }
-					
-                    i++;
+                    _ehm.sendEvent(ev, _args);
                 }
-                coll.getCurrentEventTl().set(null);
+            }
+            finally
+            {
+                current.set(previous);
             }
         }
-		
-        if (coll.getThreadLevel().ordinal() > ThreadLevel.TL_SINGLE.ordinal())
-        {
-            coll.getThreadPool().execute(new EvRunnable());
-        }
-        else
-        {
-            new EvRunnable().run();
-        }
+
+        private final EventHandlerManager _ehm;
+        private final EventArgs _args;
+        private final EventHandlerCollection _coll;
+        private final boolean _isInternal;
     }
 	
     public static <T> Set<T> copySet(
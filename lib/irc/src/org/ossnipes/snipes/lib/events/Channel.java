@@ -10,185 +10,225 @@
 
 package org.ossnipes.snipes.lib.events;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 
-import org.ossnipes.snipes.lib.irc.IRCConstants;
-import org.ossnipes.snipes.lib.irc.SnipesException;
+import org.ossnipes.snipes.lib.irc.BotConstants;
+import org.ossnipes.snipes.lib.irc.CaseMapping;
 
-public class Channel implements IRCEventListener, IRCConstants
+/**
+ * A channel the bot is in. These are kept up to date by the {@link ChannelTracker}
+ * of the {@link IRCBase} that is in them.
+ */
+public class Channel implements BotConstants
 {
-    //TODO: Nick change support (shouldn't be that hard to do.) There may be complications to do with shared BotUser Objects. Maybe they could hold their previous nicks, and we could check that too.
-    //TODO: We also need to track as users part/join.
-    Channel(String name)
+    Channel(String name, UserTable users)
     {
         if (name == null)
         {
             throw new IllegalArgumentException("Name cannot be null.");
         }
         _name = name;
+        _users = users;
     }
-	
-	
-    @Override
-    public Event[] getRegisteredEvents() 
+
+    /**
+     * Adds the users from a NAMES reply, unless the NAMES for when we joined are already done.
+     * @param names The list of nicks from the reply, with their prefixes.
+     * @param server The server that sent it.
+     */
+    void addNames(String names, String server)
     {
-        return new Event [] {Event.IRC_RESPONSE_CODE, Event.IRC_JOIN_TOPIC, Event.IRC_TOPIC, Event.IRC_JOIN, Event.IRC_PART, Event.IRC_NICK_CHANGE};
+        if (_doneNamesRecv)
+        {
+            return;
+        }
+        _server = server;
+
+        StringTokenizer strtok = new StringTokenizer(names, " ");
+        while (strtok.hasMoreTokens())
+        {
+            addUser(strtok.nextToken(), null, null);
+        }
     }
 
-    @Override
-    public void handleEvent(Event ev, EventArgs args) 
+    /** Called when the server has finished sending the NAMES for when we joined. */
+    void endOfNames()
     {
-        if (ev == Event.IRC_RESPONSE_CODE && !_doneNamesRecv)
+        // We're done getting the names, let everyone see them.
+        _doneNamesRecv = true;
+        membersChanged();
+    }
+
+    void setTopic(String topic)
+    {
+        _topic = topic;
+    }
+
+    /**
+     * Adds a user to this channel.
+     * @param userNickWPrefix Their nick, with their prefixes (from NAMES) if they have any.
+     * @param user Their username, or null if it isn't known.
+     * @param host Their host, or null if it isn't known.
+     */
+    void addUser(String userNickWPrefix, String user, String host)
+    {
+        // Split the prefixes off the front.
+        int i = 0;
+        while (i < userNickWPrefix.length() - 1 && prefixRank(userNickWPrefix.charAt(i)) >= 0)
         {
-            int code = ((Integer)args.getParam("code"));
-            String[] split = args.getParamAsString("resp_text").split(" ");
-            if (split.length == 0)
-            {
-                // Impossible
-                throw new InternalError();
-            }
-			
-            if (code == RPL_NAMREPLY)
-            {
-                if (!split[1].equalsIgnoreCase(getName()))
-                {
-                    return;
-                }
+            i++;
+        }
+        String prefixes = sortPrefixes(userNickWPrefix.substring(0, i));
 
-                _server = args.getParamAsString("server");
-				
-                StringTokenizer strtok = new StringTokenizer(args.getParamAsString("resp_text"));
-				
-                boolean prevStartRecording = false;
-                boolean startRecording = false;
-                while (strtok.hasMoreTokens())
-                {
-                    String next = strtok.nextToken();
-                    prevStartRecording = startRecording;
-                    startRecording = startRecording || next.startsWith(":");
-					
-                    if (!startRecording)
-                    {
-                        continue;
-                    }
-                    else
-                    {
-                        String userNickWPrefix = next;
-                        if (!prevStartRecording)
-                        {
-                            userNickWPrefix = userNickWPrefix.substring(1);
-                        }
-                        addUser(userNickWPrefix);
-                    }
-                }
-            }
-            else if (code == RPL_ENDOFNAMES)
-            {
-                if (!split[0].equalsIgnoreCase(getName()))
-                {
-                    return;
-                }
-                // We're done getting the names.
-                _doneNamesRecv = true;
-            }
+        synchronized (_users)
+        {
+            BotUser bu = _users.getOrCreate(userNickWPrefix.substring(i), user, host);
+            _members.put(bu, prefixes);
+            bu.addChannel(this);
+            membersChanged();
         }
-        else if (ev == Event.IRC_NICK_CHANGE && _doneNamesRecv)
+    }
+
+    /**
+     * Removes a user from this channel.
+     * @param nick Their nick.
+     * @return False if they weren't in here.
+     */
+    boolean removeUser(String nick)
+    {
+        synchronized (_users)
         {
-            BotUser u = getUserForName(args.getParamAsString("nick-old"));
-            _currentUsers.remove(u);
-            _currentUsers.add(new BotUser(args.getParamAsString("nick-new")));
+            BotUser user = _users.get(nick);
+            return user != null && removeUser(user);
         }
-        else if (ev == Event.IRC_JOIN_TOPIC || ev == Event.IRC_TOPIC)
+    }
+
+    /**
+     * Removes a user from this channel, and from the user table if they aren't in any of our other channels.
+     * @param bu The user.
+     * @return False if they weren't in here.
+     */
+    boolean removeUser(BotUser bu)
+    {
+        synchronized (_users)
         {
-            if (args.getParamAsString("channel").equalsIgnoreCase(getName()))
+            if (_members.remove(bu) == null)
             {
-                _topic = args.getParamAsString("topic");
+                return false;
             }
+            bu.removeChannel(this);
+            _users.release(bu);
+            membersChanged();
+            return true;
         }
-        else if (ev == Event.IRC_JOIN)
+    }
+
+    /** Called when we leave this channel, so the users in it can be forgotten. */
+    void clear()
+    {
+        synchronized (_users)
         {
-            String nick = args.getParamAsString("nick");
-            if (args.getParamAsString("channel").equalsIgnoreCase(getName()))
+            for (BotUser bu : _members.keySet())
             {
-                addUser(nick);
+                bu.removeChannel(this);
+                _users.release(bu);
             }
+            _members.clear();
+            membersChanged();
+        }
+    }
+
+    /**
+     * Gives or takes away prefixes after a MODE. Modes that don't change
+     * prefixes are skipped, along with their params.
+     */
+    void updatePrefixes(String modes, String params)
+    {
+        if (modes == null)
+        {
+            return;
         }
-        else if (ev == Event.IRC_PART)
+        String[] paramSplit = params != null ? params.trim().split(" +") : new String[0];
+        int param = 0;
+        boolean adding = true;
+
+        synchronized (_users)
         {
-            String nick = args.getParamAsString("nick");
-			
-            if (args.getParamAsString("channel").equalsIgnoreCase(getName()))
+            for (int i = 0; i < modes.length(); i++)
             {
-                BotUser user = null;
-                for (BotUser u : _currentUsers)
+                char m = modes.charAt(i);
+                if (m == '+' || m == '-')
                 {
-                    if (u.getNick().equalsIgnoreCase(nick))
-                    {
-                        user = u;
-                        break;
-                    }
+                    adding = m == '+';
+                    continue;
                 }
-                if (user == null)
+
+                int prefixIdx = PREFIX_MODES.indexOf(m);
+                if (prefixIdx >= 0)
                 {
-                    throw new SnipesException(nick + " was not found in the list of users, yet they parted channel " + getName() + ".");
+                    if (param >= paramSplit.length)
+                    {
+                        return;
+                    }
+                    BotUser bu = _users.get(paramSplit[param++]);
+                    String old = bu != null ? _members.get(bu) : null;
+                    if (old != null)
+                    {
+                        char prefix = PREFIX_CHARS.charAt(prefixIdx);
+                        String updated = old.replace(String.valueOf(prefix), "");
+                        _members.put(bu, adding ? sortPrefixes(updated + prefix) : updated);
+                        membersChanged();
+                    }
                 }
-                else
+                else if (PARAM_MODES.indexOf(m) >= 0 || (adding && PARAM_ON_SET_MODES.indexOf(m) >= 0))
                 {
-                    _currentUsers.remove(user);
+                    param++;
                 }
             }
         }
-        else if (ev == Event.IRC_RESPONSE_CODE)
-        {
-            return;
-        }
-        else
-        {
-            System.err.println("Snipes IRC API Channel Tracking: Unknown event was sent to us: " + ev + ".");
-        }
     }
 
-    private void addUser(String userNickWPrefix) 
+    /**
+     * Gets the users in this channel, in the order they came in.
+     * @return A new array of the users, that can be changed.
+     * @see #getUserList()
+     */
+    public BotUser[] getUsers()
     {
-        int i = 0;
-        while (i < _userPool.size())
-        {
-            BotUser bu = _userPool.get(i);
-			
-            if (bu.getNick().equalsIgnoreCase(userNickWPrefix))
-            {
-                _currentUsers.add(bu);
-                break;
-            }
-			
-            i++;
-        }
-		
-        // If it looped without any matches.
-        if (i == _userPool.size())
-        {
-            BotUser newU = new BotUser(userNickWPrefix);
-            _currentUsers.add(newU);
-            _userPool.add(newU);
-        }
+        return getMembers().users.clone();
     }
-	
-    public BotUser[] getUsers()
+
+    /**
+     * Gets the users in this channel, in the order they came in. This doesn't
+     * copy anything, and the list won't change, even if users join or leave
+     * while you're looking at it.
+     * @return The users.
+     */
+    public List<BotUser> getUserList()
     {
-        return _currentUsers.toArray(new BotUser[_currentUsers.size()]);
+        return getMembers().list;
     }
-	
+
+    /** @return The amount of users in this channel. */
+    public int getUserCount()
+    {
+        return getMembers().users.length;
+    }
+
     public String getName()
     {
         return _name;
     }
-	
+
     public boolean isUserInChannel(BotUser bu)
     {
-        return isUserInChannel(bu.getNick());
+        return getMembers().prefixes.containsKey(bu);
     }
 
     // Finished up the puzzle for people wishing to actually reconstruct the response
@@ -196,40 +236,167 @@ public class Channel implements IRCEventListener, IRCConstants
     {
         return _server;
     }
-	
+
     public boolean isUserInChannel(String nick)
     {
-        for (BotUser bu : _currentUsers)
+        return getUserForName(nick) != null;
+    }
+
+    public BotUser getUserForName(String name)
+    {
+        // With the case mapping the snapshot was made with, it may have changed since.
+        Members m = getMembers();
+        return m.byNick.get(m.caseMapping.toLowerCase(name));
+    }
+
+    /**
+     * Gets the highest prefix a user has in this channel (like @ for ops).
+     * @param bu The user.
+     * @return The prefix, "" if they don't have one, or null if they aren't in this channel.
+     */
+    public String getPrefix(BotUser bu)
+    {
+        String prefixes = getMembers().prefixes.get(bu);
+        if (prefixes == null)
+        {
+            return null;
+        }
+        return prefixes.length() == 0 ? prefixes : prefixes.substring(0, 1);
+    }
+
+    /**
+     * Gets a user's nick like it would be in a NAMES reply, with their highest prefix.
+     * @param bu The user.
+     * @return The nick with it's prefix, or just the nick if they aren't in this channel.
+     */
+    public String getNickWithPrefix(BotUser bu)
+    {
+        String prefix = getPrefix(bu);
+        return prefix != null ? prefix + bu.getNick() : bu.getNick();
+    }
+
+    public String getTopic()
+    {
+        return _topic;
+    }
+
+    /**
+     * Throws away the published members, so the next reader sees the changes.
+     * Does nothing while the NAMES for when we joined are still coming in, so
+     * nobody sees half of them.
+     */
+    void membersChanged()
+    {
+        if (_doneNamesRecv)
         {
-            if (bu.getNick().equals(nick))
+            _snapshot = null;
+        }
+    }
+
+    /**
+     * Gets the published members, making them again if they changed or the
+     * server told us about a different case mapping.
+     */
+    private Members getMembers()
+    {
+        Members m = _snapshot;
+        if (isStale(m))
+        {
+            synchronized (_users)
             {
-                return true;
+                m = _snapshot;
+                if (isStale(m))
+                {
+                    m = new Members(_members, _users.getCaseMapping());
+                    _snapshot = m;
+                }
             }
         }
-        return false;
+        return m;
     }
-	
-    public BotUser getUserForName(String name)
+
+    private static int prefixRank(char c)
     {
-        for (BotUser bu : _currentUsers)
+        for (int i = 0; i < IRC_NICKPREFIXES.length; i++)
         {
-            if (bu.getNick().equalsIgnoreCase(name))
+            if (IRC_NICKPREFIXES[i] == c)
             {
-                return bu;
+                return i;
             }
         }
-        return null;
+        return -1;
     }
-	
-    public String getTopic()
+
+    /** Puts prefixes highest first, so the first one is the one to show. */
+    private static String sortPrefixes(String prefixes)
     {
-        return _topic;
+        if (prefixes.length() < 2)
+        {
+            return prefixes;
+        }
+        StringBuilder sb = new StringBuilder(prefixes.length());
+        for (Character c : IRC_NICKPREFIXES)
+        {
+            if (prefixes.indexOf(c) >= 0)
+            {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Channel modes that give a prefix, and the prefix they give (in the same position). */
+    private static final String PREFIX_MODES = "qaohv";
+    private static final String PREFIX_CHARS = "~&@%+";
+    /** Channel modes that always have a param. */
+    private static final String PARAM_MODES = "beIk";
+    /** Channel modes that only have a param when they're set. */
+    private static final String PARAM_ON_SET_MODES = "lfjL";
+
+    /** @return If the members have to be made again before anyone sees them. */
+    private boolean isStale(Members m)
+    {
+        return m == null || (_doneNamesRecv && m.caseMapping != _users.getCaseMapping());
+    }
+
+    /**
+     * The users in a channel at one point in time. These never change once
+     * they're made, so they can be read without locking.
+     */
+    private static final class Members
+    {
+        Members(Map<BotUser, String> members, CaseMapping caseMapping)
+        {
+            users = members.keySet().toArray(new BotUser[members.size()]);
+            list = Collections.unmodifiableList(Arrays.asList(users));
+            prefixes = Collections.unmodifiableMap(new HashMap<BotUser, String>(members));
+            Map<String, BotUser> nicks = new HashMap<String, BotUser>(users.length * 2);
+            for (BotUser bu : users)
+            {
+                nicks.put(caseMapping.toLowerCase(bu.getNick()), bu);
+            }
+            byNick = Collections.unmodifiableMap(nicks);
+            this.caseMapping = caseMapping;
+        }
+
+        final BotUser[] users;
+        final List<BotUser> list;
+        final Map<BotUser, String> prefixes;
+        final Map<String, BotUser> byNick;
+        /** What {@link #byNick} is keyed with. */
+        final CaseMapping caseMapping;
     }
-	
+
+    private static final Members NO_MEMBERS = new Members(Collections.<BotUser, String>emptyMap(), CaseMapping.ASCII);
+
     private String _name;
-    private String _topic;
-    private String _server;
-    private List<BotUser> _currentUsers = new ArrayList<BotUser>();
-    private boolean _doneNamesRecv = false;
-    private static List<BotUser> _userPool = Collections.synchronizedList(new ArrayList<BotUser>());
+    private volatile String _topic;
+    private volatile String _server;
+    /** The users we share with the rest of the connection. Also the lock for {@link #_members}. */
+    private final UserTable _users;
+    /** The users in this channel and their prefixes (highest first), in the order they came in. Only used by the tracker. */
+    private final Map<BotUser, String> _members = new LinkedHashMap<BotUser, String>();
+    /** What readers see of {@link #_members}, or null if it changed and needs to be made again. */
+    private volatile Members _snapshot = NO_MEMBERS;
+    private volatile boolean _doneNamesRecv = false;
 }
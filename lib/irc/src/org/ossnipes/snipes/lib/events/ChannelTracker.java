@@ -0,0 +1,324 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.events;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ossnipes.snipes.lib.irc.CaseMapping;
+import org.ossnipes.snipes.lib.irc.IRCConstants;
+import org.ossnipes.snipes.lib.irc.SnipesException;
+
+/**
+ * Keeps track of the channels a {@link IRCBase} is in and who is in them.
+ * This is the only listener for channel tracking: it looks at the channel
+ * each event is about and only hands it to that {@link Channel}, so having
+ * lots of channels doesn't make every event slower.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+final class ChannelTracker implements IRCEventListener, IRCConstants
+{
+    ChannelTracker(IRCBase bot)
+    {
+        _bot = bot;
+        _users = new UserTable();
+    }
+
+    public Event[] getRegisteredEvents()
+    {
+        return new Event[] {Event.IRC_RESPONSE_CODE, Event.IRC_JOIN_TOPIC, Event.IRC_TOPIC, Event.IRC_JOIN,
+                            Event.IRC_PART, Event.IRC_KICK, Event.IRC_MODE, Event.IRC_NICK_CHANGE, Event.IRC_QUIT};
+    }
+
+    public void handleEvent(Event ev, EventArgs args)
+    {
+        if (ev == Event.IRC_RESPONSE_CODE)
+        {
+            handleResponseCode(args);
+        }
+        else if (ev == Event.IRC_NICK_CHANGE || ev == Event.IRC_QUIT)
+        {
+            // Not about any channel in particular.
+            _users.handleEvent(ev, args);
+        }
+        else if (ev == Event.IRC_JOIN)
+        {
+            String name = args.getParamAsString("channel");
+            Channel c;
+            if (isUs(args.getParamAsString("nick")))
+            {
+                c = joined(name);
+            }
+            else
+            {
+                c = getChannel(name);
+            }
+            if (c != null)
+            {
+                c.addUser(args.getParamAsString("nick"), args.getParamAsString("user"), args.getParamAsString("host"));
+            }
+        }
+        else if (ev == Event.IRC_PART || ev == Event.IRC_KICK)
+        {
+            String nick = args.getParamAsString(ev == Event.IRC_PART ? "nick" : "kicked");
+            Channel c = getChannel(args.getParamAsString("channel"));
+            if (c == null)
+            {
+                return;
+            }
+            if (isUs(nick))
+            {
+                left(c);
+            }
+            else if (!c.removeUser(nick) && ev == Event.IRC_PART)
+            {
+                throw new SnipesException(nick + " was not found in the list of users, yet they parted channel " + c.getName() + ".");
+            }
+        }
+        else
+        {
+            // Topics and modes.
+            Channel c = getChannel(args.getParamAsString("channel"));
+            if (c == null)
+            {
+                return;
+            }
+            if (ev == Event.IRC_MODE)
+            {
+                c.updatePrefixes(args.getParamAsString("mode"), args.getParamAsString("mode-params"));
+            }
+            else
+            {
+                c.setTopic(args.getParamAsString("topic"));
+            }
+        }
+    }
+
+    private void handleResponseCode(EventArgs args)
+    {
+        int code = (Integer)args.getParam("code");
+        if (code == RPL_WELCOME)
+        {
+            rejoin();
+            return;
+        }
+        else if (code == RPL_ISUPPORT)
+        {
+            setCaseMapping(_bot.getServerSupport().getCaseMapping());
+            return;
+        }
+        else if (code == RPL_WHOREPLY)
+        {
+            handleWhoReply(args.getParamAsString("resp_text"));
+            return;
+        }
+        else if (code != RPL_NAMREPLY && code != RPL_ENDOFNAMES)
+        {
+            return;
+        }
+
+        // 353: "= #Snipes :@Unix +Auv5", 366: "#Snipes :End of /NAMES list."
+        String text = args.getParamAsString("resp_text");
+        int start = 0;
+        if (code == RPL_NAMREPLY)
+        {
+            start = text.indexOf(' ') + 1;
+            if (start == 0)
+            {
+                return;
+            }
+        }
+        int end = text.indexOf(' ', start);
+        Channel c = getChannel(end >= 0 ? text.substring(start, end) : text.substring(start));
+        if (c == null)
+        {
+            return;
+        }
+
+        if (code == RPL_NAMREPLY)
+        {
+            int names = end >= 0 ? text.indexOf(':', end) : -1;
+            if (names >= 0)
+            {
+                c.addNames(text.substring(names + 1), args.getParamAsString("server"));
+            }
+        }
+        else
+        {
+            c.endOfNames();
+        }
+    }
+
+    /**
+     * Fills in the username and host of a user we know from a WHO reply. They
+     * aren't in NAMES replies, so doing a WHO on a channel after joining it is
+     * the only way to know them for the users that were already there.
+     * @param text "#Snipes rubicon projectinfinity.net irc.server Unix H@ :0 Real name"
+     */
+    private void handleWhoReply(String text)
+    {
+        String[] split = text.split(" ", 6);
+        if (split.length < 5)
+        {
+            return;
+        }
+        BotUser bu = _users.get(split[4]);
+        if (bu != null)
+        {
+            bu.setUserHost(split[1], split[2]);
+        }
+    }
+
+    /**
+     * Gets a channel we're in.
+     * @param name The name of the channel, in any case.
+     * @return The channel, or null if we aren't in it.
+     */
+    Channel getChannel(String name)
+    {
+        if (name == null)
+        {
+            return null;
+        }
+        synchronized (_users)
+        {
+            return _channels.get(getCaseMapping().toLowerCase(name));
+        }
+    }
+
+    /** @return The channels we're in, in the order we joined them. */
+    Channel[] getChannels()
+    {
+        synchronized (_users)
+        {
+            return _channels.values().toArray(new Channel[_channels.size()]);
+        }
+    }
+
+    BotUser getUser(String nick)
+    {
+        return _users.get(nick);
+    }
+
+    CaseMapping getCaseMapping()
+    {
+        return _users.getCaseMapping();
+    }
+
+    /**
+     * Forgets the channels we're in after the connection was lost, remembering
+     * their names so they can be joined again when we're let back in.
+     */
+    void reset()
+    {
+        synchronized (_users)
+        {
+            for (Channel c : _channels.values())
+            {
+                _rejoin.add(c.getName());
+                c.clear();
+            }
+            _channels.clear();
+        }
+    }
+
+    /** Joins the channels we were in before the connection was lost, a few to a line. */
+    private void rejoin()
+    {
+        List<String> names;
+        synchronized (_users)
+        {
+            if (_rejoin.isEmpty())
+            {
+                return;
+            }
+            names = new ArrayList<String>(_rejoin);
+            _rejoin.clear();
+        }
+
+        StringBuilder line = new StringBuilder();
+        for (String name : names)
+        {
+            if (line.length() > 0 && line.length() + name.length() + 1 > MAX_JOIN_LENGTH)
+            {
+                _bot.join(line.toString());
+                line.setLength(0);
+            }
+            line.append(line.length() > 0 ? "," : "").append(name);
+        }
+        _bot.join(line.toString());
+    }
+
+    /** Looks everything up with the case mapping the server says it uses from now on. */
+    private void setCaseMapping(CaseMapping caseMapping)
+    {
+        synchronized (_users)
+        {
+            if (caseMapping == getCaseMapping())
+            {
+                return;
+            }
+            _users.setCaseMapping(caseMapping);
+            Channel[] channels = getChannels();
+            _channels.clear();
+            for (Channel c : channels)
+            {
+                _channels.put(caseMapping.toLowerCase(c.getName()), c);
+                c.membersChanged();
+            }
+        }
+    }
+
+    private Channel joined(String name)
+    {
+        String key = getCaseMapping().toLowerCase(name);
+        synchronized (_users)
+        {
+            Channel c = _channels.get(key);
+            if (c == null)
+            {
+                c = new Channel(name, _users);
+                _channels.put(key, c);
+            }
+            return c;
+        }
+    }
+
+    private void left(Channel c)
+    {
+        synchronized (_users)
+        {
+            _channels.remove(getCaseMapping().toLowerCase(c.getName()));
+            // Forget the people we only knew from there.
+            c.clear();
+        }
+    }
+
+    private boolean isUs(String nick)
+    {
+        return getCaseMapping().equals(nick, _bot.getNick());
+    }
+
+    private final IRCBase _bot;
+    /** Everyone in our channels. Also the lock for {@link #_channels}. */
+    private final UserTable _users;
+    /** The channels we're in, by their case mapped names. */
+    private final Map<String, Channel> _channels = new LinkedHashMap<String, Channel>();
+    /** The channels to join again once we've reconnected. */
+    private final List<String> _rejoin = new ArrayList<String>();
+
+    /** The longest list of channels put in one JOIN. */
+    private static final int MAX_JOIN_LENGTH = 400;
+}
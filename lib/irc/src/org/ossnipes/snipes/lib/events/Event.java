@@ -10,10 +10,9 @@
 
 package org.ossnipes.snipes.lib.events;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.ossnipes.snipes.lib.irc.IRCConstants;
 
@@ -35,7 +34,7 @@ public class Event
      * <BR/>
      * code: The numeric from IRCConstants, type {@link Integer}.
      */
-    public static Event IRC_RESPONSE_CODE = new Event("IRC_RESPONSE_CODE", EventType.OUTSIDE);
+    public static final Event IRC_RESPONSE_CODE = new Event("IRC_RESPONSE_CODE", EventType.OUTSIDE);
     /** This event is triggered when someone quits in a channel we are in. The bot cannot provide channel information
      * on this event because it is only sent to us once, no matter how many channels we have in common with the user.
      * This event is not handled in the {@link IRCBase#handleInternalEvent(Event, EventArgs)} method. This may change
@@ -44,6 +43,7 @@ public class Event
      * Params (gotten with {@link EventArgs#getParam(String)}):
      * <BR/>
      * nick -- The nick of the user quitting.<BR/>
+     * user -- The username of the user quitting.<BR/>
      * host -- The hostname of the user quitting.<BR/>
      * message -- The quit message specified. As with the {@link #public static final EvNew IRC_PART} event, this parameter may be null.<BR/>
      * This is because the server is not required to send a message along with the command (although it generally
@@ -65,15 +65,17 @@ public class Event
      * message -- The body of the message being sent to us.
      */
     public static final Event IRC_NOTICE = new Event("IRC_NOTICE", EventType.OUTSIDE);
-    /** This event is triggered when the server sends us a PING command, or someone else does.
-     * This is handled in the {@link IRCBase#handleInternalEvent(Event, EventArgs)} method,
-     * but it can also be handled in the {@link IRCBase#handleEvent(Event, EventArgs)} method
-     * without impairing normal functionality.
+    /** This event was triggered when the server sent us a PING command.
      * 
      * <BR/><BR/>Params (gotten with {@link EventArgs#getParam(String)}):<BR/>
      * server -- The server we're recieving a ping from (may also be a nickname, not sure though.)
      * 
+     * @deprecated PINGs from the server are now answered as soon as they're
+     * read, and never sent as events, so the PONG doesn't have to wait for
+     * the event Threads. This event is never sent any more, it's only kept
+     * so old plugins still compile.
      */
+    @Deprecated
     public static final Event IRC_PING = new Event("IRC_PING", EventType.OUTSIDE);
 	
     /** This event is triggered when a user sends a PRIVMSG to us or a channel we are in.
@@ -126,8 +128,13 @@ public class Event
      * Params (gotten with {@link EventArgs#getParam(String)}:
      * <BR/>
      * nick -- The nick of the user joining the channel.<BR/>
+     * user -- The username of the user joining the channel.<BR/>
      * host -- The hostname of the user joining the channel.<BR/>
-     * channel -- The channel the user is joining.
+     * channel -- The channel the user is joining.<BR/>
+     * account -- The account the user is logged in to. This is only there if the server
+     * has the extended-join or account-tag capability, and the user is logged in.<BR/>
+     * realname -- The realname of the user. This is only there if the server has the
+     * extended-join capability.
      */
     public static final Event IRC_JOIN = new Event("IRC_JOIN", EventType.OUTSIDE);
 	
@@ -176,6 +183,7 @@ public class Event
      * <BR/>
      * nick-old -- The old nick of the user, before this event.<BR/>
      * nick-new -- The new nick of the user, after this event.<BR/>
+     * user -- The username of the user changing their nick.<BR/>
      * host -- The hostname of the user changing their nick.
      */
     public static final Event IRC_NICK_CHANGE = new Event("IRC_NICK_CHANGE", EventType.OUTSIDE);
@@ -210,8 +218,7 @@ public class Event
     /** This event is used in the bot as a method to get passed the limitation of not being able to retrieve Strings
      * from the {@link java.net.Socket}'s buffer except for in the {@link IRCReceiver} class. Currently, this event is
      * never sent to {@link IRCEventListener}s other than {@link IRCBase#handleInternalEvent(Event, EventArgs)},
-     *  as the handling of it in {@link IRCBase#handleInternalEvent(Event, EventArgs)} involves the application exiting.
-     * This may later be revised to allow bots to execute cleanup code when our nick is already in use.
+     *  as {@link IRCBase#handleInternalEvent(Event, EventArgs)} has to pick another nick before anything else happens.
      * <BR/><BR/>
      * Params (gotten with {@link EventArgs#getParam(String)}):<BR/>
      * line -- The raw line received from the server. Currently not used.
@@ -220,84 +227,83 @@ public class Event
 	
     protected Event(String name, EventType evt)
     {
+        if (name == null)
+        {
+            throw new IllegalArgumentException("Event name cannot be null.");
+        }
         _name = name;
         _evt = evt;
-        _ordinal = _ordinal_counter ++;
+        _ordinal = register(this);
     }
-	
-    /** Returns an array of all of the enumeration items in this class.
-     * @return The array of all of the enumeration items in this class.
+
+    /** Adds a new event to the registry. Every event, including ones from
+     * subclasses, ends up here when it's class is initialised.
+     * @param ev The event.
+     * @return The event's ordinal.
      */
-    public static Event[] values()
+    private static synchronized int register(Event ev)
     {
-        // The class we are.
-        Class<Event> thisClass = Event.class;
-        // A list of all the fields in this class.
-        Field[] fields = thisClass.getFields();
-		
-        // The modifiers we want.
-        int modifiers = modifierFromString("public") | modifierFromString("static") | modifierFromString("final");
-		
-        // No need in processing if there are no fields.
-        if (fields.length == 0)
+        // The static fields aren't initialised yet when the constants above
+        // are created, so they're set up here instead.
+        if (_values == null)
         {
-            return new Event [] {};
+            _values = new Event [0];
+            _byName = new ConcurrentHashMap<String, Event>();
         }
-		
-        // Will hold all of the Objects matching out needs.
-        List<Event> evs = new ArrayList<Event>();
-        for (Field f : fields)
+
+        int ordinal = _values.length;
+        Event[] values = new Event [ordinal + 1];
+        System.arraycopy(_values, 0, values, 0, ordinal);
+        values[ordinal] = ev;
+
+        if (_byName.putIfAbsent(ev._name.toUpperCase(Locale.ENGLISH), ev) != null)
         {
-            // Is it not one of us?
-            if (f.getType() != Event.class)
-            {
-                continue;
-            }
-			
-            // Check for the modifiers.
-            if (f.getModifiers() == modifiers)
-            {
-                try {
-                    // (f.get() is passed null because it has already been determined to be a static field)
-                    evs.add((Event)f.get(null));
-                } catch (Exception e) {continue;}
-            }
+            System.err.println("Snipes: There is more than one Event named " + ev._name
+                               + ". valueOf() will only find the first.");
         }
-        // Return the array
-        return evs.toArray(new Event [evs.size()]);
+
+        _values = values;
+        return ordinal;
     }
 	
-    /** A simple method to allow for turning of modifier names into integer constants.
-     * 
-     * @param s The name of the modifier ("public", "static", etc)
-     * @return The integer representation of it.
+    /** Returns an array of all of the enumeration items in this class, and
+     * it's subclasses that have been loaded, in the order of their ordinals.
+     * @return The array of all of the enumeration items in this class.
      */
-    private static int modifierFromString(String s) {
-        int m = 0x0;
-        if ("public".equals(s))           m |= Modifier.PUBLIC;
-        else if ("protected".equals(s))   m |= Modifier.PROTECTED;
-        else if ("private".equals(s))     m |= Modifier.PRIVATE;
-        else if ("static".equals(s))      m |= Modifier.STATIC;
-        else if ("final".equals(s))       m |= Modifier.FINAL;
-        else if ("transient".equals(s))   m |= Modifier.TRANSIENT;
-        else if ("volatile".equals(s))    m |= Modifier.VOLATILE;
-        return m;
+    public static Event[] values()
+    {
+        Event[] values = _values;
+        return values == null ? new Event [] {} : values.clone();
+    }
+
+    /** Returns the enumeration constant with the given ordinal.
+     * @param ordinal The ordinal, as returned by {@link #ordinal()}.
+     * @return The {@link Event}, or null if there is none with that ordinal.
+     */
+    public static Event fromOrdinal(int ordinal)
+    {
+        Event[] values = _values;
+        if (values == null || ordinal < 0 || ordinal >= values.length)
+        {
+            return null;
+        }
+        return values[ordinal];
     }
 	
     /** Returns the enumeration constant with the same name as {@code name}
+     * (case insensitive).
      * @param name The name to search for.
-     * @return The {@link Event} Object of the {@link Event} with the same name.
+     * @return The {@link Event} Object of the {@link Event} with the same name,
+     * or null if there is none.
      */
     public static Event valueOf(String name)
     {
-        for (Event e : values())
+        Map<String, Event> byName = _byName;
+        if (name == null || byName == null)
         {
-            if (e.toString().equalsIgnoreCase(name))
-            {
-                return e;
-            }
+            return null;
         }
-        return null;
+        return byName.get(name.toUpperCase(Locale.ENGLISH));
     }
 	
     public EventType getType()
@@ -326,5 +332,8 @@ public class Event
     private final String _name;
     private final EventType _evt;
 	
-    private static int _ordinal_counter;
+    /** Every event, by ordinal. Replaced (never changed) when a event is added. */
+    private static volatile Event[] _values;
+    /** Every event, by upper case name. */
+    private static volatile ConcurrentHashMap<String, Event> _byName;
 }
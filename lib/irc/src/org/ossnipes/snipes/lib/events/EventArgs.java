@@ -10,30 +10,85 @@
 
 package org.ossnipes.snipes.lib.events;
 
-import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
 /** Wrapper class for arguments to Snipes events. 
+ * <BR/><BR/>
+ * The params are either kept in a Map, or (for the events the bot sends
+ * itself) in a array laid out by a {@link EventSchema}, which is a lot
+ * cheaper to create. Either way, they're read the same way, with
+ * {@link #getParam(String)}.
+ * <BR/><BR/>
+ * EventArgs aren't pooled or reused. They're handed to listeners on other
+ * Threads (and kept by some of them), so there's no safe point to take them back.
  * @author jack 
  */
 public class EventArgs
 {
     private Map<String,Object> _params = null;
+    private EventSchema _schema = null;
+    private Object[] _values = null;
+    private String _line;
     private Event _ev;
+    private MessageTags _tags = MessageTags.EMPTY;
     /** Constructs a event arguments object with no keys.
      */
     public EventArgs(Event ev, String line)
     {
-        _params = new HashMap<String,Object>();
+        this(ev, line, EventSchema.EMPTY);
+    }
+
+    /** Constructs a event arguments object with the params laid out by a schema.
+     * @param ev The event.
+     * @param line The line that caused the event.
+     * @param schema The names of the params.
+     * @param values The values of the params, in the same order as the schema's keys.
+     * Null values are treated as if the param was never given.
+     * @throws IllegalArgumentException If there isn't exactly one value for each key.
+     */
+    public EventArgs(Event ev, String line, EventSchema schema, Object... values)
+    {
+        if (schema == null || values == null || values.length != schema.size())
+        {
+            throw new IllegalArgumentException("There must be one value for each key in the schema.");
+        }
         _ev = ev;
-        _params.put("line", line);
+        _line = line;
+        _schema = schema;
+        _values = values;
     }
 	
     public Event getEvent()
     {
         return _ev;
     }
+
+    /** Gets the IRCv3 message tags the line that caused this event was sent with.
+     * They aren't part of the "line" param, so code that splits it up still works.
+     * @return The tags. Empty if there were none, or the event didn't come from a line.
+     */
+    public MessageTags getTags()
+    {
+        return _tags;
+    }
+
+    /** Gets one of the IRCv3 message tags the line that caused this event was sent with,
+     * like "time" (server-time) or "account" (account-tag). This is the same as
+     * {@link #getTags()}.get(key).
+     * @param key The name of the tag.
+     * @return The tag's value, "" if it has none, or null if the line didn't have it.
+     */
+    public String getTag(String key)
+    {
+        return _tags.get(key);
+    }
+
+    void setTags(MessageTags tags)
+    {
+        _tags = tags;
+    }
 	
     /** Converts the two specified arrays and uses the keys array as the keys for the parameters, and 
      * uses the values array as the values of the Strings of the keys array with the same index.
@@ -52,7 +107,19 @@ public class EventArgs
 	
     public boolean containsKey(String key)
     {
-        return _params.containsKey(key);
+        if (_schema == null)
+        {
+            return _params.containsKey(key);
+        }
+        else if ("line".equals(key))
+        {
+            return true;
+        }
+        else
+        {
+            int slot = _schema.indexOf(key);
+            return slot != -1 && _values[slot] != null;
+        }
     }
 	
     /** Creates a EventArgs object with the specified arguments as it's parameters.
@@ -73,7 +140,19 @@ public class EventArgs
      */
     public Object getParam(String key)
     {
-        return _params.get(key);
+        if (_schema == null)
+        {
+            return _params.get(key);
+        }
+        else if ("line".equals(key))
+        {
+            return _line;
+        }
+        else
+        {
+            int slot = _schema.indexOf(key);
+            return slot != -1 ? _values[slot] : null;
+        }
     }
     /** Gets all the keys in this args set.<BR/>
      * A common use of this would be: <BR/><BR/>
@@ -87,7 +166,20 @@ public class EventArgs
      */
     public Set<String> getKeySet()
     {
-        return _params.keySet();
+        if (_schema == null)
+        {
+            return _params.keySet();
+        }
+        Set<String> keys = new LinkedHashSet<String>();
+        for (int i = 0; i < _values.length; i++)
+        {
+            if (_values[i] != null)
+            {
+                keys.add(_schema.getKey(i));
+            }
+        }
+        keys.add("line");
+        return keys;
     }
 
     /** Retrieves a event parameter as a String, using the {@link Object#toString()} method (so that it is more typesafe than
@@ -99,9 +191,9 @@ public class EventArgs
     public String getParamAsString(String key)
     {
         Object o = getParam(key);
-        if (o == null)
+        if (o == null || o instanceof String)
         {
-            return null;
+            return (String)o;
         }
         return o.toString();
     }
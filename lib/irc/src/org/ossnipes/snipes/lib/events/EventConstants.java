@@ -15,5 +15,28 @@ public interface EventConstants
     /** The set of events that need handling by the bot framework itself, along with possibly 
      * the user.
      */
-    static final Event[] INTERNAL_EVENTS = { Event.IRC_JOIN, Event.IRC_NICKINUSE };
+    static final Event[] INTERNAL_EVENTS = { Event.IRC_NICKINUSE };
+
+    /** The events that may be thrown away when the event pool is overloaded and it's
+     * policy is {@link OverloadPolicy#DROP_LOW_PRIORITY}.
+     */
+    static final Event[] LOW_PRIORITY_EVENTS = { Event.IRC_UNKNOWN, Event.IRC_NOTICE, Event.IRC_PRIVMSG };
+
+    /** The events that are sent once for every line from the server: every
+     * numeric is a IRC_RESPONSE_CODE, and everything else gets the event for
+     * it's command or IRC_UNKNOWN. Events like IRC_JOIN_TOPIC and
+     * IRC_NICKINUSE are sent for the same line as a IRC_RESPONSE_CODE, so
+     * they aren't here. Listeners that pass on the lines themselves (like
+     * the bouncer) should only listen for these, or they'd get some lines
+     * twice.
+     */
+    static final Event[] LINE_EVENTS = { Event.IRC_RESPONSE_CODE, Event.IRC_QUIT, Event.IRC_NOTICE,
+                                         Event.IRC_PRIVMSG, Event.IRC_JOIN, Event.IRC_TOPIC, Event.IRC_KICK,
+                                         Event.IRC_MODE, Event.IRC_NICK_CHANGE, Event.IRC_PART, Event.IRC_UNKNOWN };
+
+    /** The default amount of Threads used to send events. */
+    static final int DEFAULT_EVENT_THREADS = 16;
+
+    /** The default amount of events (or handler calls) that can wait for a Thread. */
+    static final int DEFAULT_EVENT_QUEUE = 1000;
 }
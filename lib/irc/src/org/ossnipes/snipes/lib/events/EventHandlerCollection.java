@@ -13,12 +13,106 @@ package org.ossnipes.snipes.lib.events;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-public class EventHandlerCollection {
+public class EventHandlerCollection implements EventConstants {
     public EventHandlerCollection() {
-        _evmngrs = new ArrayList<JavaEventHandlerManager>();
-        _pool = Executors.newCachedThreadPool();
+        // Listeners are added and removed rarely and read for every event.
+        _evmngrs = new CopyOnWriteArrayList<JavaEventHandlerManager>();
+        configurePool(DEFAULT_EVENT_THREADS, DEFAULT_EVENT_QUEUE, OverloadPolicy.BLOCK);
+    }
+
+    /**
+     * Sets up a new pool of Threads used to send events, just for this
+     * collection. The pool never has more than the given amount of Threads,
+     * and never queues more than the given amount of events (or handler
+     * calls). What happens when the queue is full is decided by the policy.
+     * Events already queued in the old pool are still sent.
+     * @param threads The most Threads to use. Must be at least 1.
+     * @param queueCapacity The most tasks that can wait for a Thread. Must be at least 1.
+     * @param policy What to do when the queue is full.
+     */
+    public synchronized void configurePool(int threads, int queueCapacity, OverloadPolicy policy)
+    {
+        usePool(new EventPool(threads, queueCapacity, policy), true);
+    }
+
+    /**
+     * Sends events with a pool that may be shared with other collections.
+     * The pool isn't shut down when it's replaced, whoever made it has to do that.
+     * @param pool The pool.
+     */
+    public synchronized void setPool(EventPool pool)
+    {
+        if (pool == null)
+        {
+            throw new IllegalArgumentException("Event pool cannot be null.");
+        }
+        usePool(pool, false);
+    }
+
+    /** @return The pool used to send events. */
+    public EventPool getPool()
+    {
+        return _pool;
+    }
+
+    private void usePool(EventPool pool, boolean owned)
+    {
+        EventPool old = _pool;
+        _pool = pool;
+        if (old != null && old != pool && _ownsPool)
+        {
+            old.replaceWith(pool);
+        }
+        _ownsPool = owned;
+    }
+
+    public OverloadPolicy getOverloadPolicy()
+    {
+        return _pool.getOverloadPolicy();
+    }
+
+    /** @return The most Threads the event pool will use. */
+    public int getPoolSize()
+    {
+        return _pool.getPoolSize();
+    }
+
+    /** @return The most tasks that can wait for a Thread. */
+    public int getQueueCapacity()
+    {
+        return _pool.getQueueCapacity();
+    }
+
+    /** @return The amount of tasks currently waiting for a Thread. */
+    public int getQueueDepth()
+    {
+        return _pool.getQueueDepth();
+    }
+
+    /** @return The amount of Threads currently sending events. */
+    public int getActiveThreads()
+    {
+        return _pool.getActiveThreads();
+    }
+
+    /** @return How many times a task was sent when the queue was already full. */
+    public long getRejectedCount()
+    {
+        return _pool.getRejectedCount();
+    }
+
+    /** @return How many tasks were thrown away because of {@link OverloadPolicy#DROP_LOW_PRIORITY}. */
+    public long getDroppedCount()
+    {
+        return _pool.getDroppedCount();
+    }
+
+    /** @return How many events had their handlers called in a single task because of {@link OverloadPolicy#COALESCE}. */
+    public long getCoalescedCount()
+    {
+        return _pool.getCoalescedCount();
     }
 	
     /** Adds a listener for events from the bot.
@@ -31,16 +125,22 @@ public class EventHandlerCollection {
         {
             throw new IllegalArgumentException("Cannot add null event handler.");
         }
-		
-        else if (_evmngrs.contains(listener))
-        {
-            throw new IllegalArgumentException("Event handler already added.");
-        }
-        else
+
+        synchronized (this)
         {
+            for (JavaEventHandlerManager ehm : _evmngrs)
+            {
+                if (ehm.equals(listener))
+                {
+                    throw new IllegalArgumentException("Event handler already added.");
+                }
+            }
+
             JavaEventHandlerManager ehm = new JavaEventHandlerManager(listener);
             ehm.registerInitialEvents();
+            ehm.setCollection(this);
             _evmngrs.add(ehm);
+            subscriptionsChanged();
             return listener;
         }
     }
@@ -63,19 +163,17 @@ public class EventHandlerCollection {
         }
         else
         {
-            List<JavaEventHandlerManager> mans = this.getListeners();
-			
-            int i = 0;
-			
-            // Loop through the listeners
-            while (i < mans.size())
+            synchronized (this)
             {
-                EventHandlerManager ehm = mans.get(i);
-                if (ehm.equals(listener))
+                for (JavaEventHandlerManager ehm : _evmngrs)
                 {
-                    mans.remove(i);
+                    if (ehm.equals(listener))
+                    {
+                        ehm.setCollection(null);
+                        _evmngrs.remove(ehm);
+                    }
                 }
-                i++;
+                subscriptionsChanged();
             }
         }
     }
@@ -87,16 +185,118 @@ public class EventHandlerCollection {
 	
     ExecutorService getThreadPool()
     {
-        return _pool;
+        return _pool.getExecutor();
     }
-	
+
+    /** @see EventPool#dispatch(Runnable, Event) */
+    void dispatch(Runnable task, Event ev)
+    {
+        _pool.dispatch(task, ev);
+    }
+
+    /** @see EventPool#dispatchVirtual(Runnable, Event) */
+    void dispatchVirtual(Runnable task, Event ev)
+    {
+        _pool.dispatchVirtual(task, ev);
+    }
+
+    /** @see EventPool#shouldCoalesce(int) */
+    boolean shouldCoalesce(int tasks)
+    {
+        return _pool.shouldCoalesce(tasks);
+    }
+
+    /** @return True if the current Thread belongs to a event pool (or is a virtual Thread sending a event). */
+    boolean isPoolThread()
+    {
+        return EventPool.isPoolThread();
+    }
+
+    /** @see EventPool#dropsLowPriority() */
+    boolean dropsLowPriority()
+    {
+        return _pool.dropsLowPriority();
+    }
+
+    void countRejected()
+    {
+        _pool.countRejected();
+    }
+
+    void countDropped()
+    {
+        _pool.countDropped();
+    }
+
     List<JavaEventHandlerManager> getListeners() 
     {
         return _evmngrs;
     }
+
+    /**
+     * Gets the listeners that want a event: the ones subscribed to it, and
+     * every IRCBase (they get everything). The array must not be changed.
+     * @param ev The event.
+     * @return The listeners, in the order they were added. Empty if nobody wants the event.
+     */
+    JavaEventHandlerManager[] getListeners(Event ev)
+    {
+        JavaEventHandlerManager[][] index = _index;
+        int ordinal = ev.ordinal();
+        if (index == null || ordinal >= index.length)
+        {
+            index = buildIndex(ordinal);
+        }
+        return index[ordinal];
+    }
+
+    /** Called when a listener is added or removed, or changes it's subscriptions. */
+    synchronized void subscriptionsChanged()
+    {
+        // Rebuilt the next time a event is sent.
+        _index = null;
+    }
+
+    private synchronized JavaEventHandlerManager[][] buildIndex(int ordinal)
+    {
+        JavaEventHandlerManager[][] index = _index;
+        if (index != null && ordinal < index.length)
+        {
+            // Somebody beat us to it.
+            return index;
+        }
+
+        int size = Math.max(ordinal + 1, index != null ? index.length : MIN_INDEX_SIZE);
+        index = new JavaEventHandlerManager[size][];
+
+        List<JavaEventHandlerManager> wants = new ArrayList<JavaEventHandlerManager>();
+        for (int i = 0; i < size; i++)
+        {
+            wants.clear();
+            for (JavaEventHandlerManager ehm : _evmngrs)
+            {
+                if (ehm.isIRCBase() || ehm.isSubscribed(i))
+                {
+                    wants.add(ehm);
+                }
+            }
+            index[i] = wants.isEmpty() ? NO_LISTENERS : wants.toArray(new JavaEventHandlerManager[wants.size()]);
+        }
+
+        _index = index;
+        return index;
+    }
 	
+    /** The smallest index, so a few custom events don't mean rebuilding it. */
+    private static final int MIN_INDEX_SIZE = 64;
+    private static final JavaEventHandlerManager[] NO_LISTENERS = new JavaEventHandlerManager[0];
+
     private List<JavaEventHandlerManager> _evmngrs;
+    /** The listeners for each event, by the event's ordinal. Null until the next event after a change. */
+    private volatile JavaEventHandlerManager[][] _index;
     private ThreadLocal<EventArgs> _currentEvent = new ThreadLocal<EventArgs>();
-    private ExecutorService _pool = null;
+    private volatile EventPool _pool = null;
+    /** If we made the pool, and so should shut it down when it's replaced. */
+    private boolean _ownsPool;
     private ThreadLevel _threadLevel = ThreadLevel.TL_PER_HANDLER;
 }
@@ -10,11 +10,8 @@
 
 package org.ossnipes.snipes.lib.events;
 
-import static org.ossnipes.snipes.lib.events.BotUtils.convertToInt;
-import static org.ossnipes.snipes.lib.events.BotUtils.isInteger;
-import static org.ossnipes.snipes.lib.events.BotUtils.sendEvent;
-
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
 import org.ossnipes.snipes.lib.irc.BotConstants;
@@ -36,6 +33,12 @@ class EventInputHandler implements BotConstants, IRCConstants, InputHandler
         _parent = parent;
     }
 
+    /** Forgets about the last connection, so the next one starts from registering again. */
+    void reset()
+    {
+        _finishedConnection = false;
+    }
+
     /**
      * Method to actually handle the lines sent by the IRC server.
      * 
@@ -52,593 +55,414 @@ class EventInputHandler implements BotConstants, IRCConstants, InputHandler
             System.out.println(line);
         }
 
-        String[] exSplit = line.split(" ");
-
-        // Impossible case
-        if (exSplit.length == 0)
-        {
-            return;
-        }
+        // Lines are handled one at a time, so we can reuse the same message.
+        IRCMessage msg = _msg.parse(line);
 
         // When a IRC response is sent to us.
         // This event is checked for before the safeguard because the IRCBase class requires it to test
         // if the nick is already in use.
-        if (exSplit.length > 1 && isInteger(exSplit[1]))
+        if (msg.isNumeric())
         {
-            isResponseCode = handleResponseCode(line, exSplit);
+            isResponseCode = handleResponseCode(msg);
         }
 
         if (!_finishedConnection)
         {
-            handleUnfinishedConnection(line, exSplit);
+            handleUnfinishedConnection(msg);
             return;
         }
 
-        // PING command: we need this or the server'll disconnect us!
-        if (exSplit[0].equals("PING"))
+        // Find the handler for the command. Numerics are looked up by their
+        // value, everything else by name.
+        CommandHandler handler;
+        if (msg.isNumeric())
         {
-            handlePing(line, exSplit);
+            handler = NUMERIC_HANDLERS[msg.getNumeric()];
         }
-
-        // PRIVMSG command: If the user sends a PRIVMSG to us or to a channel
-        // Example: ":Auv5!~auv5@projectinfinity.net PRIVMSG #Snipes :A IRC PRIVMSG!"
-        else if (exSplit.length >= 4 && exSplit[1].equalsIgnoreCase("PRIVMSG"))
+        else
         {
-            handlePrivMsg(line, exSplit);
+            String command = msg.getCommand();
+            handler = COMMAND_HANDLERS.get(command);
+            if (handler == null)
+            {
+                // Servers don't have to send commands in upper case.
+                handler = COMMAND_HANDLERS.get(command.toUpperCase(Locale.ENGLISH));
+            }
         }
 
-        // When the topic is sent to us at join.
-        // This is *different* than when the topic is set. That is the next if statement down.
-        // Example: ":Equinox.GeekShed.net 332 SnipesBot #Snipes :Article in progress about Snipes :D"
-        else if (exSplit.length >= 4 && isInteger(exSplit[1]) &&
-                 convertToInt(exSplit[1]) == RPL_TOPIC)
+        if (handler != null && handler.accepts(msg))
         {
-            handleOnJoinTopic(line, exSplit);
+            handler.handle(this, msg);
         }
-        // When the topic is changed by (typically) an operator
-        // This is *different* than when the topic send to us at join.
-        // That is the previous event. If a network offers "services" such as Chanserv with a topic
-        // retention feature, then this event may trigger when joining a empty channel.
-        // Example: ":Unix!~auv5@projectinfinity.net TOPIC #Snipes :Read this! It's a good document for all who want to use Snipes' plugin API :). http://ossnipes.org/docs/snipes/snipes-article.html | ?? PROFIT"
-        else if (exSplit.length >= 4 && exSplit[1].equalsIgnoreCase("TOPIC") && exSplit[2].startsWith("#"))
-        {
-            handleTopicChange(line, exSplit);
-        }
-        // When a user joins a channel we are in.
-        // Example: ":Unix!rubicon@projectinfinity.net JOIN :#Snipes"
-        else if (exSplit.length == 3 && exSplit[1].equalsIgnoreCase("JOIN"))
-        {
-            handleUserJoined(line, exSplit);
-        }
-
-        // When a user or a network service/server sets a mode on a channel we are in.
-        // Example: ":ChanServ!services@geekshed.net MODE #Snipes +qo Unix Unix"
-        // ?: ":Snipes-RunSetNick MODE Snipes-RunSetNick :+iRx"
-        else if (exSplit.length >= 4 && exSplit[1].equalsIgnoreCase("MODE") && (exSplit[3].substring((exSplit[3].startsWith(":") ? 1 : 0)).startsWith("+")
-                                                                                || exSplit[3].substring((exSplit[3].startsWith(":") ? 1 : 0)).startsWith("-")))
+        // If we've tried our best, and we have no idea what it is,
+        // send a IRC_UNKNOWN event anyways. The user might know something about it.
+        else if (!isResponseCode)
         {
-            handleModeSet(line, exSplit);
+            handleUnknownEvent(msg);
         }
+    }
 
-        // When a user parts a channel we are in.
-        // Example: ":Unix!rubicon@projectinfinity.net PART #Snipes :Ciao."
-        // We can't test if there's a message. The RFC says that commands can be sent without a message.
-        // This command is similar to the JOIN command :\.
-        else if (exSplit.length >= 3 && exSplit[1].equalsIgnoreCase("PART"))
+    /**
+     * Sends a event for the line being handled, with the line's tags.
+     * @see BotUtils#sendEvent(EventArgs, IRCBase)
+     */
+    private void sendEvent(EventArgs args, IRCBase parent)
+    {
+        if (_msg.hasTags())
         {
-            handleUserParted(line, exSplit);
+            args.setTags(_msg.getTags());
         }
+        BotUtils.sendEvent(args, parent);
+    }
 
+    private void handleUnknownEvent(IRCMessage msg) {
+        // Send a unknown event, with the line as the only param.
+        sendEvent(new EventArgs(Event.IRC_UNKNOWN, msg.getLine()), _parent);
+    }
 
-        // When someone changes their nick in a channel we are in.
-        // Example: ":Unix!rubicon@projectinfinity.net NICK Auv5"
-        else if (exSplit.length == 3 && exSplit[1].equalsIgnoreCase("NICK"))
-        {
-            handleUserNickChange(line, exSplit);
-        }
+    private void handleUserQuit(IRCMessage msg) {
+        // The quit message may not be there.
+        sendEvent(new EventArgs(Event.IRC_QUIT, msg.getLine(), QUIT_ARGS,
+                                msg.getNick(), msg.getUser(), msg.getHost(), msg.getParamsFrom(0)),
+                  _parent);
+    }
 
+    private void handleUserNoticed(IRCMessage msg) {
+        // Servers don't have a host, so just give them the server name.
+        String host = msg.getHost();
 
-        // When a user (possibly us) is kicked from a channel we are in.
-        // Example: ":Unix!rubicon@projectinfinity.net KICK #Snipes Auv5[Away] :Event tests ftw :)"
-        else if (exSplit.length >= 4 && exSplit[1].equalsIgnoreCase("KICK"))
-        {
-            handleUserKicked(line, exSplit);
-        }
+        // Non-standard servers that don't use : in front of 1-word
+        // messages are handled by the parser.
+        sendEvent(new EventArgs(Event.IRC_NOTICE, msg.getLine(), NOTICE_ARGS,
+                                msg.getNick(), host != null ? host : msg.getPrefix(),
+                                msg.getParam(0), msg.getParam(1)),
+                  _parent);
+    }
 
-        // When a user sends a NOTICE command to us or a channel we are in.
-        // Example: ":Unix!rubicon@projectinfinity.net NOTICE Snipes-RunSetNick :Hello world!"
-        else if (exSplit.length >= 4 && exSplit[1].equalsIgnoreCase("NOTICE"))
-        {
-            handleUserNoticed(line, exSplit);
-        }
+    private void handleUserKicked(IRCMessage msg) {
+        // The kick message may not be there.
+        sendEvent(new EventArgs(Event.IRC_KICK, msg.getLine(), KICK_ARGS,
+                                msg.getNick(), msg.getHost(), msg.getParam(0),
+                                msg.getParam(1), msg.getParamsFrom(2)),
+                  _parent);
+    }
 
-        // When a user leaves the network in a channel we are in.
-        // We cannot produce a "channel" parameter for this command for two reasons:
-        // 1. It is not a argument to the command
-        // 2. The command is only sent once, regardless of how many channels we have in common with the user.
-        // Example: ":Auv5[Away]!~auv5@projectinfinity.net QUIT :Goodbye world!"
-        else if (exSplit.length >= 2 && exSplit[1].equalsIgnoreCase("QUIT"))
-        {
-            handleUserQuit(line, exSplit);
-        }
+    private void handleUserNickChange(IRCMessage msg) {
+        sendEvent(new EventArgs(Event.IRC_NICK_CHANGE, msg.getLine(), NICK_ARGS,
+                                msg.getNick(), msg.getParam(0), msg.getUser(), msg.getHost()),
+                  _parent);
+    }
 
-        // If we've tried our best, and we have no idea what it is from all our checks,
-        // send a IRC_UNKNOWN event anyways. The user might know something about it.
-        // PLEASE KEEP THIS AS THE LAST ELSE IF.
-        else if (!isResponseCode)
-        {
-            handleUnknownEvent(line);
-        }
+    private void handleUserParted(IRCMessage msg) {
+        // The part message may not be there.
+        sendEvent(new EventArgs(Event.IRC_PART, msg.getLine(), PART_ARGS,
+                                msg.getNick(), msg.getHost(), msg.getParam(0),
+                                msg.getParamsFrom(1)),
+                  _parent);
     }
 
-    private void handleUnknownEvent(String line) {
-        // Send a unknown event, with the line as the only param.
-        sendEvent(new EventArgs(Event.IRC_UNKNOWN, line), _parent);
+    private void handleModeSet(IRCMessage msg) {
+        // The nick of the user setting the mode, or the address of the server
+        // if it's a server setting it. Servers don't have a host, so they get
+        // the same thing as setter-host.
+        String setter = msg.getNick();
+        String host = msg.getHost();
+
+        // mode-params is the part after +qo in ":ChanServ!services@geekshed.net MODE #Snipes +qo Unix Unix",
+        // and may not be there.
+        sendEvent(new EventArgs(Event.IRC_MODE, msg.getLine(), MODE_ARGS,
+                                msg.getParam(0), setter, host != null ? host : setter,
+                                msg.getParam(1), msg.getParamsFrom(2)),
+                  _parent);
     }
 
-    private void handleUserQuit(String line, String[] exSplit) {
-        // Holds the arguments
-        Map<String,Object> params = new HashMap<String,Object>();
-        // nick -- The nick of the user joining the channel
-        params.put("nick", exSplit[0].split("!")[0].substring(exSplit[0].startsWith(":") ? 1 : 0));
-        // host -- The hostname of the user joining
-        params.put("host", exSplit[0].split("@")[1]);
-
-        //START getting message (the part message).
-        // Check if there is a message
-        if (exSplit.length > 2)
+    private void handleUserJoined(IRCMessage msg) {
+        // With extended-join the server tells us the account ("*" if there
+        // isn't one) and the realname. Without it, account-tag may still
+        // tell us the account.
+        String account;
+        if (msg.getParamCount() >= 3)
         {
-            String msg = "";
-            // If there is...
-            // Stick them together and send it off in the params.
-            for (int i = 2; i < exSplit.length; i++)
+            account = msg.getParam(1);
+            if (account.equals("*"))
             {
-                msg += (i == 2 ? "" : " ") + exSplit[i];
+                account = null;
             }
-            params.put("message", msg.substring((msg.startsWith(":") ? 1 : 0)));
         }
         else
         {
-            // Map will keep it as null.
+            account = msg.hasTags() ? msg.getTags().get("account") : null;
         }
-        // END getting message
 
-        // Fire off the event.
-        sendEvent(new EventArgs(Event.IRC_QUIT, line, params),
+        sendEvent(new EventArgs(Event.IRC_JOIN, msg.getLine(), JOIN_ARGS,
+                                msg.getNick(), msg.getUser(), msg.getHost(), msg.getParam(0),
+                                account, msg.getParam(2)),
                   _parent);
     }
 
-    private void handleUserNoticed(String line, String[] exSplit) {
-        // Hold the args.
-        Map<String, Object> params = new HashMap<String, Object>();
-        // Add the sender
-        // We don't need to check the length,
-        // it was already checked at the top.
-        params.put("from", exSplit[0].split("!")[0].
-                   // Support for servers which don't
-                   // put : in front of the host.
-                   substring((exSplit[0].startsWith(":") ? 1 : 0)));
-
-        // Put the hostname in from-host
-        params.put("from-host", exSplit[0].contains("@") ? exSplit[0].split("@")[1] : exSplit[0]);
-
-        // Add the recipient, this will be getNick()
-        // if we receive a PRIVMSG personally.
-        params.put("to", exSplit[2]);
-
-        /* Start getting the actual message */
-        // Variable to hold the message
-        String msg;
-        // Supporting non-standard servers that don't use : in front of all
-        // of them, even 1
-        // -word. :\
-        if (!exSplit[3].startsWith(":"))
-        {
-            msg = exSplit[3];
-        } else
-        {
-            msg = "";
-            for (int i = 3; i < exSplit.length; i++)
-            {
-                // Is it the first one?
-                // Then we need to take away the :.
-                if (i == 3)
-                {
-                    msg += exSplit[i].substring(1);
-                }
-                // We just concat it! :D
-                else
-                {
-                    msg += " " + exSplit[i];
-                }
-            }
-        }
-
-        // Stick it into the message variable.
-        params.put("message", msg);
+    private void handleTopicChange(IRCMessage msg) {
+        sendEvent(new EventArgs(Event.IRC_TOPIC, msg.getLine(), TOPIC_ARGS,
+                                msg.getNick(), msg.getHost(), msg.getParam(0),
+                                msg.getParam(1)),
+                  _parent);
+    }
 
-        // Fire off the event.
-        sendEvent(new EventArgs(Event.IRC_NOTICE, line, params), _parent);
+    private void handleOnJoinTopic(IRCMessage msg) {
+        // The first param is our nick.
+        sendEvent(new EventArgs(Event.IRC_JOIN_TOPIC, msg.getLine(), JOIN_TOPIC_ARGS,
+                                msg.getPrefix(), msg.getParam(1), msg.getParam(2)),
+                  _parent);
     }
 
-    private void handleUserKicked(String line, String[] exSplit) {
-        Map<String,Object> params = new HashMap<String,Object>();
-        // kicker -- The person who sent the /KICK command.
-        params.put("kicker", exSplit[0].split("!")[0].substring(exSplit[0].startsWith(":") ? 1 : 0));
-        // I'm a little iffy on this param. It might need
-        params.put("kicker-host", exSplit[0].split("@")[1]);
-        params.put("channel", exSplit[2]);
-        params.put("kicked", exSplit[3]);
-        // We need to check if there was a message.
-        //START getting message (the part message).
-        if (exSplit.length > 4)
+    private void handlePrivMsg(IRCMessage msg) {
+        String from = msg.getNick();
+        String to = msg.getParam(0);
+        // Only set if it was sent to a channel.
+        String channel = null;
+
+        for (char pre : IRC_CHANPREFIXES)
         {
-            String msg = "";
-            // If there is...
-            // Stick them together and send it off in the params.
-            for (int i = 4; i < exSplit.length; i++)
+            if (msg.paramStartsWith(0, pre))
             {
-                msg += (i == 4 ? "" : " ") + exSplit[i];
+                channel = to;
+                break;
             }
-            params.put("message", msg.substring((msg.startsWith(":") ? 1 : 0)));
         }
-        else
-        {
-            // Map will keep it as null.
-        }
-        // END getting mode-param
 
-        // Fire off the event.
-        sendEvent(new EventArgs(Event.IRC_KICK, line, params), _parent);
+        // "to" is maintained for compatibility, "sendto" is who replies to
+        // this message should generally be sent to.
+        sendEvent(new EventArgs(Event.IRC_PRIVMSG, msg.getLine(), PRIVMSG_ARGS,
+                                from, msg.getHost(), channel, to,
+                                channel != null ? channel : from, msg.getParam(1)),
+                  _parent);
     }
 
-    private void handleUserNickChange(String line, String[] exSplit) {
-        Map<String,Object> params = new HashMap<String,Object>();
-        params.put("nick-old", exSplit[0].split("!")[0].substring((exSplit[0].startsWith(":") ? 1 : 0)));
-        params.put("nick-new", exSplit[2].substring(exSplit[2].startsWith(":") ? 1 : 0));
-        params.put("host", exSplit[0].split("@")[1]);
+    private boolean handleResponseCode(IRCMessage msg) {
+        int code = msg.getNumeric();
 
-        sendEvent(new EventArgs(Event.IRC_NICK_CHANGE, line, params), _parent);
-    }
-
-    private void handleUserParted(String line, String[] exSplit) {
-        // Holds the arguments
-        Map<String,Object> params = new HashMap<String,Object>();
-        // nick -- The nick of the user parting the channel
-        params.put("nick", exSplit[0].split("!")[0].substring(exSplit[0].startsWith(":") ? 1 : 0));
-        // host -- The hostname of the user parting
-        params.put("host", exSplit[0].split("@")[1]);
-        // channel -- The channel being left.
-        params.put("channel", exSplit[2]);
-
-        //START getting message (the part message).
-        // Check if there is a message
-        if (exSplit.length > 3)
-        {
-            String msg = "";
-            // If there is...
-            // Stick them together and send it off in the params.
-            for (int i = 3; i < exSplit.length; i++)
-            {
-                msg += (i == 3 ? "" : " ") + exSplit[i];
-            }
-            params.put("message", msg.substring((msg.startsWith(":") ? 1 : 0)));
-        }
-        else
+        // We won't fire off the IRC_RESPONSE_CODE now, because
+        // we want the IRC_NICKINUSE internal handler to be able to terminate
+        // before the other handlers get the IRC_RESPONSE_CODE.
+        //BEGIN EXTRA CHECKS FOR ERR_NICKNAMEINUSE
+        if (code == ERR_NICKNAMEINUSE)
         {
-            // Map will keep it as null.
+            sendEvent(new EventArgs(Event.IRC_NICKINUSE, msg.getLine(), NICKINUSE_ARGS,
+                                    !_finishedConnection),
+                      _parent);
         }
-        // END getting message
+        //END EXTRA CHECKS FOR ERR_NICKNAMEINUSE
 
+        // resp_text is everything after our nick, as it was sent.
+        String text = msg.getParamsFrom(1);
 
-        // Fire off the event.
-        sendEvent(new EventArgs(Event.IRC_PART, line, params),
+        // Fire off the IRC_RESPONSE_CODE
+        sendEvent(new EventArgs(Event.IRC_RESPONSE_CODE, msg.getLine(), RESPONSE_CODE_ARGS,
+                                code, text != null ? text : "", msg.getPrefix()),
                   _parent);
+        return true;
     }
 
-    private void handleModeSet(String line, String[] exSplit) {
-        Map<String,Object> params = new HashMap<String,Object>();
-        // channel -- The channel the mode is being set on
-        params.put("channel", exSplit[2]);
-        // TODO: Should really make this more clear. It works, but it seems a bit hard to understand. Determine if it is worth the extra time checking if it is a server.
-        // It works because when splitting a String, you always get at least a 1-length array back. This means that your String does not have to contain a ! for this to work,
-        // And it just returns the entire String in the first element.
-        // setter -- The nick of the nick setting the mode, or the address of the server if it is a server setting it.
-        params.put("setter", exSplit[0].split("!")[0].substring((exSplit[0].startsWith(":") ? 1 : 0)));
-
-        // START getting setter-host (the hostname of the user setting the mode, or the address of the server if it's a server setting it)
-        String[] atSplit = exSplit[0].split("@");
-
-        if (atSplit.length == 1)
+    private void handleUnfinishedConnection(IRCMessage msg) {
+        // Check for a response code guaranteed to be sent by the server
+        // Before the MOTD. We don't want to use the end of MOTD response
+        // for this, because that would mean that this wouldn't work on
+        // servers with no MOTD.
+        if (msg.getNumeric() == RPL_LUSERME)
         {
-            // It's a server. Just give them the same as setter.
-            params.put("setter-host", params.get("setter"));
+            _finishedConnection = true;
         }
-        else if (atSplit.length > 1)
-        {
-            // Normal host-splitting behavior.
-            params.put("setter-host", atSplit[1]);
-        }
-        else
+    }
+
+
+
+    /**
+     * Handles one kind of line. A handler only gets lines that have a prefix
+     * (unless it says otherwise) and at least the amount of params it asked
+     * for. Lines that don't make the cut become IRC_UNKNOWN events.
+     */
+    private static abstract class CommandHandler
+    {
+        CommandHandler(int minParams)
         {
-            System.err.println("Reached imposable case. Please check which dimension you are in. A split of a String always returns at least a 1-length String array. " +
-                               "If this is not true on your implementation of the JDK, please tell me :3.");
-            System.exit(2);
+            this(minParams, true);
         }
-        // END getting setter-host
 
-        params.put("mode", exSplit[3]);
-
-        //START getting mode-params (the parameters after the mode, e.g. the part after +qo in ":ChanServ!services@geekshed.net MODE #Snipes +qo Unix Unix")
-        // Check if there are any params to the mode.
-        if (exSplit.length > 4)
+        CommandHandler(int minParams, boolean needsPrefix)
         {
-            String msg = "";
-            // If there are...
-            // Stick them together and send it off in the params.
-            for (int i = 4; i < exSplit.length; i++)
-            {
-                msg += (i == 4 ? "" : " ") + exSplit[i];
-            }
-            params.put("mode-params", msg);
+            _minParams = minParams;
+            _needsPrefix = needsPrefix;
         }
-        else
+
+        boolean accepts(IRCMessage msg)
         {
-            // Map will keep it as null.
+            return msg.getParamCount() >= _minParams && (!_needsPrefix || msg.hasPrefix());
         }
-        // END getting mode-params
 
-        // Fire off the event.
-        sendEvent(new EventArgs(Event.IRC_MODE, line, params), _parent);
-    }
+        abstract void handle(EventInputHandler h, IRCMessage msg);
 
-    private void handleUserJoined(String line, String[] exSplit) {
-        // More support for protocol defiance
-        String channel = exSplit[2].substring((exSplit[2].startsWith(":") ? 1 : 0));
-        // Holds the arguments
-        Map<String,Object> params = new HashMap<String,Object>();
-        // nick -- The nick of the user joining the channel
-        params.put("nick", exSplit[0].split("!")[0].substring(exSplit[0].startsWith(":") ? 1 : 0));
-        // host -- The hostname of the user joining
-        params.put("host", exSplit[0].split("@")[1]);
-        // channel -- The channel being joined.
-        // Oh, look at that. We already have a variable for that.
-        params.put("channel", channel);
-        // Fire off the event.
-        sendEvent(new EventArgs(Event.IRC_JOIN, line, params),
-                  _parent);
+        private final int _minParams;
+        private final boolean _needsPrefix;
     }
 
-    private void handleTopicChange(String line, String[] exSplit) {
-        Map<String, Object> params = new HashMap<String, Object>();
-        // Stick the setter's nick in there.
-        params.put("setter", exSplit[0].split("!")[0]);
-        // The host of the setter
-        params.put("setter-host", exSplit[0].split("@")[1]);
-        // The channel the topic was set on
-        params.put("channel", exSplit[2]);
-
-        String msg;
+    // The params of each event we send, see the docs for each Event.
+    private static final EventSchema QUIT_ARGS = new EventSchema("nick", "user", "host", "message");
+    private static final EventSchema NOTICE_ARGS = new EventSchema("from", "from-host", "to", "message");
+    private static final EventSchema KICK_ARGS = new EventSchema("kicker", "kicker-host", "channel", "kicked", "message");
+    private static final EventSchema NICK_ARGS = new EventSchema("nick-old", "nick-new", "user", "host");
+    private static final EventSchema PART_ARGS = new EventSchema("nick", "host", "channel", "message");
+    private static final EventSchema MODE_ARGS = new EventSchema("channel", "setter", "setter-host", "mode", "mode-params");
+    private static final EventSchema JOIN_ARGS = new EventSchema("nick", "user", "host", "channel", "account", "realname");
+    private static final EventSchema TOPIC_ARGS = new EventSchema("setter", "setter-host", "channel", "topic");
+    private static final EventSchema JOIN_TOPIC_ARGS = new EventSchema("server", "channel", "topic");
+    private static final EventSchema PRIVMSG_ARGS = new EventSchema("from", "from-host", "channel", "to", "sendto", "message");
+    private static final EventSchema NICKINUSE_ARGS = new EventSchema("fatal");
+    private static final EventSchema RESPONSE_CODE_ARGS = new EventSchema("code", "resp_text", "server");
+
+    /** Handlers for named commands, by their upper case name. */
+    private static final Map<String, CommandHandler> COMMAND_HANDLERS = new HashMap<String, CommandHandler>();
+    /**
+     * Handlers for numeric replies, by their code. These are on top of the
+     * IRC_RESPONSE_CODE event that every numeric gets.
+     */
+    private static final CommandHandler[] NUMERIC_HANDLERS = new CommandHandler[1000];
 
-        if (!exSplit[3].startsWith(":"))
-        {
-            msg = exSplit[3];
-        } else
+    static
+    {
+        // PRIVMSG command: If the user sends a PRIVMSG to us or to a channel
+        // Example: ":Auv5!~auv5@projectinfinity.net PRIVMSG #Snipes :A IRC PRIVMSG!"
+        COMMAND_HANDLERS.put("PRIVMSG", new CommandHandler(2)
         {
-            msg = "";
-            for (int i = 3; i < exSplit.length; i++)
+            @Override
+            void handle(EventInputHandler h, IRCMessage msg)
             {
-                // Is it the first one?
-                // Then we need to take away the :.
-                if (i == 3)
-                {
-                    msg += exSplit[i].substring(1);
-                }
-                // We just concat it! :D
-                else
-                {
-                    msg += " " + exSplit[i];
-                }
+                h.handlePrivMsg(msg);
             }
-        }
-        // Actually put the parameter! :).
-        params.put("topic", msg);
+        });
 
-        // Fire off the event! :)
-        sendEvent(new EventArgs(Event.IRC_TOPIC, line, params),
-                  _parent);
-    }
-
-    private void handleOnJoinTopic(String line, String[] exSplit) {
-        // Holds the parameters
-        Map<String, Object> params = new HashMap<String, Object>();
-        // Server: The server sending the notice to us.
-        params.put("server", exSplit[0].substring(1));
-        // Channel: The channel we're being notified about.
-        params.put("channel", exSplit[3]);
-        // Topic: The actual text of the topic.
-        // We need to fiddle with this, taking off the : (unless we're on a nasty
-        // protocol-denier :().
-        // Also, we need to stick it together, I forgot about that.
-
-        // Will hold the final topic string.
-        String msg;
-
-        if (!exSplit[4].startsWith(":"))
-        {
-            msg = exSplit[4];
-        } else
+        // When the topic is sent to us at join.
+        // This is *different* than when the topic is set. That is the next one down.
+        // Example: ":Equinox.GeekShed.net 332 SnipesBot #Snipes :Article in progress about Snipes :D"
+        NUMERIC_HANDLERS[RPL_TOPIC] = new CommandHandler(3, false)
         {
-            msg = "";
-            for (int i = 4; i < exSplit.length; i++)
+            @Override
+            void handle(EventInputHandler h, IRCMessage msg)
             {
-                // Is it the first one?
-                // Then we need to take away the :.
-                if (i == 4)
-                {
-                    msg += exSplit[i].substring(1);
-                }
-                // We just concat it! :D
-                else
-                {
-                    msg += " " + exSplit[i];
-                }
+                h.handleOnJoinTopic(msg);
             }
-        }
-        // Actually put the parameter! :).
-        params.put("topic", msg);
+        };
 
-        // Fire off the event.
-        sendEvent(new EventArgs(Event.IRC_JOIN_TOPIC, line, params), _parent);
-    }
-
-    private void handlePrivMsg(String line, String[] exSplit) {
-        // Hold the args.
-        Map<String, Object> params = new HashMap<String, Object>();
-        // Add the sender
-        // We don't need to check the length,
-        // it was already checked at the top.
-        params.put("from", exSplit[0].split("!")[0].
-                   // Support for servers which don't
-                   // put : in front of the host.
-                   substring((exSplit[0].startsWith(":") ? 1 : 0)));
-
-        // Put the hostname in from-host
-        params.put("from-host", exSplit[0].split("@")[1]);
-		
-        String chan = exSplit[2];
-		
-        for (char pre : IRC_CHANPREFIXES)
+        // When the topic is changed by (typically) an operator
+        // This is *different* than when the topic send to us at join.
+        // That is the previous event. If a network offers "services" such as Chanserv with a topic
+        // retention feature, then this event may trigger when joining a empty channel.
+        // Example: ":Unix!~auv5@projectinfinity.net TOPIC #Snipes :Read this! It's a good document for all who want to use Snipes' plugin API :). http://ossnipes.org/docs/snipes/snipes-article.html | ?? PROFIT"
+        COMMAND_HANDLERS.put("TOPIC", new CommandHandler(2)
         {
-            if (chan.length() == 0)
+            @Override
+            boolean accepts(IRCMessage msg)
             {
-                break;
+                return super.accepts(msg) && msg.paramStartsWith(0, '#');
             }
-            if (pre == chan.charAt(0))
+
+            @Override
+            void handle(EventInputHandler h, IRCMessage msg)
             {
-                params.put("channel", chan);
+                h.handleTopicChange(msg);
             }
-        }
-		
-        // Add the recipient, this will be getNick()
-        // if we receive a PRIVMSG personally.
-        // This is maintained for compatibility.
-        params.put("to", exSplit[2]);
-		
-        // Add who replies to this message should be generally sent to.
-        params.put("sendto", params.get("channel") != null ? params.get("channel") : params.get("from"));
-
-        /* Start getting the actual message */
-        // Variable to hold the message
-        String msg;
-        // Supporting non-standard servers that don't use : in front of all
-        // of them, even 1
-        // -word. :\
-        if (!exSplit[3].startsWith(":"))
-        {
-            msg = exSplit[3];
-        } else
+        });
+
+        // When a user joins a channel we are in.
+        // Example: ":Unix!rubicon@projectinfinity.net JOIN :#Snipes"
+        COMMAND_HANDLERS.put("JOIN", new CommandHandler(1)
         {
-            msg = "";
-            for (int i = 3; i < exSplit.length; i++)
+            @Override
+            void handle(EventInputHandler h, IRCMessage msg)
             {
-                // Is it the first one?
-                // Then we need to take away the :.
-                if (i == 3)
-                {
-                    msg += exSplit[i].substring(1);
-                }
-                // We just concat it! :D
-                else
-                {
-                    msg += " " + exSplit[i];
-                }
+                h.handleUserJoined(msg);
             }
-        }
-
-        // Stick it into the message variable.
-        params.put("message", msg);
-
-        // Fire off the event.
-        sendEvent(new EventArgs(Event.IRC_PRIVMSG,line, params), _parent);
-    }
+        });
 
-    private void handlePing(String line, String[] exSplit) {
-        // Key: server = The server we're connected to
-        sendEvent(new EventArgs(Event.IRC_PING, 
-				line, new String[]{"server"},
-				// Substringed because we need to take off the :.
-				new String[]{exSplit[1].substring(1)}), _parent);
-    }
-
-    private boolean handleResponseCode(String line, String[] exSplit) {
-        boolean isResponseCode;
-        isResponseCode = true;
-        Map<String,Object> params = new HashMap<String,Object>();
-        int code = convertToInt(exSplit[1]);
-        // The response code
-        params.put("code", code);
-
-        // We need to stick it together.
-        String msg;
-        msg = "";
-        for (int i = 3; i < exSplit.length; i++)
+        // When a user or a network service/server sets a mode on a channel we are in.
+        // Example: ":ChanServ!services@geekshed.net MODE #Snipes +qo Unix Unix"
+        // ?: ":Snipes-RunSetNick MODE Snipes-RunSetNick :+iRx"
+        COMMAND_HANDLERS.put("MODE", new CommandHandler(2)
         {
-            // Is it the first one?
-            // Then we may need to take away the :.
-            if (i == 3)
+            @Override
+            boolean accepts(IRCMessage msg)
             {
-                msg += exSplit[i].substring((exSplit[i].startsWith(":") ? 1 : 0));
+                return super.accepts(msg) && (msg.paramStartsWith(1, '+') || msg.paramStartsWith(1, '-'));
             }
-            // We just concat it! :D
-            else
+
+            @Override
+            void handle(EventInputHandler h, IRCMessage msg)
             {
-                msg += " " + exSplit[i];
+                h.handleModeSet(msg);
             }
-        }
+        });
 
-        params.put("resp_text", msg);
+        // When a user parts a channel we are in.
+        // Example: ":Unix!rubicon@projectinfinity.net PART #Snipes :Ciao."
+        // We can't test if there's a message. The RFC says that commands can be sent without a message.
+        COMMAND_HANDLERS.put("PART", new CommandHandler(1)
+        {
+            @Override
+            void handle(EventInputHandler h, IRCMessage msg)
+            {
+                h.handleUserParted(msg);
+            }
+        });
 
-        params.put("server", exSplit[0].substring(1));
+        // When someone changes their nick in a channel we are in.
+        // Example: ":Unix!rubicon@projectinfinity.net NICK Auv5"
+        COMMAND_HANDLERS.put("NICK", new CommandHandler(1)
+        {
+            @Override
+            void handle(EventInputHandler h, IRCMessage msg)
+            {
+                h.handleUserNickChange(msg);
+            }
+        });
 
-        // We won't fire off the IRC_RESPONSE_CODE now, because
-        // we want the IRC_NICKINUSE internal handler to be able to terminate
-        // before the other handlers get the IRC_RESPONSE_CODE.
-        //BEGIN EXTRA CHECKS FOR ERR_NICKNAMEINUSE
-        if (code == ERR_NICKNAMEINUSE)
+        // When a user (possibly us) is kicked from a channel we are in.
+        // Example: ":Unix!rubicon@projectinfinity.net KICK #Snipes Auv5[Away] :Event tests ftw :)"
+        COMMAND_HANDLERS.put("KICK", new CommandHandler(2)
         {
-            Map<String, Object> args = new HashMap<String, Object>();
-            args.put("fatal", !_finishedConnection);
-            sendEvent(new EventArgs(Event.IRC_NICKINUSE, line, args), _parent);
-        }
-        //END EXTRA CHECKS FOR ERR_NICKNAMEINUSE
+            @Override
+            void handle(EventInputHandler h, IRCMessage msg)
+            {
+                h.handleUserKicked(msg);
+            }
+        });
 
-        // Fire off the IRC_RESPONSE_CODE
-        sendEvent(new EventArgs(Event.IRC_RESPONSE_CODE, line, params), _parent);
-        return isResponseCode;
-    }
+        // When a user sends a NOTICE command to us or a channel we are in.
+        // Example: ":Unix!rubicon@projectinfinity.net NOTICE Snipes-RunSetNick :Hello world!"
+        COMMAND_HANDLERS.put("NOTICE", new CommandHandler(2)
+        {
+            @Override
+            void handle(EventInputHandler h, IRCMessage msg)
+            {
+                h.handleUserNoticed(msg);
+            }
+        });
 
-    private void handleUnfinishedConnection(String line, String[] exSplit) {
-        // If it's more than or equal to four, we can
-        // continue.
-        if (line.length() >= 4)
+        // When a user leaves the network in a channel we are in.
+        // We cannot produce a "channel" parameter for this command for two reasons:
+        // 1. It is not a argument to the command
+        // 2. The command is only sent once, regardless of how many channels we have in common with the user.
+        // Example: ":Auv5[Away]!~auv5@projectinfinity.net QUIT :Goodbye world!"
+        COMMAND_HANDLERS.put("QUIT", new CommandHandler(0)
         {
-            // Check for a response code guaranteed to be sent by the server
-            // Before the MOTD. We don't want to use the end of MOTD response
-            // for this, because that would mean that this wouldn't work on
-            // servers with no MOTD.
-            if (isInteger(exSplit[1]) && convertToInt(exSplit[1])
-                == RPL_LUSERME)
+            @Override
+            void handle(EventInputHandler h, IRCMessage msg)
             {
-                _finishedConnection = true;
+                h.handleUserQuit(msg);
             }
-        }
-        return;
+        });
     }
 
-
-
     IRCBase _parent;
+    /** Reused for every line, see handle(String). */
+    private final IRCMessage _msg = new IRCMessage();
     // Solution to the problem of the VERSION message being a PRIVMSG :\.
-    private boolean _finishedConnection = false;
+    private volatile boolean _finishedConnection = false;
 }
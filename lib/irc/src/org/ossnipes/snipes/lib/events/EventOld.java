@@ -190,8 +190,7 @@ enum EventOld
     /** This event is used in the bot as a method to get passed the limitation of not being able to retrieve Strings
      * from the {@link java.net.Socket}'s buffer except for in the {@link IRCReceiver} class. Currently, this event is
      * never sent to {@link IRCEventListener}s other than {@link IRCBase#handleInternalEvent(Event, EventArgs)},
-     *  as the handling of it in {@link IRCBase#handleInternalEvent(Event, EventArgs)} involves the application exiting.
-     * This may later be revised to allow bots to execute cleanup code when our nick is already in use.
+     *  as {@link IRCBase#handleInternalEvent(Event, EventArgs)} has to pick another nick before anything else happens.
      * <BR/><BR/>
      * Params (gotten with {@link EventArgs#getParam(String)}):<BR/>
      * line -- The raw line received from the server. Currently not used.
@@ -0,0 +1,380 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.events;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ossnipes.snipes.lib.irc.IRCSelector;
+
+/**
+ * The Threads that send events to listeners. Every {@link IRCBase} makes one
+ * of it's own, but bots connected to different networks from one JVM can share
+ * one with {@link IRCBase#setEventPool(EventPool)}, so they don't each need a
+ * full set of idle Threads.
+ *
+ * The pool never has more than a set amount of Threads, and never queues more
+ * than a set amount of events (or handler calls). What happens when the queue
+ * is full is decided by it's {@link OverloadPolicy}.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+public final class EventPool implements EventConstants
+{
+    /** Creates a pool with the default size, that blocks when it's full. */
+    public EventPool()
+    {
+        this(DEFAULT_EVENT_THREADS, DEFAULT_EVENT_QUEUE, OverloadPolicy.BLOCK);
+    }
+
+    /**
+     * Creates a pool.
+     * @param threads The most Threads to use. Must be at least 1.
+     * @param queueCapacity The most tasks that can wait for a Thread. Must be at least 1.
+     * @param policy What to do when the queue is full.
+     */
+    public EventPool(int threads, int queueCapacity, OverloadPolicy policy)
+    {
+        if (threads < 1 || queueCapacity < 1)
+        {
+            throw new IllegalArgumentException("The event pool needs at least one Thread and room for one event.");
+        }
+        if (policy == null)
+        {
+            throw new IllegalArgumentException("Overload policy cannot be null.");
+        }
+
+        _executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new DispatchThreadFactory(), new OverloadHandler());
+        // Like the cached pool we used to have, don't keep idle Threads around.
+        _executor.allowCoreThreadTimeOut(true);
+        _queueCapacity = queueCapacity;
+        _virtualPermits = new Semaphore(queueCapacity);
+        _policy = policy;
+    }
+
+    public OverloadPolicy getOverloadPolicy()
+    {
+        return _policy;
+    }
+
+    /** @return The most Threads the pool will use. */
+    public int getPoolSize()
+    {
+        return _executor.getMaximumPoolSize();
+    }
+
+    /** @return The most tasks that can wait for a Thread. */
+    public int getQueueCapacity()
+    {
+        return _queueCapacity;
+    }
+
+    /** @return The amount of tasks currently waiting for a Thread. */
+    public int getQueueDepth()
+    {
+        return _executor.getQueue().size();
+    }
+
+    /** @return The amount of Threads currently sending events. */
+    public int getActiveThreads()
+    {
+        return _executor.getActiveCount();
+    }
+
+    /** @return How many times a task was sent when the queue was already full. */
+    public long getRejectedCount()
+    {
+        return _rejected.get();
+    }
+
+    /** @return How many tasks were thrown away because of {@link OverloadPolicy#DROP_LOW_PRIORITY}. */
+    public long getDroppedCount()
+    {
+        return _dropped.get();
+    }
+
+    /** @return How many events had their handlers called in a single task because of {@link OverloadPolicy#COALESCE}. */
+    public long getCoalescedCount()
+    {
+        return _coalesced.get();
+    }
+
+    /**
+     * Stops the pool once the events already queued have been sent. Events
+     * sent to it after that are thrown away.
+     */
+    public void shutdown()
+    {
+        replaceWith(null);
+    }
+
+    /**
+     * Stops the pool once the events already queued have been sent, sending
+     * any that still come in to another pool.
+     * @param replacement The pool to send them to, or null to throw them away.
+     */
+    void replaceWith(EventPool replacement)
+    {
+        _replacement = replacement;
+        _executor.shutdown();
+    }
+
+    ExecutorService getExecutor()
+    {
+        return _executor;
+    }
+
+    /**
+     * Runs a task for a event, applying the overload policy if the queue is full.
+     * @param task The task.
+     * @param ev The event the task is sending.
+     */
+    void dispatch(Runnable task, Event ev)
+    {
+        _executor.execute(new EventTask(task, ev));
+    }
+
+    /**
+     * Runs a task for a event on it's own virtual Thread, for {@link ThreadLevel#TL_VIRTUAL}.
+     * At most the queue capacity of these run at once, after that the
+     * overload policy is applied. If the JVM has no virtual Threads, the task
+     * goes to the pool instead.
+     * @param task The task.
+     * @param ev The event the task is sending.
+     */
+    void dispatchVirtual(final Runnable task, Event ev)
+    {
+        ExecutorService virtual = VirtualThreads.getExecutor();
+        if (virtual == null)
+        {
+            dispatch(task, ev);
+            return;
+        }
+
+        final Semaphore permits = _virtualPermits;
+        if (!permits.tryAcquire())
+        {
+            _rejected.incrementAndGet();
+            if (dropsLowPriority() && BotUtils.arrayContains(LOW_PRIORITY_EVENTS, ev))
+            {
+                _dropped.incrementAndGet();
+                return;
+            }
+            if (mustNotWait())
+            {
+                // Same as with the pool, see the OverloadHandler.
+                task.run();
+                return;
+            }
+            try
+            {
+                permits.acquire();
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                _dropped.incrementAndGet();
+                return;
+            }
+        }
+
+        virtual.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                IN_POOL.set(Boolean.TRUE);
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    permits.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks if the handlers for a event should be called from a single task
+     * instead of each getting their own.
+     * @param tasks The amount of tasks the event would otherwise need.
+     * @return True if the tasks should be coalesced.
+     */
+    boolean shouldCoalesce(int tasks)
+    {
+        if (_policy != OverloadPolicy.COALESCE || tasks <= 1)
+        {
+            return false;
+        }
+        // Start coalescing once the queue is half full, so there's still
+        // room for everything else.
+        int remaining = _executor.getQueue().remainingCapacity();
+        if (remaining - tasks < _queueCapacity / 2)
+        {
+            _coalesced.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return True if low priority events are thrown away when there's no
+     *         room for them: the policy says so, or we're on a
+     *         {@link IRCSelector}'s Thread, which mustn't wait for them.
+     */
+    boolean dropsLowPriority()
+    {
+        return _policy == OverloadPolicy.DROP_LOW_PRIORITY || IRCSelector.isSelectorThread();
+    }
+
+    /**
+     * @return True if the current Thread mustn't wait for room, whatever the
+     *         policy: one of a pool's own (it could be waiting on itself) or
+     *         a {@link IRCSelector}'s (every connection on it would stop).
+     */
+    static boolean mustNotWait()
+    {
+        return isPoolThread() || IRCSelector.isSelectorThread();
+    }
+
+    /**
+     * @return True if the current Thread belongs to a event pool (or is a
+     *         virtual Thread sending a event). Any pool counts, a pool that's
+     *         shared or replaced can still be waiting on us.
+     */
+    static boolean isPoolThread()
+    {
+        return IN_POOL.get() != null;
+    }
+
+    void countRejected()
+    {
+        _rejected.incrementAndGet();
+    }
+
+    void countDropped()
+    {
+        _dropped.incrementAndGet();
+    }
+
+    /** A task and the event it's for, so the overload policy can see it. */
+    private static class EventTask implements Runnable
+    {
+        EventTask(Runnable task, Event ev)
+        {
+            _task = task;
+            _ev = ev;
+        }
+
+        @Override
+        public void run()
+        {
+            _task.run();
+        }
+
+        private final Runnable _task;
+        private final Event _ev;
+    }
+
+    /** Called by the executor when it's queue is full. */
+    private class OverloadHandler implements RejectedExecutionHandler
+    {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+        {
+            _rejected.incrementAndGet();
+
+            if (executor.isShutdown())
+            {
+                // We were replaced, the new pool can have it.
+                EventPool replacement = _replacement;
+                if (replacement != null)
+                {
+                    replacement._executor.execute(r);
+                }
+                else
+                {
+                    _dropped.incrementAndGet();
+                }
+                return;
+            }
+
+            if (dropsLowPriority() && r instanceof EventTask
+                && BotUtils.arrayContains(LOW_PRIORITY_EVENTS, ((EventTask)r)._ev))
+            {
+                _dropped.incrementAndGet();
+                return;
+            }
+
+            if (mustNotWait())
+            {
+                // We're one of the pool's own Threads, and waiting for the
+                // queue could mean waiting for ourselves, or we're reading
+                // for every connection on a selector. Just do it now.
+                r.run();
+                return;
+            }
+
+            try
+            {
+                executor.getQueue().put(r);
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                _dropped.incrementAndGet();
+            }
+        }
+    }
+
+    /** Names the pool's Threads and marks them as being in a pool. */
+    private class DispatchThreadFactory implements ThreadFactory
+    {
+        @Override
+        public Thread newThread(final Runnable r)
+        {
+            return new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    IN_POOL.set(Boolean.TRUE);
+                    r.run();
+                }
+            }, "Snipes-Event-Dispatcher-" + THREAD_NUM.incrementAndGet());
+        }
+    }
+
+    /** Set on every Thread that belongs to a pool. */
+    private static final ThreadLocal<Boolean> IN_POOL = new ThreadLocal<Boolean>();
+    /** Numbers the Threads of every pool, so they can be told apart in a dump. */
+    private static final AtomicInteger THREAD_NUM = new AtomicInteger();
+
+    private final ThreadPoolExecutor _executor;
+    private final OverloadPolicy _policy;
+    private final int _queueCapacity;
+    /** Limits how many virtual Threads can be sending events at once. */
+    private final Semaphore _virtualPermits;
+    /** Where tasks go once we've been shut down, if anywhere. */
+    private volatile EventPool _replacement;
+    private final AtomicLong _rejected = new AtomicLong();
+    private final AtomicLong _dropped = new AtomicLong();
+    private final AtomicLong _coalesced = new AtomicLong();
+}
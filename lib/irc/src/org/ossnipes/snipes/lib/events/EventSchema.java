@@ -0,0 +1,117 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.events;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The names of the params a kind of event has, in a fixed order. A
+ * {@link EventArgs} made with a schema just holds a array of values in the
+ * same order, instead of building a new HashMap for every event. Schemas are
+ * meant to be created once (as a constant) and shared by every event of that
+ * kind.
+ *
+ * Example:
+ * <pre><code>static final EventSchema GREETING_ARGS = new EventSchema("nick", "greeting");
+ * ...
+ * new EventArgs(ev, line, GREETING_ARGS, nick, "Hi!");</code></pre>
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+public final class EventSchema
+{
+    /** A schema with no params, for events that only have the line. */
+    public static final EventSchema EMPTY = new EventSchema();
+
+    /**
+     * Creates a schema.
+     * @param keys The names of the params, in the order the values will be
+     *            given in. "line" is always there, so it can't be one of them.
+     * @throws IllegalArgumentException If a key is null, "line", or there more than once.
+     */
+    public EventSchema(String... keys)
+    {
+        for (int i = 0; i < keys.length; i++)
+        {
+            if (keys[i] == null || keys[i].equals("line"))
+            {
+                throw new IllegalArgumentException("Schema keys cannot be null or \"line\".");
+            }
+            for (int j = 0; j < i; j++)
+            {
+                if (keys[i].equals(keys[j]))
+                {
+                    throw new IllegalArgumentException("Duplicate schema key " + keys[i] + ".");
+                }
+            }
+        }
+        _keys = keys.clone();
+    }
+
+    /** @return The amount of params (not counting the line). */
+    public int size()
+    {
+        return _keys.length;
+    }
+
+    /**
+     * Gets the name of a param.
+     * @param slot The position of the param.
+     * @return The name.
+     */
+    public String getKey(int slot)
+    {
+        return _keys[slot];
+    }
+
+    /**
+     * Finds the position of a param.
+     * @param key The name of the param.
+     * @return The position, or -1 if this schema doesn't have it.
+     */
+    public int indexOf(String key)
+    {
+        // Schemas are small, so this beats hashing the key. Keys are
+        // usually literals, so try the cheap comparison first.
+        for (int i = 0; i < _keys.length; i++)
+        {
+            if (_keys[i] == key)
+            {
+                return i;
+            }
+        }
+        for (int i = 0; i < _keys.length; i++)
+        {
+            if (_keys[i].equals(key))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** @return The names of the params, in order. */
+    public List<String> getKeys()
+    {
+        return Collections.unmodifiableList(Arrays.asList(_keys));
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(_keys);
+    }
+
+    private final String[] _keys;
+}
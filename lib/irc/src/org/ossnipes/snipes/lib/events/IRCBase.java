@@ -12,7 +12,6 @@ package org.ossnipes.snipes.lib.events;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -48,10 +47,13 @@ public abstract class IRCBase extends IRCSocketManager implements IRCEventListen
      */
     public IRCBase()
     {
-        if (CHANNEL_TRACKING)
-            _channels = new ArrayList<Channel>();
         _eventcoll = new EventHandlerCollection();
         _eventcoll.addEventListener(this);
+        if (CHANNEL_TRACKING)
+        {
+            _channels = new ChannelTracker(this);
+            _eventcoll.addEventListener(_channels);
+        }
 
         _backupNicks = new LinkedBlockingQueue<String>();
     }
@@ -111,7 +113,34 @@ public abstract class IRCBase extends IRCSocketManager implements IRCEventListen
     public IRCSocketManager connect(String server, int port, String passwd, SocketFactory factory)
 	throws IOException, UnknownHostException
     {
-        return connect(new EventInputHandler(this), server, port, passwd, factory);
+        _inputHandler = new EventInputHandler(this);
+        return connect(_inputHandler, server, port, passwd, factory);
+    }
+
+    /**
+     * Connects to the first of a list of IRC servers that answers.
+     * 
+     * @param servers
+     *            The servers to connect to, most wanted first, as "host" or
+     *            "host:port".
+     * @param port
+     *            The port for servers that don't give one.
+     * @param passwd
+     *            The server password, or null if there isn't one.
+     * @param factory
+     *            The SocketFactory to use. If null, a SnipesSocketFactory is
+     *            used.
+     * @throws IOException
+     *             If we couldn't connect to any of the servers.
+     * @throws UnknownHostException
+     *             If none of the servers exist.
+     * @see IRCSocketManager#connect(InputHandler, String[], int, String, SocketFactory)
+     */
+    public IRCSocketManager connect(String[] servers, int port, String passwd, SocketFactory factory)
+	throws IOException, UnknownHostException
+    {
+        _inputHandler = new EventInputHandler(this);
+        return connect(_inputHandler, servers, port, passwd, factory);
     }
 	
     /**
@@ -195,7 +224,7 @@ public abstract class IRCBase extends IRCSocketManager implements IRCEventListen
         {
             throw new UnsupportedOperationException("The API was compiled with CHANNEL_TRACKING set to false. Channel tracking features are disabled.");
         }
-        return _channels.toArray(new Channel[_channels.size()]);
+        return _channels.getChannels();
     }
 	
     /**
@@ -206,20 +235,47 @@ public abstract class IRCBase extends IRCSocketManager implements IRCEventListen
      */
     public Channel getChannelForName(String name)
     {
-        Channel result = null;
-		
-        for (Channel c : _channels)
+        if (!CHANNEL_TRACKING)
         {
-            // IRC's channel naming is case-insensitive.
-            if (c.getName().equalsIgnoreCase(name))
-            {
-                return c;
-            }
+            throw new UnsupportedOperationException("The API was compiled with CHANNEL_TRACKING set to false. Channel tracking features are disabled.");
         }
-		
-        return result;
+        // IRC's channel naming is case-insensitive.
+        return _channels.getChannel(name);
+    }
+
+    /**
+     * Gets a user we share at least one channel with.
+     *
+     * @param nick The nick of the user.
+     * @return The user, or null if they aren't in any of our channels.
+     */
+    public BotUser getUserForName(String nick)
+    {
+        if (!CHANNEL_TRACKING)
+        {
+            throw new UnsupportedOperationException("The API was compiled with CHANNEL_TRACKING set to false. Channel tracking features are disabled.");
+        }
+        return _channels.getUser(nick);
     }
 	
+    /**
+     * {@inheritDoc}
+     * In IRCBase, the channels we were in are forgotten, and joined again once
+     * the server has let us in.
+     */
+    @Override
+    protected void connectionReset()
+    {
+        if (_inputHandler != null)
+        {
+            _inputHandler.reset();
+        }
+        if (CHANNEL_TRACKING)
+        {
+            _channels.reset();
+        }
+    }
+
     // Everyone ends up calling this, so we can implement generic functionality in here.
     /**
      * {@inheritDoc}
@@ -257,42 +313,16 @@ public abstract class IRCBase extends IRCSocketManager implements IRCEventListen
      */
     public final void handleInternalEvent(Event ev, EventArgs args)
     {
-        if (ev == Event.IRC_JOIN)
-        {
-            if (CHANNEL_TRACKING)
-            {
-                // We're only interested if the nick is us.
-                if (args.getParamAsString("nick").equalsIgnoreCase(getNick()))
-                {
-                    _channels.add((Channel)addEventListener(new Channel(args.getParamAsString("channel"))));
-                }
-            }
-        }
-        else if (ev == Event.IRC_PART)
-        {
-            if (CHANNEL_TRACKING)
-            {
-                if (args.getParamAsString("nick").equalsIgnoreCase(getNick()))
-                {
-                    String chanName = args.getParamAsString("channel");
-					
-                    // Returns false if the Object did not exist in the first place.
-                    if (!_channels.remove(getChannelForName(chanName)))
-                    {
-                        // We didn't have it in our lists? But we were parting it!
-                        throw new SnipesException("Channel was not in the lists, yet we parted it.");
-                    }
-                }
-            }
-        }
-        else if (ev == Event.IRC_NICKINUSE && (Boolean)args.getParam("fatal"))
+        if (ev == Event.IRC_NICKINUSE && (Boolean)args.getParam("fatal"))
         {
             String nextNick = _backupNicks.poll();
 			
             if (nextNick == null)
             {
-                System.err.println("Error. All nicknames provided already in use. Please make sure no other instances are running and restart this application.");
-                System.exit(3);
+                // We can't get in without a nick, so make one up.
+                nextNick = alternateNick(getNick());
+                System.err.println("All nicknames provided already in use, trying " + nextNick + ".");
+                this.setNick(nextNick);
             }
             else
             {
@@ -306,6 +336,32 @@ public abstract class IRCBase extends IRCSocketManager implements IRCEventListen
         }
     }
 	
+    /**
+     * Makes up a nick to try when all of ours are taken: the nick with a _ on
+     * the end, or if that would be too long for the server, with it's last
+     * character changed to a random digit.
+     */
+    private String alternateNick(String nick)
+    {
+        int max = 9;
+        String nicklen = getServerSupport().get("NICKLEN");
+        if (nicklen != null)
+        {
+            try
+            {
+                max = Integer.parseInt(nicklen);
+            } catch (NumberFormatException e)
+            {
+                // Stay with the RFC's.
+            }
+        }
+        if (nick.length() < max)
+        {
+            return nick + "_";
+        }
+        return nick.substring(0, Math.max(max, 1) - 1) + (char)('0' + (int)(Math.random() * 10));
+    }
+
     /** Sends a event to the bot, checking if it is a internal one,
      * and if it is, it calls the appropriate method. Really just 
      * a alias for {@link BotUtils#sendEvent(Event, EventArgs, IRCBase)}
@@ -335,6 +391,72 @@ public abstract class IRCBase extends IRCSocketManager implements IRCEventListen
     {
         return _eventcoll.getThreadLevel();
     }
+
+    /**
+     * Sets up the pool of Threads used to send events.
+     * @param threads The most Threads to use.
+     * @param queueCapacity The most events (or handler calls) that can wait for a Thread.
+     * @param policy What to do when more events than that are waiting.
+     * @see EventHandlerCollection#configurePool(int, int, OverloadPolicy)
+     */
+    public void configureEventPool(int threads, int queueCapacity, OverloadPolicy policy)
+    {
+        _eventcoll.configurePool(threads, queueCapacity, policy);
+    }
+
+    /**
+     * Sends events with a pool shared with other bots, like the bots for
+     * other networks in the same JVM. The pool's counters and queue are
+     * shared too.
+     * @param pool The pool to use.
+     * @see EventHandlerCollection#setPool(EventPool)
+     */
+    public void setEventPool(EventPool pool)
+    {
+        _eventcoll.setPool(pool);
+    }
+
+    /** @return The pool used to send events. */
+    public EventPool getEventPool()
+    {
+        return _eventcoll.getPool();
+    }
+
+    /**
+     * Gets the amount of events (or handler calls) waiting for a Thread.
+     * @return The queue depth.
+     */
+    public int getEventQueueDepth()
+    {
+        return _eventcoll.getQueueDepth();
+    }
+
+    /**
+     * Gets how many times a event was sent while the event queue was full.
+     * @return The amount of rejections.
+     */
+    public long getEventsRejected()
+    {
+        return _eventcoll.getRejectedCount();
+    }
+
+    /**
+     * Gets how many events (or handler calls) were thrown away because the event queue was full.
+     * @return The amount of dropped events.
+     */
+    public long getEventsDropped()
+    {
+        return _eventcoll.getDroppedCount();
+    }
+
+    /**
+     * Gets how many events had all their handlers called from one Thread because the event queue was getting full.
+     * @return The amount of coalesced events.
+     */
+    public long getEventsCoalesced()
+    {
+        return _eventcoll.getCoalescedCount();
+    }
 	
     /** Gets the list of {@link JavaEventHandlerManager}s that are assigned {@link IRCEventListener}s
      * that have subscribed to receive events from the bot.
@@ -383,6 +505,9 @@ public abstract class IRCBase extends IRCSocketManager implements IRCEventListen
     }
 	
     private EventHandlerCollection _eventcoll;
-    private List<Channel> _channels;
+    /** The channels we're in, and everyone in them. */
+    private ChannelTracker _channels;
+    /** Turns the lines from the server into events, null until we connect with one. */
+    private EventInputHandler _inputHandler;
     private Queue<String> _backupNicks;
 }
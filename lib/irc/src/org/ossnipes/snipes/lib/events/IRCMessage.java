@@ -0,0 +1,460 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.events;
+
+/**
+ * A line from the IRC server, split up the way RFC 1459 describes it, with
+ * the IRCv3 message tags in front:
+ * <pre><code>["@" tags " "] [":" prefix " "] command [params] [" :" trailing]</code></pre>
+ * The line is split in one pass that only remembers where each part starts
+ * and ends. Strings are only created for the parts that are actually asked
+ * for, so looking at a PRIVMSG costs a handful of substrings instead of a
+ * array of every word in it. The tags aren't even split up until one of them
+ * is asked for, see {@link MessageTags}.
+ *
+ * The same object can be reused for line after line with {@link #parse(String)}.
+ * Because of this, a IRCMessage should not be handed to other Threads. Take
+ * the Strings you need out of it instead.
+ *
+ * Example: <code>:Unix!rubicon@projectinfinity.net PRIVMSG #Snipes :Hello world!</code>
+ * has a nick of "Unix", a user of "rubicon", a host of "projectinfinity.net",
+ * a command of "PRIVMSG", and two params: "#Snipes" and "Hello world!" (the
+ * trailing param).
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+public class IRCMessage
+{
+    /** The most params a line can have. Anything after this ends up in the last one. */
+    public static final int MAX_PARAMS = 15;
+
+    /** Creates a empty message. Call {@link #parse(String)} before using it. */
+    public IRCMessage()
+    {
+    }
+
+    /**
+     * Creates a message and parses the given line into it.
+     *
+     * @param line The line to parse.
+     */
+    public IRCMessage(String line)
+    {
+        parse(line);
+    }
+
+    /**
+     * Splits up a new line, replacing whatever this message held before.
+     *
+     * @param line The line to parse, without it's line ending. Cannot be null.
+     * @return This message, for convenience.
+     */
+    public IRCMessage parse(String line)
+    {
+        if (line == null)
+        {
+            throw new IllegalArgumentException("Line cannot be null.");
+        }
+
+        _line = line;
+        _untagged = null;
+        _tags = null;
+        _command = null;
+        _count = 0;
+        _trailing = false;
+
+        int len = line.length();
+        int i = 0;
+
+        if (len > 0 && line.charAt(0) == '@')
+        {
+            i = line.indexOf(' ');
+            if (i == -1)
+            {
+                i = len;
+            }
+            _tagsEnd = i;
+            i = skipSpaces(line, i);
+        }
+        else
+        {
+            _tagsEnd = -1;
+        }
+        _bodyStart = i;
+
+        if (i < len && line.charAt(i) == ':')
+        {
+            i = line.indexOf(' ', i);
+            if (i == -1)
+            {
+                i = len;
+            }
+            _prefixEnd = i;
+        }
+        else
+        {
+            _prefixEnd = -1;
+        }
+
+        i = skipSpaces(line, i);
+        _commandStart = i;
+        while (i < len && line.charAt(i) != ' ')
+        {
+            i++;
+        }
+        _commandEnd = i;
+
+        while (true)
+        {
+            i = skipSpaces(line, i);
+            if (i >= len)
+            {
+                break;
+            }
+
+            if (line.charAt(i) == ':')
+            {
+                // The trailing param, it goes to the end of the line.
+                addParam(i + 1, len);
+                _trailing = true;
+                break;
+            }
+
+            if (_count == MAX_PARAMS - 1)
+            {
+                // No more room, so the rest is the last param.
+                addParam(i, len);
+                break;
+            }
+
+            int start = i;
+            while (i < len && line.charAt(i) != ' ')
+            {
+                i++;
+            }
+            addParam(start, i);
+        }
+
+        _numeric = decodeNumeric();
+        return this;
+    }
+
+    /**
+     * Gets the line this message was parsed from, without it's tags. This is
+     * the line as a server that doesn't know about tags would have sent it,
+     * so it's what listeners get as the "line" param of events.
+     *
+     * @return The line, from the prefix (or the command) on.
+     */
+    public String getLine()
+    {
+        if (_untagged == null)
+        {
+            _untagged = _bodyStart == 0 ? _line : _line.substring(_bodyStart);
+        }
+        return _untagged;
+    }
+
+    /** @return The line this message was parsed from, tags and all. */
+    public String getRawLine()
+    {
+        return _line;
+    }
+
+    /** @return True if the line started with IRCv3 message tags. */
+    public boolean hasTags()
+    {
+        return _tagsEnd != -1;
+    }
+
+    /** @return The line's message tags. {@link MessageTags#EMPTY} if it doesn't have any. */
+    public MessageTags getTags()
+    {
+        if (_tags == null)
+        {
+            _tags = hasTags() ? new MessageTags(_line.substring(1, _tagsEnd)) : MessageTags.EMPTY;
+        }
+        return _tags;
+    }
+
+    /** @return True if the line started with a prefix (":nick!user@host" or ":server"). */
+    public boolean hasPrefix()
+    {
+        return _prefixEnd != -1;
+    }
+
+    /** @return The prefix without the leading ':', or null if there isn't one. */
+    public String getPrefix()
+    {
+        return hasPrefix() ? _line.substring(_bodyStart + 1, _prefixEnd) : null;
+    }
+
+    /**
+     * Gets the nick from the prefix. If the message came from a server, this
+     * is the name of the server.
+     *
+     * @return The nick, or null if there is no prefix.
+     */
+    public String getNick()
+    {
+        if (!hasPrefix())
+        {
+            return null;
+        }
+        int start = _bodyStart + 1;
+        int end = indexInPrefix('!', start);
+        if (end == -1)
+        {
+            end = indexInPrefix('@', start);
+        }
+        return _line.substring(start, end != -1 ? end : _prefixEnd);
+    }
+
+    /**
+     * Gets the user (the part between the ! and the &#064;) from the prefix.
+     *
+     * @return The user, or null if the prefix doesn't have one.
+     */
+    public String getUser()
+    {
+        int bang = indexInPrefix('!', _bodyStart + 1);
+        if (bang == -1)
+        {
+            return null;
+        }
+        int at = indexInPrefix('@', bang);
+        return _line.substring(bang + 1, at != -1 ? at : _prefixEnd);
+    }
+
+    /**
+     * Gets the host (the part after the &#064;) from the prefix.
+     *
+     * @return The host, or null if the prefix doesn't have one.
+     */
+    public String getHost()
+    {
+        int at = indexInPrefix('@', _bodyStart + 1);
+        return at != -1 ? _line.substring(at + 1, _prefixEnd) : null;
+    }
+
+    /** @return The command, for example "PRIVMSG" or "353". */
+    public String getCommand()
+    {
+        if (_command == null)
+        {
+            _command = _line.substring(_commandStart, _commandEnd);
+        }
+        return _command;
+    }
+
+    /**
+     * Checks the command without creating a String for it.
+     *
+     * @param command The command to compare to, case insensitively.
+     * @return True if this message has that command.
+     */
+    public boolean isCommand(String command)
+    {
+        int len = _commandEnd - _commandStart;
+        return command.length() == len && _line.regionMatches(true, _commandStart, command, 0, len);
+    }
+
+    /** @return True if the command is a three digit numeric reply. */
+    public boolean isNumeric()
+    {
+        return _numeric != -1;
+    }
+
+    /** @return The numeric reply code, or -1 if the command isn't a numeric reply. */
+    public int getNumeric()
+    {
+        return _numeric;
+    }
+
+    /** @return The amount of params, including the trailing one. */
+    public int getParamCount()
+    {
+        return _count;
+    }
+
+    /**
+     * Gets a param. The trailing param doesn't include it's leading ':'.
+     *
+     * @param index The index of the param, starting at 0.
+     * @return The param, or null if there aren't that many.
+     */
+    public String getParam(int index)
+    {
+        if (index < 0 || index >= _count)
+        {
+            return null;
+        }
+        return _line.substring(_paramStart[index], _paramEnd[index]);
+    }
+
+    /**
+     * Gets the line from a param up to the end, exactly as the server sent it
+     * (apart from the ':' if the param is the trailing one). This is handy for
+     * things like the text of a numeric reply.
+     *
+     * @param index The index of the first param to include.
+     * @return The rest of the line, or null if there aren't that many params.
+     */
+    public String getParamsFrom(int index)
+    {
+        if (index < 0 || index >= _count)
+        {
+            return null;
+        }
+        return _line.substring(_paramStart[index]);
+    }
+
+    /** @return True if the last param was a trailing (':') one. */
+    public boolean hasTrailing()
+    {
+        return _trailing;
+    }
+
+    /** @return The last param, or null if there are none. */
+    public String getLastParam()
+    {
+        return getParam(_count - 1);
+    }
+
+    /**
+     * Checks if a param starts with a character.
+     *
+     * @param index The index of the param.
+     * @param c The character.
+     * @return True if the param exists and starts with c.
+     */
+    public boolean paramStartsWith(int index, char c)
+    {
+        return index >= 0 && index < _count && _paramEnd[index] > _paramStart[index]
+            && _line.charAt(_paramStart[index]) == c;
+    }
+
+    /**
+     * Gets the last param of a line if it's a command, without parsing the
+     * rest of it. Any tags and prefix are skipped. This is for the few lines
+     * that are looked at for every line received, like PING, where making a
+     * IRCMessage would be a waste.
+     * @param line The line.
+     * @param command The command, in upper case.
+     * @return The last param, or null if the line isn't the command or has
+     *         no params.
+     */
+    public static String lastParam(String line, String command)
+    {
+        int start = 0;
+        if (line.startsWith("@"))
+        {
+            start = line.indexOf(' ') + 1;
+            if (start == 0)
+            {
+                return null;
+            }
+        }
+        if (line.startsWith(":", start))
+        {
+            start = line.indexOf(' ', start) + 1;
+            if (start == 0)
+            {
+                return null;
+            }
+        }
+        int len = command.length();
+        if (!line.regionMatches(true, start, command, 0, len) || !line.startsWith(" ", start + len))
+        {
+            return null;
+        }
+
+        int trailing = line.indexOf(" :", start + len);
+        if (trailing != -1)
+        {
+            return line.substring(trailing + 2);
+        }
+        return line.substring(line.lastIndexOf(' ') + 1);
+    }
+
+    @Override
+    public String toString()
+    {
+        return _line;
+    }
+
+    private void addParam(int start, int end)
+    {
+        _paramStart[_count] = start;
+        _paramEnd[_count] = end;
+        _count++;
+    }
+
+    private int indexInPrefix(char c, int from)
+    {
+        if (!hasPrefix())
+        {
+            return -1;
+        }
+        int i = _line.indexOf(c, from);
+        return i < _prefixEnd ? i : -1;
+    }
+
+    private int decodeNumeric()
+    {
+        if (_commandEnd - _commandStart != 3)
+        {
+            return -1;
+        }
+        int result = 0;
+        for (int i = _commandStart; i < _commandEnd; i++)
+        {
+            char c = _line.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static int skipSpaces(String line, int i)
+    {
+        while (i < line.length() && line.charAt(i) == ' ')
+        {
+            i++;
+        }
+        return i;
+    }
+
+    private String _line;
+    /** Cached by getLine(). */
+    private String _untagged;
+    /** The index of the space after the tags, or -1 if there are no tags. */
+    private int _tagsEnd;
+    /** Cached by getTags(). */
+    private MessageTags _tags;
+    /** Where the line starts once the tags are left out. */
+    private int _bodyStart;
+    /** The index of the space after the prefix, or -1 if there is no prefix. */
+    private int _prefixEnd;
+    private int _commandStart;
+    private int _commandEnd;
+    /** Cached by getCommand(). */
+    private String _command;
+    private int _numeric;
+    private final int[] _paramStart = new int[MAX_PARAMS];
+    private final int[] _paramEnd = new int[MAX_PARAMS];
+    private int _count;
+    private boolean _trailing;
+}
@@ -10,10 +10,13 @@
 
 package org.ossnipes.snipes.lib.events;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.BitSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.ossnipes.snipes.lib.irc.IRCSelector;
 import org.ossnipes.snipes.lib.irc.SnipesException;
 
 class JavaEventHandlerManager implements EventHandlerManager
@@ -27,7 +30,6 @@ class JavaEventHandlerManager implements EventHandlerManager
         else
         {
             _managed = managed;
-            _subscribedEvents = Collections.synchronizedList(new ArrayList<Event>());
             registerInitialEvents();
         }
     }
@@ -38,11 +40,18 @@ class JavaEventHandlerManager implements EventHandlerManager
     @Override
     public void addEvent(Event ev)
     {
-        if (_subscribedEvents.contains((Object)ev))
+        synchronized (this)
         {
-            throw new IllegalArgumentException("Cannot add a Event already in the list.");
+            if (_subscribedEvents.get(ev.ordinal()))
+            {
+                throw new IllegalArgumentException("Cannot add a Event already in the list.");
+            }
+            // Copy on write, so isSubscribed() never needs a lock.
+            BitSet events = (BitSet)_subscribedEvents.clone();
+            events.set(ev.ordinal());
+            _subscribedEvents = events;
         }
-        _subscribedEvents.add(ev);
+        subscriptionsChanged();
     }
 	
     /* (non-Javadoc)
@@ -67,15 +76,18 @@ class JavaEventHandlerManager implements EventHandlerManager
     @Override
     public boolean removeEvent(Event ev)
     {
-        if (!_subscribedEvents.contains((Object)ev))
+        synchronized (this)
         {
-            return false;
-        }
-        else
-        {
-            _subscribedEvents.remove((Object)ev);
-            return true;
+            if (!_subscribedEvents.get(ev.ordinal()))
+            {
+                return false;
+            }
+            BitSet events = (BitSet)_subscribedEvents.clone();
+            events.clear(ev.ordinal());
+            _subscribedEvents = events;
         }
+        subscriptionsChanged();
+        return true;
     }
 
     /* (non-Javadoc)
@@ -84,13 +96,55 @@ class JavaEventHandlerManager implements EventHandlerManager
     @Override
     public boolean isSubscribed(Event ev)
     {
-        return _subscribedEvents.contains((Object)ev);
+        return _subscribedEvents.get(ev.ordinal());
+    }
+
+    /**
+     * Checks if we're subscribed to the event with the given ordinal.
+     * @param ordinal The {@link Event#ordinal()} of the event.
+     * @return True if we're subscribed to it.
+     */
+    boolean isSubscribed(int ordinal)
+    {
+        return _subscribedEvents.get(ordinal);
+    }
+
+    /**
+     * Sets the collection this manager belongs to, so it can be told when
+     * the subscriptions change.
+     * @param coll The collection, or null if the manager was removed from it.
+     */
+    void setCollection(EventHandlerCollection coll)
+    {
+        _coll = coll;
+    }
+
+    private void subscriptionsChanged()
+    {
+        EventHandlerCollection coll = _coll;
+        if (coll != null)
+        {
+            coll.subscriptionsChanged();
+        }
     }
 
     private Event[] populateSubscribedEvents() {
-        _subscribedEvents.clear();
         Event[] registered = _managed.getRegisteredEvents();
-        addEvent(registered == null ? new Event [] {} : registered);
+        // Build it in one go instead of a copy for every event.
+        BitSet events = new BitSet();
+        if (registered != null)
+        {
+            for (Event ev : registered)
+            {
+                if (events.get(ev.ordinal()))
+                {
+                    throw new IllegalArgumentException("Cannot add a Event already in the list.");
+                }
+                events.set(ev.ordinal());
+            }
+        }
+        _subscribedEvents = events;
+        subscriptionsChanged();
         return registered;
     }
 
@@ -154,6 +208,107 @@ class JavaEventHandlerManager implements EventHandlerManager
         return _managed.getRegisteredEvents();
     }
 	
+    /**
+     * Puts a call to the listener in it's mailbox, for {@link ThreadLevel#TL_PER_LISTENER_ORDERED}.
+     * The mailbox is worked through in order by at most one pool Thread at a time.
+     * If the mailbox is full the collection's {@link OverloadPolicy} is applied
+     * (COALESCE waits like BLOCK, there's nothing to coalesce with one task per listener).
+     * @param call The call to the listener.
+     * @param coll The collection that owns the pool.
+     * @param ev The event being sent.
+     */
+    void post(Runnable call, EventHandlerCollection coll, Event ev)
+    {
+        // The pool's own Threads never wait for room, that could deadlock two
+        // listeners that send each other events.
+        if (_mailboxSize.get() >= coll.getQueueCapacity() && !coll.isPoolThread())
+        {
+            coll.countRejected();
+            if (coll.dropsLowPriority()
+                && BotUtils.arrayContains(EventConstants.LOW_PRIORITY_EVENTS, ev))
+            {
+                coll.countDropped();
+                return;
+            }
+            // A selector's Thread goes over instead, every connection on it
+            // would stop while it waited.
+            if (!IRCSelector.isSelectorThread())
+            {
+                synchronized (_mailboxLock)
+                {
+                    try
+                    {
+                        while (_mailboxSize.get() >= coll.getQueueCapacity())
+                        {
+                            _mailboxLock.wait();
+                        }
+                    } catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        coll.countDropped();
+                        return;
+                    }
+                }
+            }
+        }
+
+        _mailbox.add(call);
+        _mailboxSize.incrementAndGet();
+        schedule(coll);
+    }
+
+    /** Gets a pool Thread to work through the mailbox, if one isn't already. */
+    private void schedule(final EventHandlerCollection coll)
+    {
+        if (_drainScheduled.compareAndSet(false, true))
+        {
+            // No event, so the drain is never dropped by the overload policy.
+            coll.dispatch(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    drain(coll);
+                }
+            }, null);
+        }
+    }
+
+    private void drain(EventHandlerCollection coll)
+    {
+        int capacity = coll.getQueueCapacity();
+        Runnable call;
+        int done = 0;
+        // Only do a batch at a time so one busy listener doesn't hog a Thread.
+        while (done < MAILBOX_BATCH && (call = _mailbox.poll()) != null)
+        {
+            try
+            {
+                call.run();
+            } catch (RuntimeException e)
+            {
+                // A broken handler shouldn't stop the rest of it's events.
+                System.err.println("Snipes: Exception while sending a event to " + _managed + ":");
+                e.printStackTrace();
+            }
+            done++;
+            if (_mailboxSize.decrementAndGet() == capacity - 1)
+            {
+                // There's room again, wake up anybody waiting for it.
+                synchronized (_mailboxLock)
+                {
+                    _mailboxLock.notifyAll();
+                }
+            }
+        }
+
+        _drainScheduled.set(false);
+        if (!_mailbox.isEmpty())
+        {
+            schedule(coll);
+        }
+    }
+
     public boolean equals(Object o)
     {
         if (o instanceof IRCEventListener)
@@ -166,6 +321,15 @@ class JavaEventHandlerManager implements EventHandlerManager
         }
     }
 	
-    private List<Event> _subscribedEvents;
+    /** The most calls a pool Thread makes from a mailbox before giving other listeners a turn. */
+    private static final int MAILBOX_BATCH = 64;
+
+    private final Queue<Runnable> _mailbox = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicInteger _mailboxSize = new AtomicInteger();
+    private final AtomicBoolean _drainScheduled = new AtomicBoolean();
+    private final Object _mailboxLock = new Object();
+    /** The ordinals of the events we're subscribed to. Replaced, never changed, once set. */
+    private volatile BitSet _subscribedEvents = new BitSet();
+    private volatile EventHandlerCollection _coll;
     private IRCEventListener _managed;
 }
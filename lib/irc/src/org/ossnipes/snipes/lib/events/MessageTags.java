@@ -0,0 +1,204 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.events;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The IRCv3 message tags sent in front of a line, like
+ * <code>@time=2011-10-19T16:40:51.620Z;account=Unix</code>. Servers only send
+ * them for the capabilities we asked for (server-time, account-tag, ...).
+ *
+ * Nothing is split up or unescaped until somebody asks for a tag, and most
+ * lines never have anybody ask, so they only cost the one String.
+ *
+ * Unlike {@link IRCMessage}, a MessageTags never changes, so it can be kept
+ * and handed to other Threads.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+public final class MessageTags
+{
+    /** No tags at all. */
+    public static final MessageTags EMPTY = new MessageTags("");
+
+    /**
+     * @param raw The tags as they were sent, without the leading '@' or the
+     *            space after them.
+     */
+    MessageTags(String raw)
+    {
+        _raw = raw;
+    }
+
+    /**
+     * Gets the value of a tag.
+     *
+     * @param key The name of the tag, like "time" or "account".
+     * @return The value, unescaped. "" if the tag has no value, or null if it
+     *         isn't there.
+     */
+    public String get(String key)
+    {
+        Map<String, String> map = _map;
+        if (map != null)
+        {
+            return map.get(key);
+        }
+
+        // Going through the tags is cheaper than building the map, for the
+        // one or two that usually get looked at.
+        String raw = _raw;
+        int len = raw.length();
+        int klen = key.length();
+        String found = null;
+        int start = 0;
+        while (start < len)
+        {
+            int end = raw.indexOf(';', start);
+            if (end == -1)
+            {
+                end = len;
+            }
+            if (raw.startsWith(key, start)
+                && (start + klen == end || raw.charAt(start + klen) == '='))
+            {
+                // If a tag is there twice, the last one wins.
+                found = start + klen == end ? "" : unescape(raw, start + klen + 1, end);
+            }
+            start = end + 1;
+        }
+        return found;
+    }
+
+    /**
+     * @param key The name of the tag.
+     * @return True if the tag is there, with or without a value.
+     */
+    public boolean has(String key)
+    {
+        return get(key) != null;
+    }
+
+    /** @return True if there are no tags. */
+    public boolean isEmpty()
+    {
+        return _raw.length() == 0;
+    }
+
+    /**
+     * Gets every tag. The map is built the first time it's asked for.
+     *
+     * @return The tags, by their names, with their unescaped values ("" for
+     *         tags without one). The map can't be changed.
+     */
+    public Map<String, String> asMap()
+    {
+        Map<String, String> map = _map;
+        if (map == null)
+        {
+            map = new LinkedHashMap<String, String>();
+            String raw = _raw;
+            int len = raw.length();
+            int start = 0;
+            while (start < len)
+            {
+                int end = raw.indexOf(';', start);
+                if (end == -1)
+                {
+                    end = len;
+                }
+                int eq = raw.indexOf('=', start);
+                if (eq == -1 || eq > end)
+                {
+                    eq = end;
+                }
+                if (eq > start)
+                {
+                    map.put(raw.substring(start, eq), eq == end ? "" : unescape(raw, eq + 1, end));
+                }
+                start = end + 1;
+            }
+            map = Collections.unmodifiableMap(map);
+            // If two Threads race here they just both build it.
+            _map = map;
+        }
+        return map;
+    }
+
+    /** @return The tags as they were sent, without the leading '@'. */
+    public String getRaw()
+    {
+        return _raw;
+    }
+
+    @Override
+    public String toString()
+    {
+        return _raw;
+    }
+
+    /**
+     * Unescapes a tag value: "\:" is a ';', "\s" a space, "\\" a '\', "\r"
+     * and "\n" are CR and LF, and a '\' in front of anything else is dropped.
+     */
+    private static String unescape(String raw, int start, int end)
+    {
+        int slash = raw.indexOf('\\', start);
+        if (slash == -1 || slash >= end)
+        {
+            return raw.substring(start, end);
+        }
+
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(raw, start, slash);
+        for (int i = slash; i < end; i++)
+        {
+            char c = raw.charAt(i);
+            if (c != '\\')
+            {
+                sb.append(c);
+                continue;
+            }
+            if (++i == end)
+            {
+                // A '\' at the end is just dropped.
+                break;
+            }
+            c = raw.charAt(i);
+            switch (c)
+            {
+            case ':':
+                sb.append(';');
+                break;
+            case 's':
+                sb.append(' ');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 'n':
+                sb.append('\n');
+                break;
+            default:
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private final String _raw;
+    /** Every tag, built by asMap(). */
+    private volatile Map<String, String> _map;
+}
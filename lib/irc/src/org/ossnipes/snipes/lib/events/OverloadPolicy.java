@@ -0,0 +1,50 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.events;
+
+/**
+ * What the event pool does when events come in faster than the handlers can
+ * deal with them and it's queue fills up (for example during a netsplit or a
+ * join flood).
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ * @see EventHandlerCollection#configurePool(int, int, OverloadPolicy)
+ */
+public enum OverloadPolicy
+{
+    /**
+     * Wait for room in the queue. This holds up the Thread reading from the
+     * server, so the server's send buffer fills up instead of our memory.
+     * Handlers that send events themselves run them straight away instead of
+     * waiting, so the pool can't deadlock on itself.
+     *
+     * With the non-blocking transport the Thread reading from the server is
+     * a {@link org.ossnipes.snipes.lib.irc.IRCSelector}'s, shared by every
+     * connection on it, so it never waits: low priority events are thrown
+     * away like with {@link #DROP_LOW_PRIORITY} and the rest are sent on it
+     * straight away.
+     */
+    BLOCK,
+    /**
+     * Throw away events that are in {@link EventConstants#LOW_PRIORITY_EVENTS}
+     * (chatter like PRIVMSGs and NOTICEs). Everything else waits like with
+     * {@link #BLOCK}.
+     */
+    DROP_LOW_PRIORITY,
+    /**
+     * When the queue is getting full, stop giving each handler it's own task
+     * and give each event a single task that calls the handlers one after the
+     * other (like {@link ThreadLevel#TL_PER_EVENT}). If even that doesn't fit,
+     * wait like with {@link #BLOCK}.
+     */
+    COALESCE
+}
@@ -10,9 +10,38 @@
 
 package org.ossnipes.snipes.lib.events;
 
+/**
+ * How many Threads are used to send events to the listeners.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
 public enum ThreadLevel 
 {
+    /**
+     * Events are sent to every listener on the Thread that sent them. With the
+     * non-blocking transport that's the
+     * {@link org.ossnipes.snipes.lib.irc.IRCSelector}'s Thread, so a slow
+     * listener holds up every connection on the selector, not just it's own.
+     */
     TL_SINGLE,
+    /** Each event gets a Thread from the event pool, which sends it to every listener. */
     TL_PER_EVENT,
-    TL_PER_HANDLER
+    /** Each listener gets a Thread from the event pool for each event. This is the default. */
+    TL_PER_HANDLER,
+    /**
+     * Each listener has a mailbox of events that is worked through by at most
+     * one pool Thread at a time. Listeners get their events in the order they
+     * were sent (a PART never overtakes the JOIN before it), while different
+     * listeners still run at the same time, so a slow listener only holds up
+     * itself.
+     */
+    TL_PER_LISTENER_ORDERED,
+    /**
+     * Each listener gets a new virtual Thread for each event. Handlers that
+     * block (sending messages, looking things up) don't tie up a real Thread
+     * while they wait. Needs a JVM with virtual Threads, on older ones this
+     * works like {@link #TL_PER_HANDLER}.
+     */
+    TL_VIRTUAL
 }
@@ -0,0 +1,174 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.events;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ossnipes.snipes.lib.irc.CaseMapping;
+
+/**
+ * Every user a {@link IRCBase} shares a channel with, by nick. Each user is
+ * one {@link BotUser} that all the {@link Channel}s point to, so a nick change
+ * or quit only changes one Object. Users are forgotten when they leave the last
+ * channel we share with them.
+ *
+ * The table and all of the channels using it are locked with the table, so
+ * they always agree with each other.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+final class UserTable
+{
+    UserTable()
+    {
+        this(CaseMapping.RFC1459);
+    }
+
+    UserTable(CaseMapping caseMapping)
+    {
+        _caseMapping = caseMapping;
+    }
+
+    /** Handles a IRC_NICK_CHANGE or IRC_QUIT, which can be about any of our channels. */
+    void handleEvent(Event ev, EventArgs args)
+    {
+        if (ev == Event.IRC_NICK_CHANGE)
+        {
+            BotUser u = rename(args.getParamAsString("nick-old"), args.getParamAsString("nick-new"));
+            if (u != null)
+            {
+                u.setUserHost(args.getParamAsString("user"), args.getParamAsString("host"));
+            }
+        }
+        else if (ev == Event.IRC_QUIT)
+        {
+            quit(args.getParamAsString("nick"));
+        }
+    }
+
+    /**
+     * Gets a user.
+     * @param nick Their nick.
+     * @return The user, or null if we don't share a channel with them.
+     */
+    synchronized BotUser get(String nick)
+    {
+        return _users.get(key(nick));
+    }
+
+    /**
+     * Gets a user, adding them if we haven't seen them before. They're only
+     * kept if they get added to a channel.
+     * @param nick Their nick, without a prefix.
+     * @param user Their username, or null if it isn't known.
+     * @param host Their host, or null if it isn't known.
+     * @return The user.
+     */
+    synchronized BotUser getOrCreate(String nick, String user, String host)
+    {
+        String key = key(nick);
+        BotUser bu = _users.get(key);
+        if (bu == null)
+        {
+            bu = new BotUser(nick);
+            _users.put(key, bu);
+        }
+        bu.setUserHost(user, host);
+        return bu;
+    }
+
+    /**
+     * Changes a user's nick.
+     * @return The user, or null if we don't know them.
+     */
+    synchronized BotUser rename(String oldNick, String newNick)
+    {
+        BotUser bu = _users.remove(key(oldNick));
+        if (bu != null)
+        {
+            bu.setNick(newNick);
+            _users.put(key(newNick), bu);
+            // Their channels look them up by nick.
+            for (Channel c : bu.getChannels())
+            {
+                c.membersChanged();
+            }
+        }
+        return bu;
+    }
+
+    /** Removes a user from the table and every channel they're in. */
+    synchronized void quit(String nick)
+    {
+        BotUser bu = _users.remove(key(nick));
+        if (bu != null)
+        {
+            for (Channel c : bu.getChannels())
+            {
+                c.removeUser(bu);
+            }
+        }
+    }
+
+    /**
+     * Forgets a user if they aren't in any of our channels anymore.
+     * @param bu The user.
+     */
+    synchronized void release(BotUser bu)
+    {
+        String key = key(bu.getNick());
+        if (bu.getChannels().length == 0 && _users.get(key) == bu)
+        {
+            _users.remove(key);
+        }
+    }
+
+    /** @return The amount of users we know about. */
+    synchronized int size()
+    {
+        return _users.size();
+    }
+
+    CaseMapping getCaseMapping()
+    {
+        return _caseMapping;
+    }
+
+    /**
+     * Changes the case mapping nicks are looked up with, when the server tells
+     * us which one it uses.
+     * @param caseMapping The new case mapping.
+     */
+    synchronized void setCaseMapping(CaseMapping caseMapping)
+    {
+        if (caseMapping == _caseMapping)
+        {
+            return;
+        }
+        _caseMapping = caseMapping;
+        Map<String, BotUser> old = new HashMap<String, BotUser>(_users);
+        _users.clear();
+        for (BotUser bu : old.values())
+        {
+            _users.put(key(bu.getNick()), bu);
+        }
+    }
+
+    private String key(String nick)
+    {
+        return _caseMapping.toLowerCase(nick);
+    }
+
+    private volatile CaseMapping _caseMapping;
+    private final Map<String, BotUser> _users = new HashMap<String, BotUser>();
+}
@@ -0,0 +1,70 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.events;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Gets at the JVM's virtual Threads, for {@link ThreadLevel#TL_VIRTUAL}.
+ * Snipes still builds and runs on JVMs that don't have them, so they're
+ * looked up by reflection. On those JVMs {@link #getExecutor()} returns null
+ * and TL_VIRTUAL falls back to the event pool.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+final class VirtualThreads
+{
+    private VirtualThreads() {}
+
+    /** @return True if this JVM can run handlers on virtual Threads. */
+    static boolean isSupported()
+    {
+        return Holder.EXECUTOR != null;
+    }
+
+    /**
+     * Gets the executor that starts a new virtual Thread for every task. It's
+     * shared by every bot, virtual Threads are cheap enough that there's no
+     * point in having more than one.
+     * @return The executor, or null if this JVM doesn't have virtual Threads.
+     */
+    static ExecutorService getExecutor()
+    {
+        return Holder.EXECUTOR;
+    }
+
+    // Only looks for virtual Threads when somebody actually asks for them.
+    private static class Holder
+    {
+        static final ExecutorService EXECUTOR = create();
+
+        private static ExecutorService create()
+        {
+            try
+            {
+                Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService)m.invoke(null);
+            } catch (NoSuchMethodException e)
+            {
+                // Too old a JVM.
+                return null;
+            } catch (Exception e)
+            {
+                // Probably a JVM that has them as a preview feature without
+                // --enable-preview.
+                return null;
+            }
+        }
+    }
+}
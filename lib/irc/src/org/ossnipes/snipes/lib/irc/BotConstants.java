@@ -25,6 +25,26 @@ public interface BotConstants
     static final String SNIRC_VERSION_STRING = Float.toString(SNIRC_VERSION);
     /** The default port for IRC servers */
     static final int IRC_DEFAULT_PORT = 6667;
+    /** The default port for IRC servers over TLS */
+    static final int IRC_DEFAULT_SSL_PORT = 6697;
+    /** The most bytes a line to or from the server may have, line ending included */
+    static final int IRC_MAX_LINE_LENGTH = 512;
+    /** The most bytes the IRCv3 message tags in front of a line from the server may have, the '@' and the space after them included */
+    static final int IRC_MAX_TAGS_LENGTH = 8191;
+    /** The IRCv3 capabilities asked for when connecting, if the server has them */
+    static final String[] DEFAULT_CAPS = {"multi-prefix", "away-notify", "extended-join", "account-tag", "server-time"};
+    /** The most lines that are sent to the server at once before they start being paced */
+    static final int DEFAULT_SEND_BURST = 5;
+    /** How long it takes for another line to be allowed to be sent, in milliseconds */
+    static final long DEFAULT_SEND_INTERVAL = 2000;
+    /** How long to wait before reconnecting after the connection is lost, in milliseconds */
+    static final long DEFAULT_RECONNECT_DELAY = 5000;
+    /** The longest to wait between attempts to reconnect, in milliseconds */
+    static final long DEFAULT_MAX_RECONNECT_DELAY = 5 * 60 * 1000;
+    /** How often to PING the server to check the connection and measure the lag, in milliseconds */
+    static final long DEFAULT_PING_INTERVAL = 60 * 1000;
+    /** How many times the usual lag to wait for a PING to be answered before the connection is treated as lost */
+    static final int DEFAULT_STALE_LAG_MULTIPLE = 10;
     /** The IRC server timeout in milliseconds */
     static final int IRC_TIMEOUT = 120 * 1000;
     static final Character[] IRC_CHANPREFIXES = {'#', '&', '+'};
@@ -41,7 +41,18 @@ class BotOptions
     {
         _verbose = val;
     }
+
+    boolean isNonBlocking()
+    {
+        return _nonBlocking;
+    }
+
+    void setNonBlocking(boolean val)
+    {
+        _nonBlocking = val;
+    }
 	
     private boolean _verbose;
     private boolean _debugging;
+    private boolean _nonBlocking;
 }
@@ -0,0 +1,159 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Asks the server for the IRCv3 capabilities we want when we connect. We send
+ * CAP LS before registering, and servers that know about capabilities hold off
+ * registering us until we send CAP END. When they've listed what they have we
+ * CAP REQ the ones we want, and end once they've answered. Servers that don't
+ * know about capabilities just ignore it (or send a unknown command numeric)
+ * and register us as usual.
+ *
+ * Capabilities the server adds later (cap-notify, which CAP LS 302 turns on)
+ * are asked for too. The {@link ServerSupport} for the connection keeps track
+ * of what's turned on and tells us when the server says something.
+ *
+ * One negotiator belongs to one connection.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+final class CapNegotiator
+{
+    /**
+     * @param manager What to send the CAP commands with.
+     * @param wanted The capabilities to ask for. Read when the server lists
+     *            it's capabilities, not copied.
+     */
+    CapNegotiator(IRCSocketManager manager, Collection<String> wanted)
+    {
+        _manager = manager;
+        _wanted = wanted;
+    }
+
+    /** Asks the server what it has. Called before NICK and USER. */
+    synchronized void start()
+    {
+        _negotiating = true;
+        _manager.sendRaw("CAP LS " + CAP_VERSION);
+    }
+
+    /** Called once the server has finished listing it's capabilities. */
+    synchronized void capsListed(ServerSupport support)
+    {
+        if (!_negotiating)
+        {
+            // Somebody asked for the list themselves.
+            return;
+        }
+        if (!request(support, _wanted))
+        {
+            end();
+        }
+    }
+
+    /** Called when the server gets new capabilities. */
+    synchronized void capsAdded(ServerSupport support, String[] caps)
+    {
+        if (_negotiating)
+        {
+            // We'll see them when the server finishes listing.
+            return;
+        }
+        Collection<String> added = new ArrayList<String>(Arrays.asList(caps));
+        added.retainAll(_wanted);
+        request(support, added);
+    }
+
+    /** Called when the server ACKs or NAKs a CAP REQ. */
+    synchronized void capsAnswered()
+    {
+        if (_pending > 0)
+        {
+            _pending--;
+        }
+        if (_pending == 0 && _negotiating)
+        {
+            end();
+        }
+    }
+
+    /** Called when the server says we're registered, negotiated or not. */
+    synchronized void registered()
+    {
+        _negotiating = false;
+    }
+
+    /**
+     * Asks for the capabilities in a list that the server has and that aren't
+     * already turned on.
+     * @return True if anything was asked for.
+     */
+    private boolean request(ServerSupport support, Collection<String> caps)
+    {
+        StringBuilder req = new StringBuilder();
+        boolean sent = false;
+        for (String cap : caps)
+        {
+            if (!support.isCapAvailable(cap) || support.isCapEnabled(cap))
+            {
+                continue;
+            }
+            if (req.length() > 0 && req.length() + 1 + cap.length() > MAX_REQ_LENGTH)
+            {
+                send(req);
+                sent = true;
+                req.setLength(0);
+            }
+            if (req.length() > 0)
+            {
+                req.append(' ');
+            }
+            req.append(cap);
+        }
+        if (req.length() > 0)
+        {
+            send(req);
+            sent = true;
+        }
+        return sent;
+    }
+
+    private void send(CharSequence caps)
+    {
+        // The server answers each REQ with one ACK or NAK.
+        _pending++;
+        _manager.sendRaw("CAP REQ :" + caps);
+    }
+
+    private void end()
+    {
+        _negotiating = false;
+        _manager.sendRaw("CAP END");
+    }
+
+    /** The version of CAP we speak. 302 gets us capability values and cap-notify. */
+    private static final String CAP_VERSION = "302";
+    /** The longest list of capabilities put in one CAP REQ, in bytes. */
+    private static final int MAX_REQ_LENGTH = 400;
+
+    private final IRCSocketManager _manager;
+    private final Collection<String> _wanted;
+    /** If we're holding off registration. */
+    private boolean _negotiating;
+    /** The REQs the server hasn't answered yet. */
+    private int _pending;
+}
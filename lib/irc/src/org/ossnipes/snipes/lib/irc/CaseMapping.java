@@ -0,0 +1,128 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc;
+
+/**
+ * The ways IRC servers compare nicks and channel names. Because of IRC's
+ * Scandinavian origin, RFC 1459 says that the characters {}| are the lower
+ * case versions of []\, so "Snipes[Away]" and "snipes{away}" are the same
+ * nick. {@link String#equalsIgnoreCase(String)} gets this wrong.
+ *
+ * Instead of comparing names with each other, turn them into a key with
+ * {@link #toLowerCase(String)} and use that in a HashMap, so looking a name
+ * up doesn't mean comparing it with every other name.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+public enum CaseMapping
+{
+    /** Only A-Z and a-z are the same. */
+    ASCII('Z'),
+    /** A-Z, [, \, ], and ^ are the upper case versions of a-z, {, |, }, and ~. The default. */
+    RFC1459('^'),
+    /** Like {@link #RFC1459}, but ^ and ~ are different. */
+    STRICT_RFC1459(']');
+
+    private CaseMapping(char last)
+    {
+        _last = last;
+    }
+
+    /**
+     * Gets the mapping with the name used by the server in it's CASEMAPPING
+     * ISUPPORT token ("ascii", "rfc1459", or "strict-rfc1459").
+     * @param name The name.
+     * @return The mapping, or {@link #RFC1459} if the name is unknown.
+     */
+    public static CaseMapping forName(String name)
+    {
+        if ("ascii".equalsIgnoreCase(name))
+        {
+            return ASCII;
+        }
+        else if ("strict-rfc1459".equalsIgnoreCase(name))
+        {
+            return STRICT_RFC1459;
+        }
+        return RFC1459;
+    }
+
+    /**
+     * Turns a name into it's lower case version.
+     * @param s The name.
+     * @return The lower case version. If it already was lower case, the same String.
+     */
+    public String toLowerCase(String s)
+    {
+        int len = s.length();
+        int i = 0;
+        // Don't copy anything if it's already lower case.
+        while (i < len && !isUpper(s.charAt(i)))
+        {
+            i++;
+        }
+        if (i == len)
+        {
+            return s;
+        }
+
+        char[] chars = s.toCharArray();
+        for (; i < len; i++)
+        {
+            if (isUpper(chars[i]))
+            {
+                chars[i] += 'a' - 'A';
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Checks if two names are the same.
+     * @param a The first name.
+     * @param b The second name.
+     * @return True if they're the same, ignoring case.
+     */
+    public boolean equals(String a, String b)
+    {
+        if (a == null || b == null)
+        {
+            return a == b;
+        }
+        int len = a.length();
+        if (len != b.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < len; i++)
+        {
+            if (toLower(a.charAt(i)) != toLower(b.charAt(i)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isUpper(char c)
+    {
+        return c >= 'A' && c <= _last;
+    }
+
+    private char toLower(char c)
+    {
+        return isUpper(c) ? (char)(c + ('a' - 'A')) : c;
+    }
+
+    /** The last upper case character. Everything from A up to it is upper case. */
+    private final char _last;
+}
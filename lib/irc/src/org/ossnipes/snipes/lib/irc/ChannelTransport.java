@@ -0,0 +1,316 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.SocketFactory;
+
+/**
+ * The non-blocking transport. The connection is a {@link SocketChannel}
+ * serviced by a shared {@link IRCSelector}, so it doesn't need a Thread of
+ * it's own. Lines read are passed straight to the {@link IRCReceiver} on the
+ * selector's Thread, and lines written are queued until {@link #flush()} and
+ * then written by it, as many at once as the socket will take.
+ *
+ * There is no SocketFactory involved, so only plain connections (made with a
+ * {@link SnipesSocketFactory}) and TLS connections (made with a
+ * {@link SnipesSSLSocketFactory}, which gives us a SSLEngine to do the TLS
+ * with) are supported.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+class ChannelTransport implements IRCTransport
+{
+    ChannelTransport(IRCSelector selector, IRCReceiver receiver)
+    {
+        _selector = selector;
+        _receiver = receiver;
+    }
+
+    @Override
+    public void open(InetSocketAddress[] servers, SocketFactory factory) throws IOException
+    {
+        if (!(factory instanceof SnipesSocketFactory) && !(factory instanceof SnipesSSLSocketFactory))
+        {
+            throw new IllegalArgumentException("The non-blocking transport only supports connections made with a SnipesSocketFactory or a SnipesSSLSocketFactory.");
+        }
+
+        // Connecting is done on the caller's Thread, it's only reading and
+        // writing that we want off it.
+        ServerConnector connector = new ServerConnector(servers);
+        _channel = connector.connect();
+        try
+        {
+            _channel.configureBlocking(false);
+            if (factory instanceof SnipesSSLSocketFactory)
+            {
+                // The handshake happens on the selector's Thread, as the
+                // server answers.
+                InetSocketAddress server = connector.getServer();
+                _tls = new SecureChannel(_channel, ((SnipesSSLSocketFactory)factory).createSSLEngine(server.getHostString(), server.getPort()));
+                _tls.begin();
+            }
+        } catch (IOException e)
+        {
+            // We never got to the selector, so there's nothing to release.
+            _closed.set(true);
+            _channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void start()
+    {
+        // Anything written before now is flushed once we're registered.
+        _selector.register(this);
+    }
+
+    @Override
+    public void write(String line)
+    {
+        if (_closed.get())
+        {
+            return;
+        }
+        _outbound.add(ByteBuffer.wrap(IRCLineFramer.encode(line)));
+    }
+
+    @Override
+    public void flush()
+    {
+        // One flush will write everything queued, so don't bother the
+        // selector with more than one at a time.
+        if (!_closed.get() && _flushScheduled.compareAndSet(false, true))
+        {
+            _selector.execute(_flushTask);
+        }
+    }
+
+    @Override
+    public String readLine() throws IOException
+    {
+        throw new IllegalStateException("Lines are delivered by the IRCSelector when using the non-blocking transport.");
+    }
+
+    @Override
+    public boolean isConnected()
+    {
+        return _channel != null && !_closed.get() && _channel.isConnected();
+    }
+
+    @Override
+    public void close()
+    {
+        if (!_closed.compareAndSet(false, true))
+        {
+            return;
+        }
+        try
+        {
+            _channel.close();
+        } catch (IOException e)
+        {
+            // We don't care.
+        }
+        _selector.release(this);
+    }
+
+    /** Called on the selector's Thread once we've been handed to it. */
+    void register(Selector selector)
+    {
+        try
+        {
+            _key = _channel.register(selector, SelectionKey.OP_READ, this);
+        } catch (ClosedChannelException e)
+        {
+            // Closed before we got the chance to register, nothing to do.
+            return;
+        }
+        // Anything sent before we were registered is still waiting.
+        flushNow();
+    }
+
+    /** Called on the selector's Thread when our channel is ready. */
+    void ready(SelectionKey key)
+    {
+        try
+        {
+            if (key.isValid() && key.isReadable())
+            {
+                read();
+            }
+            if (key.isValid() && key.isWritable())
+            {
+                flushNow();
+            }
+        } catch (IOException e)
+        {
+            lost(e);
+        }
+    }
+
+    private void read() throws IOException
+    {
+        do
+        {
+            _framer.compact();
+            int n = _tls != null ? _tls.read(_framer.buffer()) : _channel.read(_framer.buffer());
+            if (n == -1)
+            {
+                lost(new IOException("We have been killed: Quit or kill from server. See logs."));
+                return;
+            }
+
+            String line;
+            while ((line = _framer.next()) != null)
+            {
+                deliver(line);
+            }
+            // The engine may have decrypted more than there was room for,
+            // and the socket won't tell us about it again.
+        } while (_tls != null && _tls.hasBufferedInput());
+
+        if (_tls != null)
+        {
+            // Reading may have moved the handshake along, or finished it so
+            // what's been waiting for it can go.
+            flushNow();
+        }
+    }
+
+    private void deliver(String line)
+    {
+        try
+        {
+            _receiver.lineReceived(line);
+        } catch (RuntimeException e)
+        {
+            // A bad handler must not take down the selector, every other
+            // connection depends on it.
+            System.err.println("Snipes IRC selector: Exception while handling a line:");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes as much of what's queued as the socket will take, handing it
+     * several lines at once so a burst doesn't cost a system call per line.
+     */
+    private void flushNow()
+    {
+        if (_key == null || !_key.isValid())
+        {
+            // Not registered yet (register() will flush for us), or closed.
+            return;
+        }
+
+        try
+        {
+            if (_tls != null && (!_tls.flush() || _tls.isHandshaking()))
+            {
+                // Lines wait for the handshake. We only want to know about
+                // the socket being writable if there's handshake to send.
+                _key.interestOps(_tls.hasPendingOutput() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                return;
+            }
+
+            while (!_outbound.isEmpty())
+            {
+                int n = 0;
+                long queued = 0;
+                for (ByteBuffer buf : _outbound)
+                {
+                    _gather[n++] = buf;
+                    queued += buf.remaining();
+                    if (n == _gather.length)
+                    {
+                        break;
+                    }
+                }
+                long written = _tls != null ? _tls.write(_gather, 0, n) : _channel.write(_gather, 0, n);
+                // Don't hold on to lines that have been sent.
+                Arrays.fill(_gather, 0, n, null);
+
+                ByteBuffer buf;
+                while ((buf = _outbound.peek()) != null && !buf.hasRemaining())
+                {
+                    _outbound.poll();
+                }
+                if (written < queued || (_tls != null && _tls.hasPendingOutput()))
+                {
+                    // The socket's full, wait for it to tell us it's writable.
+                    _key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            _key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException e)
+        {
+            lost(e);
+        }
+    }
+
+    /**
+     * Closes the connection and tells the receiver it's been lost, unless we
+     * closed it ourselves.
+     * @param e What happened.
+     */
+    void lost(IOException e)
+    {
+        if (_closed.get())
+        {
+            // We closed it ourselves.
+            return;
+        }
+        close();
+        _receiver.connectionLost(e);
+    }
+
+    /** The most lines written to the socket at once. */
+    private static final int MAX_GATHER = 64;
+
+    private final Runnable _flushTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            _flushScheduled.set(false);
+            flushNow();
+        }
+    };
+
+    private final IRCSelector _selector;
+    private final IRCReceiver _receiver;
+    private final Queue<ByteBuffer> _outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicBoolean _flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean _closed = new AtomicBoolean();
+    private final IRCLineFramer _framer = new IRCLineFramer();
+    /** The lines handed to the socket in one write, only used on the selector's Thread. */
+    private final ByteBuffer[] _gather = new ByteBuffer[MAX_GATHER];
+
+    private SocketChannel _channel;
+    /** Does the TLS, if the connection uses it. */
+    private SecureChannel _tls;
+    private SelectionKey _key;
+}
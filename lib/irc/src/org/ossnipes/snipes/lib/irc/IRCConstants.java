@@ -68,6 +68,8 @@ public interface IRCConstants
     public static final int ERR_NOOPERHOST = 491;
     public static final int ERR_UMODEUNKNOWNFLAG = 501;
     public static final int ERR_USERSDONTMATCH = 502;
+    public static final int RPL_WELCOME = 1;
+    public static final int RPL_ISUPPORT = 5;
     public static final int RPL_NONE = 300;
     public static final int RPL_USERHOST = 302;
     public static final int RPL_ISON = 303;
@@ -0,0 +1,286 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Splits the bytes coming from the server into lines. This replaces wrapping
+ * the socket in a BufferedReader: the bytes are kept in one reusable
+ * {@link ByteBuffer}, scanned for the line ending and only turned into a
+ * String once a whole line is there, so each line costs exactly one String.
+ *
+ * Lines are decoded as UTF-8. Lines that aren't valid UTF-8 (there are still
+ * plenty of latin-1 clients out there) are decoded as ISO-8859-1 instead, so
+ * we never throw away a line because of it's encoding. Lines longer than the
+ * protocol allows ({@link BotConstants#IRC_MAX_LINE_LENGTH}, plus
+ * {@link BotConstants#IRC_MAX_TAGS_LENGTH} if the line starts with IRCv3
+ * message tags) are cut off at the limit, and the rest of the line is thrown
+ * away.
+ *
+ * One framer belongs to one connection, and is not thread safe.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+public class IRCLineFramer implements BotConstants
+{
+    public IRCLineFramer()
+    {
+        // The line ending doesn't count towards the content.
+        _maxLength = IRC_MAX_LINE_LENGTH - 2;
+        _buf = ByteBuffer.allocate(Math.max(8192, (IRC_MAX_TAGS_LENGTH + IRC_MAX_LINE_LENGTH) * 2));
+        _view = ByteBuffer.wrap(_buf.array());
+        _chars = CharBuffer.allocate(_maxLength + IRC_MAX_TAGS_LENGTH);
+        _decoder = UTF8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    }
+
+    /**
+     * Gets the buffer to read more bytes into. {@link #compact()} should be
+     * called before reading, so there's as much room as possible.
+     *
+     * @return The buffer, ready to be written to.
+     */
+    public ByteBuffer buffer()
+    {
+        return _buf;
+    }
+
+    /**
+     * Moves the part of a line we haven't finished receiving yet to the start
+     * of the buffer, making room for the next read.
+     */
+    public void compact()
+    {
+        if (_start == 0)
+        {
+            return;
+        }
+        byte[] a = _buf.array();
+        int pending = _buf.position() - _start;
+        System.arraycopy(a, _start, a, 0, pending);
+        _scan -= _start;
+        _start = 0;
+        _buf.position(pending);
+    }
+
+    /**
+     * Gets the next complete line in the buffer.
+     *
+     * @return The line, without it's line ending, or null if there isn't a
+     *         complete line yet.
+     */
+    public String next()
+    {
+        byte[] a = _buf.array();
+        int end = _buf.position();
+
+        while (_scan < end)
+        {
+            if (a[_scan] == '\n')
+            {
+                int lineEnd = _scan;
+                _scan++;
+
+                if (_discarding)
+                {
+                    // The end of a line we already cut off.
+                    _discarding = false;
+                    _start = _scan;
+                    continue;
+                }
+
+                int lineStart = _start;
+                _start = _scan;
+
+                if (lineEnd > lineStart && a[lineEnd - 1] == '\r')
+                {
+                    lineEnd--;
+                }
+                return decode(a, lineStart, lineEnd - lineStart);
+            }
+
+            _scan++;
+
+            if (!_discarding && _scan - _start > _maxLength && _scan - _start > limit(a))
+            {
+                // Too long. Hand over what the protocol allows and
+                // ignore everything up to the next line ending.
+                int lineStart = _start;
+                int length = limit(a);
+                _start = _scan;
+                _discarding = true;
+
+                if (a[lineStart + length - 1] == '\r')
+                {
+                    length--;
+                }
+                return decode(a, lineStart, length);
+            }
+        }
+
+        if (_discarding)
+        {
+            // Nobody wants these bytes.
+            _start = _scan;
+        }
+        return null;
+    }
+
+    /**
+     * Reads the next line from a InputStream, blocking until there is one.
+     *
+     * @param in The stream to read from.
+     * @return The line, or null if the end of the stream was reached.
+     * @throws IOException If reading from the stream failed.
+     */
+    public String readLine(InputStream in) throws IOException
+    {
+        while (true)
+        {
+            String line = next();
+            if (line != null)
+            {
+                return line;
+            }
+
+            compact();
+            int pos = _buf.position();
+            int n = in.read(_buf.array(), pos, _buf.capacity() - pos);
+            if (n == -1)
+            {
+                // Like BufferedReader, hand over a unfinished last line.
+                return rest();
+            }
+            _buf.position(pos + n);
+        }
+    }
+
+    /**
+     * Gets whatever is left in the buffer as a line, for when the connection
+     * ends in the middle of one.
+     *
+     * @return The unfinished line, or null if there isn't one.
+     */
+    public String rest()
+    {
+        int end = _buf.position();
+        if (_discarding || _start >= end)
+        {
+            return null;
+        }
+        int lineStart = _start;
+        _start = end;
+        _scan = end;
+        return decode(_buf.array(), lineStart, end - lineStart);
+    }
+
+    /** @return The most bytes the line being received may have. Tags get room of their own. */
+    private int limit(byte[] a)
+    {
+        return a[_start] == '@' ? _maxLength + IRC_MAX_TAGS_LENGTH : _maxLength;
+    }
+
+    private String decode(byte[] a, int off, int len)
+    {
+        boolean ascii = true;
+        for (int i = off; i < off + len; i++)
+        {
+            if (a[i] < 0)
+            {
+                ascii = false;
+                break;
+            }
+        }
+
+        // Nearly everything is plain ASCII, which is the same in UTF-8 and
+        // latin-1, and latin-1 is the cheapest to decode.
+        if (ascii)
+        {
+            return new String(a, off, len, LATIN1);
+        }
+
+        _view.clear();
+        _view.position(off);
+        _view.limit(off + len);
+        _chars.clear();
+        _decoder.reset();
+
+        CoderResult result = _decoder.decode(_view, _chars, true);
+        if (!result.isError())
+        {
+            result = _decoder.flush(_chars);
+        }
+        if (result.isError() || result.isOverflow())
+        {
+            return new String(a, off, len, LATIN1);
+        }
+
+        _chars.flip();
+        return _chars.toString();
+    }
+
+    /**
+     * Turns a line we're sending into the bytes that go on the wire, line
+     * ending included. The other direction of {@link #next()}.
+     *
+     * @param line The line, without a line ending.
+     * @return The line in UTF-8, followed by CR LF.
+     */
+    static byte[] encode(String line)
+    {
+        int len = line.length();
+        for (int i = 0; i < len; i++)
+        {
+            if (line.charAt(i) >= 0x80)
+            {
+                return (line + "\r\n").getBytes(UTF8);
+            }
+        }
+
+        // Plain ASCII, the bytes are the chars.
+        byte[] b = new byte[len + 2];
+        for (int i = 0; i < len; i++)
+        {
+            b[i] = (byte)line.charAt(i);
+        }
+        b[len] = '\r';
+        b[len + 1] = '\n';
+        return b;
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    /** The most bytes a line without tags may have, not counting the line ending. */
+    private final int _maxLength;
+    /** Holds the received bytes. Bytes up to it's position are valid. */
+    private final ByteBuffer _buf;
+    /** A second view of _buf's array, used to hand a line to the decoder. */
+    private final ByteBuffer _view;
+    private final CharBuffer _chars;
+    private final CharsetDecoder _decoder;
+    /** Where the line currently being received starts. */
+    private int _start;
+    /** The next byte to look at for a line ending. */
+    private int _scan;
+    /** If we're throwing away the rest of a line that was too long. */
+    private boolean _discarding;
+}
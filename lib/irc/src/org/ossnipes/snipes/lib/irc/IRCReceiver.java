@@ -11,6 +11,10 @@
 package org.ossnipes.snipes.lib.irc;
 
 import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.ossnipes.snipes.lib.events.IRCMessage;
 
 /**
  * Encapsulates the receiving of data from the IRC server.
@@ -21,69 +25,108 @@ import java.io.IOException;
 
 class IRCReceiver implements Runnable
 {
-    // Lock for usage of the handler.
-    private Object lock = new Object();
-	
     /**
      * Instantiates a object of the class.
      * 
      * @param manager
      *            The socket manager that this thread should be watching for
-     *            messages
-     * @param initialHandler
-     *            The "parent" IRCBase of this object. In other words: The
-     *            object it will notify if it gets a message.
+     *            messages. Lines are passed to it's {@link InputPipeline}.
      */
-    IRCReceiver(IRCSocketManager manager, InputHandler initialHandler)
+    IRCReceiver(IRCSocketManager manager)
     {
         _manager = manager;
-        _handler = initialHandler;
     }
 
     public void run()
     {
         try
         {
-            // Loop until the bot disconnects from the server.
-            while (isConnected())
+            // Loop until the bot disconnects from the server. We read from
+            // our own transport, the manager may have moved on to a new one.
+            String s;
+            while (true)
             {
-                String s = _manager.recvRaw();
-                if (s != null)
+                try
+                {
+                    s = _transport.readLine();
+                } catch (SocketTimeoutException e)
                 {
-                    String[] split = s.split(" ");
-					
-                    if (split[0].equalsIgnoreCase("PING"))
-                    {
-                        String pongMsg = split[1].contains(":") ? split[1].substring(1) : split[1];
-                        System.out.println("PONG: " + pongMsg);
-                        _manager.sendPong(pongMsg);
-                    }
-					
-                    synchronized (lock) {
-                        _handler.handle(s);
-                    }
+                    // The server's just quiet. The socket's still good, and
+                    // the lag monitor decides when it's been too long.
+                    continue;
                 }
-                else
+                if (s == null)
                 {
-                    System.out.println("Disconnected from server.");
                     break;
                 }
+                lineReceived(s);
             }
+            connectionLost(new IOException("We have been killed: Quit or kill from server. See logs."));
         } catch (IOException e)
-        {/*
-          * :( we've Disconnected, or we've been disconnected. Just return.
-          */
-            System.err.println("Disconnected unexpectedly: " + e.getMessage());
-            System.exit(1);
+        {
+            connectionLost(e);
         }
     }
-	
-    public void setHandler(InputHandler newIn)
+
+    /**
+     * Handles a line from the server: PINGs are answered, what we know
+     * about the server and the lag is updated, and then the line goes through
+     * the input filters to the handler. With the blocking transport this is
+     * called from {@link #run()}, with the non-blocking one it is called by
+     * the {@link IRCSelector} looking after the connection.
+     *
+     * @param s The line received.
+     */
+    void lineReceived(String s)
     {
-        synchronized (lock) 
+        // PINGs are answered right here, ahead of anything waiting to be
+        // sent, and go no further. If the handlers are backed up the server
+        // mustn't have to wait for them.
+        String ping = IRCMessage.lastParam(s, "PING");
+        if (ping != null)
         {
-            _handler = newIn;
+            _manager.answerPing(ping);
+            return;
         }
+
+        // Before the handler, so it sees what the line changed.
+        _manager.getServerSupport().lineReceived(s, _manager.getNick());
+        LagMonitor lag = _lag;
+        if (lag != null)
+        {
+            lag.lineReceived(s);
+        }
+
+        // The pipeline is swapped whole when it changes, so there's nothing
+        // to lock.
+        _manager.getInputPipeline().handle(s);
+    }
+
+    /**
+     * Called when the connection to the server has been lost.
+     *
+     * @param e The Exception that caused it.
+     */
+    void connectionLost(IOException e)
+    {
+        // The lag monitor and the transport can both find out, only tell
+        // the manager once.
+        if (_lost.compareAndSet(false, true))
+        {
+            _manager.connectionLost(this, e);
+        }
+    }
+
+    /** Sets the transport {@link #run()} reads from. */
+    void setTransport(IRCTransport transport)
+    {
+        _transport = transport;
+    }
+
+    /** Sets the monitor that's waiting for our PINGs to be answered. */
+    void setLagMonitor(LagMonitor lag)
+    {
+        _lag = lag;
     }
 
     public boolean isConnected()
@@ -92,6 +135,9 @@ class IRCReceiver implements Runnable
     }
 
     private IRCSocketManager _manager;
-    private InputHandler _handler;
+    /** The transport this receiver gets it's lines from, only used by the blocking transport's Thread. */
+    private IRCTransport _transport;
+    private volatile LagMonitor _lag;
+    private final AtomicBoolean _lost = new AtomicBoolean();
 
 }
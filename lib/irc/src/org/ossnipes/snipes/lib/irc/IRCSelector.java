@@ -0,0 +1,307 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single I/O Thread that services any number of non-blocking IRC
+ * connections. Every {@link IRCSocketManager} that has been told to use the
+ * non-blocking transport (see {@link IRCSocketManager#setNonBlocking(boolean)})
+ * registers it's connection with one of these instead of getting it's own
+ * receiver Thread, so the amount of Threads used no longer grows with the
+ * amount of connections.
+ *
+ * Most people will just want {@link #getDefault()}. If you have a LOT of
+ * connections, you can create a few of these and spread the connections
+ * over them with {@link IRCSocketManager#setSelector(IRCSelector)}.
+ *
+ * The Thread is only running while there are connections registered with
+ * it. Note that lines are passed to the {@link InputHandler}s on this Thread,
+ * so handlers that take a long time will hold up every connection on it. The
+ * event pool never makes this Thread wait for room, see
+ * {@link #isSelectorThread()}.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+public class IRCSelector implements Runnable
+{
+    /**
+     * Creates a new selector. It's Thread is started when the first
+     * connection is registered.
+     *
+     * @param name The name to use for the I/O Thread.
+     */
+    public IRCSelector(String name)
+    {
+        if (name == null)
+        {
+            throw new IllegalArgumentException("Name cannot be null.");
+        }
+        _name = name;
+        try
+        {
+            _selector = Selector.open();
+        } catch (IOException e)
+        {
+            throw new SnipesException("Could not open a Selector.", e);
+        }
+    }
+
+    /**
+     * Gets the selector shared by every connection that hasn't been given
+     * one explicitly.
+     *
+     * @return The default selector.
+     */
+    public static IRCSelector getDefault()
+    {
+        return DefaultHolder.DEFAULT;
+    }
+
+    public String getName()
+    {
+        return _name;
+    }
+
+    /**
+     * Checks if the current Thread is a selector's I/O Thread. Anything that
+     * could wait a while (like a full event queue) shouldn't, if it is: every
+     * connection on the selector would stop reading, answering PINGs and
+     * writing until it was done.
+     *
+     * @return True if it is.
+     */
+    public static boolean isSelectorThread()
+    {
+        return ON_SELECTOR.get() != null;
+    }
+
+    /**
+     * Gets the amount of connections currently registered with this selector.
+     *
+     * @return The amount of connections.
+     */
+    public synchronized int getConnectionCount()
+    {
+        return _connections;
+    }
+
+    /** Registers a connection, starting the I/O Thread if needed. */
+    void register(final ChannelTransport transport)
+    {
+        synchronized (this)
+        {
+            _connections++;
+            if (_thread == null)
+            {
+                _thread = new Thread(this, _name);
+                _thread.start();
+            }
+        }
+        execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                transport.register(_selector);
+            }
+        });
+    }
+
+    /** Called by a connection when it's been closed. */
+    void release(ChannelTransport transport)
+    {
+        synchronized (this)
+        {
+            _connections--;
+        }
+        _selector.wakeup();
+    }
+
+    /**
+     * Runs something on the I/O Thread. This is the only safe way to touch
+     * the SelectionKeys.
+     */
+    void execute(Runnable r)
+    {
+        _tasks.add(r);
+        _selector.wakeup();
+    }
+
+    /**
+     * Runs something on the I/O Thread after a delay. There is no way to
+     * cancel it, so the task should check if it still has anything to do.
+     *
+     * @param r The task.
+     * @param delayMillis How long to wait before running it, in milliseconds.
+     */
+    void schedule(final Runnable r, long delayMillis)
+    {
+        final Timer t = new Timer(System.nanoTime() + delayMillis * 1000000L, r);
+        execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                _timers.add(t);
+            }
+        });
+    }
+
+    @Override
+    public void run()
+    {
+        ON_SELECTOR.set(Boolean.TRUE);
+        try
+        {
+            while (true)
+            {
+                Runnable task;
+                while ((task = _tasks.poll()) != null)
+                {
+                    runTask(task);
+                }
+                long now = System.nanoTime();
+                while (!_timers.isEmpty() && _timers.peek().at - now <= 0)
+                {
+                    runTask(_timers.poll().task);
+                }
+
+                synchronized (this)
+                {
+                    // Nothing left to look after, let the Thread die.
+                    // register() will start a new one if needed.
+                    if (_connections <= 0 && _tasks.isEmpty())
+                    {
+                        _thread = null;
+                        return;
+                    }
+                }
+
+                if (_timers.isEmpty())
+                {
+                    _selector.select();
+                }
+                else
+                {
+                    // Wake up in time for the next timer. select(0) would wait forever.
+                    _selector.select(Math.max(1, (_timers.peek().at - System.nanoTime()) / 1000000L));
+                }
+
+                Iterator<SelectionKey> it = _selector.selectedKeys().iterator();
+                while (it.hasNext())
+                {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try
+                    {
+                        ((ChannelTransport)key.attachment()).ready(key);
+                    } catch (RuntimeException e)
+                    {
+                        // Don't let one connection take down the others.
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } catch (IOException e)
+        {
+            // Only select() throws this, and there's not much we can do
+            // about a broken Selector.
+            System.err.println("Snipes IRC selector " + _name + " failed: " + e.getMessage());
+            synchronized (this)
+            {
+                _thread = null;
+            }
+            // Nothing will read or write for the connections any more, let
+            // them reconnect now instead of waiting to ping out.
+            List<SelectionKey> keys;
+            try
+            {
+                keys = new ArrayList<SelectionKey>(_selector.keys());
+            } catch (ClosedSelectorException ce)
+            {
+                return;
+            }
+            for (SelectionKey key : keys)
+            {
+                try
+                {
+                    ((ChannelTransport)key.attachment()).lost(e);
+                } catch (RuntimeException re)
+                {
+                    re.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void runTask(Runnable task)
+    {
+        try
+        {
+            task.run();
+        } catch (RuntimeException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /** A task waiting for it's time to run. */
+    private static final class Timer implements Comparable<Timer>
+    {
+        Timer(long at, Runnable task)
+        {
+            this.at = at;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer o)
+        {
+            // nanoTime can overflow, so compare the difference.
+            long diff = at - o.at;
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+
+        /** When to run, in {@link System#nanoTime()}. */
+        final long at;
+        final Runnable task;
+    }
+
+    // Lazily creates the default, so people using the blocking transport
+    // never open a Selector.
+    private static class DefaultHolder
+    {
+        static final IRCSelector DEFAULT = new IRCSelector("Snipes-IRC-Framework-Selector");
+    }
+
+    /** Set on every selector's I/O Thread. */
+    private static final ThreadLocal<Boolean> ON_SELECTOR = new ThreadLocal<Boolean>();
+
+    private final String _name;
+    private final Selector _selector;
+    private final Queue<Runnable> _tasks = new ConcurrentLinkedQueue<Runnable>();
+    /** Tasks waiting to be run later. Only touched by the I/O Thread. */
+    private final PriorityQueue<Timer> _timers = new PriorityQueue<Timer>();
+    private Thread _thread;
+    private int _connections;
+}
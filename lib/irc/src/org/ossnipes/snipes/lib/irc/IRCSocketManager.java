@@ -10,12 +10,15 @@
 
 package org.ossnipes.snipes.lib.irc;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -59,7 +62,8 @@ public class IRCSocketManager implements InternalConstants, BotConstants, Runnab
      */
     public void sendRaw(String line)
     {
-        if (!isConnected())
+        SendQueue q = _sendQueue;
+        if (q == null || !isConnected())
         {
             throw new NotConnectedException("You can't send something if you're not connected! Try a call to" +
                                             " IRCSocketManager.connect first!");
@@ -68,7 +72,200 @@ public class IRCSocketManager implements InternalConstants, BotConstants, Runnab
         {
             System.out.println("US: " + line);
         }
-        _writer.println(line);
+        q.add(line);
+    }
+
+    /**
+     * Sets how fast lines are sent to the server. Servers kill clients that
+     * send too much too fast ("Excess Flood"), so lines are let out in a burst
+     * of a few and then paced. PONGs, QUITs and registration skip the pacing.
+     *
+     * @param burst The most lines to send at once. The default is {@link BotConstants#DEFAULT_SEND_BURST}.
+     * @param intervalMillis How long it takes for another line to be allowed, in milliseconds.
+     *            0 turns pacing off. The default is {@link BotConstants#DEFAULT_SEND_INTERVAL}.
+     */
+    public void setSendRate(int burst, long intervalMillis)
+    {
+        if (burst < 1 || intervalMillis < 0)
+        {
+            throw new IllegalArgumentException("Burst must be at least 1 and the interval can't be negative.");
+        }
+        _sendBurst = burst;
+        _sendInterval = intervalMillis;
+        SendQueue q = _sendQueue;
+        if (q != null)
+        {
+            q.setRate(burst, intervalMillis);
+        }
+    }
+
+    /**
+     * Gets the amount of lines waiting to be sent to the server.
+     * @return The amount of lines, 0 if we aren't connected.
+     */
+    public int getSendQueueDepth()
+    {
+        SendQueue q = _sendQueue;
+        return q != null ? q.getDepth() : 0;
+    }
+
+    /**
+     * Gets about how long lines have been waiting to be sent lately.
+     * @return The time in milliseconds, 0 if we aren't connected.
+     */
+    public long getSendQueueLatency()
+    {
+        SendQueue q = _sendQueue;
+        return q != null ? q.getLatency() : 0;
+    }
+
+    /**
+     * Adds a filter that lines from the server go through before they get to
+     * the {@link InputHandler}, after the filters already added. Filters
+     * stay when we reconnect.
+     * @param filter The filter.
+     */
+    public void addInputFilter(InputFilter filter)
+    {
+        synchronized (_pipelineLock)
+        {
+            _pipeline = _pipeline.withFilter(_pipeline.getFilterCount(), filter);
+        }
+    }
+
+    /**
+     * Adds a filter that lines from the server go through before they get to
+     * the {@link InputHandler}.
+     * @param index Where in the filters to put it, 0 for the first.
+     * @param filter The filter.
+     * @throws IndexOutOfBoundsException If index is negative or more than
+     *             the amount of filters.
+     */
+    public void addInputFilter(int index, InputFilter filter)
+    {
+        synchronized (_pipelineLock)
+        {
+            _pipeline = _pipeline.withFilter(index, filter);
+        }
+    }
+
+    /**
+     * Removes a filter. Lines already going through it may still get to it.
+     * @param filter The filter.
+     * @return True if it was there.
+     */
+    public boolean removeInputFilter(InputFilter filter)
+    {
+        synchronized (_pipelineLock)
+        {
+            InputPipeline old = _pipeline;
+            _pipeline = old.withoutFilter(filter);
+            return _pipeline != old;
+        }
+    }
+
+    /** @return The input filters, in the order lines go through them. The list can't be changed. */
+    public List<InputFilter> getInputFilters()
+    {
+        return _pipeline.getFilters();
+    }
+
+    /**
+     * Sets what lines from the server are handled by once they've gone
+     * through the filters. It's set by connect, this replaces it.
+     * @param handler The handler, or null to drop every line.
+     */
+    public void setInputHandler(InputHandler handler)
+    {
+        synchronized (_pipelineLock)
+        {
+            _pipeline = _pipeline.withHandler(handler);
+        }
+    }
+
+    public InputHandler getInputHandler()
+    {
+        return _pipeline.getHandler();
+    }
+
+    /** @return The filters and handler lines from the server go through. */
+    InputPipeline getInputPipeline()
+    {
+        return _pipeline;
+    }
+
+    /**
+     * Sets how often the server is PINGed, to measure the lag and to find
+     * out if the connection has died without us being told. If a PING isn't
+     * answered in time the connection is treated as lost, and we reconnect
+     * like we would if the server had dropped us. How long we wait is some
+     * multiple of the usual lag (the 95th percentile of the recent PINGs),
+     * but never less than 30 seconds.
+     *
+     * @param intervalMillis How often to PING, in milliseconds. 0 turns it
+     *            off. The default is {@link BotConstants#DEFAULT_PING_INTERVAL}.
+     * @param staleLagMultiple How many times the usual lag to wait for the
+     *            answer. The default is {@link BotConstants#DEFAULT_STALE_LAG_MULTIPLE}.
+     */
+    public void setKeepalive(long intervalMillis, int staleLagMultiple)
+    {
+        if (intervalMillis < 0 || staleLagMultiple < 1)
+        {
+            throw new IllegalArgumentException("The interval can't be negative and the multiple must be at least 1.");
+        }
+        _pingInterval = intervalMillis;
+        _staleLagMultiple = staleLagMultiple;
+        LagMonitor lag = _lag;
+        if (lag != null)
+        {
+            lag.setKeepalive(intervalMillis, staleLagMultiple);
+        }
+    }
+
+    /**
+     * Gets the lag to the server: how long it took to answer our last PING,
+     * or how long the one it hasn't answered yet has taken so far.
+     * @return The lag in milliseconds, -1 if we haven't PINGed it yet.
+     */
+    public long getLag()
+    {
+        LagMonitor lag = _lag;
+        return lag != null ? lag.getLag() : -1;
+    }
+
+    /**
+     * Gets how long the server has been taking to answer our PINGs lately.
+     * @param percentile The percentile, more than 0 and up to 100. 50 is the
+     *            median, 99 is about the worst it gets.
+     * @return The lag that that percent of the recent PINGs were answered
+     *         within, in milliseconds. -1 if none have been answered yet.
+     */
+    public long getLagPercentile(double percentile)
+    {
+        LagMonitor lag = _lag;
+        return lag != null ? lag.getLagPercentile(percentile) : -1;
+    }
+
+    /**
+     * Sends a line ahead of anything waiting to be sent and without counting
+     * towards the send rate. It's only handed to the writer, this never
+     * blocks. Only for the few lines the server is waiting on, like PONGs,
+     * anything else should go through {@link #sendRaw(String)}.
+     * @param line The line to send to the server.
+     */
+    protected void sendUrgent(String line)
+    {
+        SendQueue q = _sendQueue;
+        if (q == null || !isConnected())
+        {
+            throw new NotConnectedException("You can't send something if you're not connected! Try a call to" +
+                                            " IRCSocketManager.connect first!");
+        }
+        if (isVerbose())
+        {
+            System.out.println("US: " + line);
+        }
+        q.addUrgent(line);
     }
 
     /**
@@ -80,55 +277,184 @@ public class IRCSocketManager implements InternalConstants, BotConstants, Runnab
      */
     public String recvRaw() throws IOException
     {
-        IOException e = null;
-		
-        while (isConnected())
+        IRCTransport transport = _transport;
+        if (transport == null || !transport.isConnected())
         {
-            try
-            {
-                String ret = _reader.readLine();
-                if (ret == null)
-                {
-                    break;
-                }
-                return ret;
-            } catch (IOException e_)
-            {
-                if (isConnected())
-                {
-                    continue;
-                }
-                else
-                {
-                    e = e_;
-                    break;
-                }
-            }
+            throw new IOException("We have been killed: Not connected.");
         }
-		
-        throw new IOException("We have been killed: " + (e != null ? e.getMessage() : "Quit or kill from server. See logs."), e);
+        String ret = transport.readLine();
+        if (ret == null)
+        {
+            throw new IOException("We have been killed: Quit or kill from server. See logs.");
+        }
+        return ret;
     }
 
     public boolean isConnected()
     {
-        if (_rawSocket == null)
+        IRCTransport transport = _transport;
+        if (transport == null)
         {
             return false;
         }
         else
         {
-            return _rawSocket.isConnected();
+            return transport.isConnected();
         }
     }
 	
+    /** Closes the connection to the server, without reconnecting. */
     public void close()
     {
-        try
+        _quitting = true;
+        _reconnector.cancel();
+        closeConnection();
+    }
+
+    /**
+     * Connects to the server we were last connected to again, with the same
+     * settings. Anything left of the old connection is closed first.
+     *
+     * @throws IOException If connecting failed.
+     * @throws IllegalStateException If we've never been connected.
+     */
+    public void reconnect() throws IOException
+    {
+        if (_servers == null)
+        {
+            throw new IllegalStateException("You can't reconnect before you've connected!");
+        }
+        _quitting = false;
+        reopen();
+    }
+
+    /**
+     * Connects again, for the {@link Reconnector}. Unlike {@link #reconnect()}
+     * this never undoes a disconnect, if we're told to while connecting the
+     * new connection is closed again.
+     *
+     * @throws IOException If connecting failed.
+     */
+    void reopen() throws IOException
+    {
+        closeConnection();
+        connectionReset();
+        open();
+        if (_quitting)
+        {
+            closeConnection();
+        }
+    }
+
+    /**
+     * Starts trying to connect again in the background, waiting longer after
+     * each failed attempt, just like when the connection is lost. This is for
+     * when {@link #connect} failed but the server might be back later, the
+     * settings it was given are used.
+     *
+     * @throws IllegalStateException If we've never tried to connect.
+     */
+    public void reconnectLater()
+    {
+        if (_servers == null)
+        {
+            throw new IllegalStateException("You can't reconnect before you've tried to connect!");
+        }
+        _quitting = false;
+        _reconnector.start(false);
+    }
+
+    /**
+     * Controls if we connect again when the connection to the server is lost,
+     * instead of just staying disconnected. It's on by default. Disconnecting
+     * with {@link #disconnect(String)} or {@link #close()} never reconnects.
+     * @param on If it should be turned on or off.
+     */
+    public void setAutoReconnect(boolean on)
+    {
+        _autoReconnect = on;
+        if (!on)
+        {
+            _reconnector.cancel();
+        }
+    }
+
+    public boolean isAutoReconnect()
+    {
+        return _autoReconnect;
+    }
+
+    /**
+     * Sets how long to wait before reconnecting. Every failed attempt doubles
+     * the wait, up to the longest, and each wait is cut by up to half at random.
+     * @param minMillis How long to wait the first time, in milliseconds. The
+     *            default is {@link BotConstants#DEFAULT_RECONNECT_DELAY}.
+     * @param maxMillis The longest to wait, in milliseconds. The default is
+     *            {@link BotConstants#DEFAULT_MAX_RECONNECT_DELAY}.
+     */
+    public void setReconnectDelay(long minMillis, long maxMillis)
+    {
+        _reconnector.setDelays(minMillis, maxMillis);
+    }
+
+    /**
+     * Called before connecting again after the connection was lost, so
+     * anything that only made sense on the old connection can be forgotten.
+     * Nothing can be sent from here, we aren't connected.
+     */
+    protected void connectionReset()
+    {
+    }
+
+    /**
+     * Called by a receiver when the connection to the server is lost.
+     * @param receiver The receiver of the connection that was lost.
+     * @param e What happened.
+     */
+    void connectionLost(IRCReceiver receiver, IOException e)
+    {
+        if (receiver != _receiver)
         {
-            _rawSocket.close();
-        } catch (Exception e)
+            // An old connection we already replaced.
+            return;
+        }
+        closeConnection();
+        if (_quitting)
+        {
+            System.err.println("Disconnected from server.");
+            return;
+        }
+        System.err.println("Disconnected unexpectedly: " + e.getMessage());
+        if (_autoReconnect)
         {
-            // We don't care.
+            _reconnector.start(System.nanoTime() - _connectedAt < STABLE_CONNECTION);
+        }
+    }
+
+    /** @return If we've been told to disconnect. */
+    boolean isQuitting()
+    {
+        return _quitting;
+    }
+
+    private void closeConnection()
+    {
+        LagMonitor lag = _lag;
+        if (lag != null)
+        {
+            lag.stop();
+        }
+        SendQueue q = _sendQueue;
+        if (q != null)
+        {
+            q.close();
+            // Nothing can be sent until we're connected again.
+            _sendQueue = null;
+        }
+        IRCTransport t = _transport;
+        if (t != null)
+        {
+            t.close();
         }
     }
 	
@@ -179,6 +505,36 @@ public class IRCSocketManager implements InternalConstants, BotConstants, Runnab
     {
         return _options.isDebugging();
     }
+
+    /** Controls if the next call to connect uses the non-blocking transport. With it, the
+     * connection is looked after by a shared {@link IRCSelector} instead of a receiver Thread
+     * of it's own, which is what you want if you are running a lot of bots in one JVM. The
+     * non-blocking transport supports plain connections and TLS connections made with a
+     * {@link SnipesSSLSocketFactory}, but not other SocketFactories.
+     * @param on If it should be turned on or off.
+     */
+    public void setNonBlocking(boolean on)
+    {
+        _options.setNonBlocking(on);
+    }
+
+    public boolean isNonBlocking()
+    {
+        return _options.isNonBlocking();
+    }
+
+    /** Sets the {@link IRCSelector} used by the non-blocking transport.
+     * @param selector The selector to use. If null, {@link IRCSelector#getDefault()} is used.
+     */
+    public void setSelector(IRCSelector selector)
+    {
+        _selector = selector;
+    }
+
+    public IRCSelector getSelector()
+    {
+        return (_selector != null ? _selector : IRCSelector.getDefault());
+    }
 	
     /**
      * Connects to the IRC server.
@@ -201,7 +557,6 @@ public class IRCSocketManager implements InternalConstants, BotConstants, Runnab
     public IRCSocketManager connect(InputHandler ih, String server, int port, String passwd, SocketFactory factory)
 	throws IOException, UnknownHostException
     {
-        Thread.currentThread().setName("Snipes-IRC-Framework-Main");
         // If port <= 0 || port > 65535, throw IllegalArgumentException
         // because port numbers can only be 1-65535 (The maximum value for a
         // 16-bit integer)
@@ -218,6 +573,62 @@ public class IRCSocketManager implements InternalConstants, BotConstants, Runnab
             throw new IllegalArgumentException("Server may not be null");
         }
 
+        return connect(ih, new InetSocketAddress[] {InetSocketAddress.createUnresolved(server, port)}, passwd, factory);
+    }
+
+    /**
+     * Connects to the first of a list of IRC servers that answers, usually
+     * servers of the same network. They're all looked up at once, and each
+     * one (and each of it's addresses) only gets a moment to answer before we
+     * start trying the next one too, so a dead server doesn't hold us up. If
+     * the connection is lost, we reconnect the same way.
+     * 
+     * @param servers
+     *            The servers to connect to, most wanted first. Each is a
+     *            host, optionally followed by a ':' and a port, like
+     *            "irc.example.net:6697" or "[2001:db8::1]:6667".
+     * @param port
+     *            The port to connect on for servers that don't give one. If it
+     *            is not between 1 and 65535, throws
+     *            {@link IllegalArgumentException}.
+     * @param passwd
+     *            The server password, or null if there isn't one.
+     * @param factory
+     *            The SocketFactory to use. If null, a SnipesSocketFactory is
+     *            used. With factories other than SnipesSocketFactory and
+     *            {@link SnipesSSLSocketFactory}, the servers are tried one at
+     *            a time instead.
+     * @throws IOException
+     *             If we couldn't connect to any of the servers.
+     * @throws UnknownHostException
+     *             If none of the servers exist.
+     */
+    public IRCSocketManager connect(InputHandler ih, String[] servers, int port, String passwd, SocketFactory factory)
+	throws IOException, UnknownHostException
+    {
+        if (port <= 0 || port > 65535)
+        {
+            throw new IllegalArgumentException(
+                "Port must be between 1 and 65535.");
+        }
+        if (servers == null || servers.length == 0)
+        {
+            throw new IllegalArgumentException("There must be at least one server.");
+        }
+
+        InetSocketAddress[] addresses = new InetSocketAddress[servers.length];
+        for (int i = 0; i < servers.length; i++)
+        {
+            addresses[i] = parseServer(servers[i], port);
+        }
+        return connect(ih, addresses, passwd, factory);
+    }
+
+    private IRCSocketManager connect(InputHandler ih, InetSocketAddress[] servers, String passwd, SocketFactory factory)
+	throws IOException
+    {
+        Thread.currentThread().setName("Snipes-IRC-Framework-Main");
+
         // This used to be a series of ifs, but we can just turn it into a
         // conditional statement
         // Check if the factory is null, if it is, use SnipesSocketFactory's
@@ -225,21 +636,117 @@ public class IRCSocketManager implements InternalConstants, BotConstants, Runnab
         _factory = (factory != null ? factory : SnipesSocketFactory
                     .getDefault());
 
+        // Kept so we can connect again the same way if we lose the connection.
+        setInputHandler(ih);
+        _servers = servers;
+        _passwd = passwd;
+        _reconnector.cancel();
+        _quitting = false;
+
+        open();
+        // We're connected!
+        return this;
+    }
+
+    /**
+     * Reads a server from a list given to connect.
+     * @param server The server, "host" or "host:port". IPv6 addresses need
+     *            to be in brackets if there's a port.
+     * @param port The port if it doesn't have one.
+     * @return The server, unresolved.
+     */
+    private static InetSocketAddress parseServer(String server, int port)
+    {
+        if (server == null)
+        {
+            throw new IllegalArgumentException("Server may not be null");
+        }
+        server = server.trim();
+        String host = server;
+        String portString = null;
+        if (server.startsWith("["))
+        {
+            int end = server.indexOf(']');
+            if (end == -1 || (end + 1 < server.length() && server.charAt(end + 1) != ':'))
+            {
+                throw new IllegalArgumentException("Bad IPv6 address in server " + server);
+            }
+            host = server.substring(1, end);
+            if (end + 1 < server.length())
+            {
+                portString = server.substring(end + 2);
+            }
+        }
+        else
+        {
+            int colon = server.indexOf(':');
+            // More than one ':' is a IPv6 address without a port.
+            if (colon != -1 && colon == server.lastIndexOf(':'))
+            {
+                host = server.substring(0, colon);
+                portString = server.substring(colon + 1);
+            }
+        }
+
+        if (portString != null)
+        {
+            try
+            {
+                port = Integer.parseInt(portString);
+            } catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException("Bad port in server " + server);
+            }
+            if (port <= 0 || port > 65535)
+            {
+                throw new IllegalArgumentException(
+                    "Port must be between 1 and 65535.");
+            }
+        }
+        if (host.length() == 0)
+        {
+            throw new IllegalArgumentException("Missing host in server " + server);
+        }
+        return InetSocketAddress.createUnresolved(host, port);
+    }
+
+    /** Opens a connection with the settings connect was given. */
+    private void open() throws IOException
+    {
+        // Nothing is known about the new server yet.
+        CapNegotiator caps = new CapNegotiator(this, _wantedCaps);
+        _support = new ServerSupport(caps);
+
         // Quick, init the IRCReceiver before the server kills us for not
         // registering our USER, NICK and PING commands :P!
-        _receiver = new IRCReceiver(this, ih);
-		
-        _rawSocket = _factory.createSocket(server, port);
-        _reader = new BufferedReader(new InputStreamReader(_rawSocket.getInputStream()));
-        _writer = new PrintStream(_rawSocket.getOutputStream());
-		
-        // Create/Start the recv Thread
-        new Thread(_receiver, "Snipes-IRC-Framework-Receiver").start();
+        IRCReceiver receiver = new IRCReceiver(this);
+
+        // The transport passes lines to the receiver once it's started.
+        IRCTransport transport;
+        if (isNonBlocking())
+        {
+            transport = new ChannelTransport(getSelector(), receiver);
+        }
+        else
+        {
+            transport = new SocketTransport(receiver);
+        }
+        receiver.setTransport(transport);
+        _receiver = receiver;
+        transport.open(_servers, _factory);
+        // Everything the receiver (and it's handlers) might send with has to
+        // be there before the first line comes in.
+        _sendQueue = new SendQueue(transport, isNonBlocking() ? getSelector() : null, _sendBurst, _sendInterval);
+        _transport = transport;
+        _connectedAt = System.nanoTime();
+        LagMonitor lag = new LagMonitor(this, receiver, _pingInterval, _staleLagMultiple);
+        receiver.setLagMonitor(lag);
+        _lag = lag;
+        transport.start();
+        lag.start();
 
         // We can start!
-        sendInit(passwd);
-        // We're connected!
-        return this;
+        sendInit(_passwd, caps);
     }
 
 	
@@ -250,8 +757,16 @@ public class IRCSocketManager implements InternalConstants, BotConstants, Runnab
     }
 	
     /** Sends a few lines we need to the server before we start */
-    private void sendInit(String passwd)
+    private void sendInit(String passwd, CapNegotiator caps)
     {
+        // Ask what the server can do first. Servers that know about
+        // capabilities hold off registering us until we're done.
+        if (!_wantedCaps.isEmpty())
+        {
+            caps.start();
+        }
+
+
         // PASS needs to be sent before the USER/NICK combination.
         if (passwd != null)
         {
@@ -308,13 +823,25 @@ public class IRCSocketManager implements InternalConstants, BotConstants, Runnab
         return connect(ih, server, IRC_DEFAULT_PORT, null);
     }
 
-    /** Sends a IRC PRIVMSG to the server.
+    /** Sends a IRC PRIVMSG to the server. Messages too long for one line, or with
+     * line breaks in them, are sent as a few lines.
      * @param target The channel/nick to send to.
      * @param msg The message to send.
      */
     public void sendPrivMsg(String target, String msg)
     {
-        sendRaw("PRIVMSG " + target + " :" + msg);
+        sendMessage("PRIVMSG", new String[] {target}, msg);
+    }
+
+    /** Sends the same IRC PRIVMSG to a few channels/nicks. They're put in as few lines
+     * as the server allows (see {@link ServerSupport#getMaxTargets(String)}), so it costs
+     * less of the flood allowance than sending to each one.
+     * @param targets The channels/nicks to send to.
+     * @param msg The message to send.
+     */
+    public void sendPrivMsg(String[] targets, String msg)
+    {
+        sendMessage("PRIVMSG", targets, msg);
     }
 
     /** Sets the topic of the specified channel. If the channel is mode +t (topic protection)
@@ -336,6 +863,21 @@ public class IRCSocketManager implements InternalConstants, BotConstants, Runnab
         sendRaw("PONG :" + server);
     }
 
+    /**
+     * Answers a PING from the server, ahead of anything waiting to be sent.
+     * Called by the receiver for every PING, on it's own Thread (or the
+     * selector's), so it isn't printed even when we're verbose.
+     * @param token What the server PINGed us with.
+     */
+    void answerPing(String token)
+    {
+        SendQueue q = _sendQueue;
+        if (q != null)
+        {
+            q.addUrgent("PONG :" + token);
+        }
+    }
+
     /** Sends a IRC WHO command, sending IRC_RESPONSE_CODE events for the different parts of
      * the WHO response.
      * @param name The name of the user, or the mask to use.
@@ -385,11 +927,141 @@ public class IRCSocketManager implements InternalConstants, BotConstants, Runnab
      */
     public void sendNotice(String to, String msg)
     {
-        sendRaw("NOTICE " + to + " :" + msg);
+        sendMessage("NOTICE", new String[] {to}, msg);
+    }
+
+    /** Sends the same IRC NOTICE to a few users or channels, in as few lines as the server allows.
+     * @param to The users or channels to send the NOTICE to.
+     * @param msg The message to send as the body of the command.
+     * @see #sendPrivMsg(String[], String)
+     */
+    public void sendNotice(String[] to, String msg)
+    {
+        sendMessage("NOTICE", to, msg);
+    }
+
+    /**
+     * Sends a PRIVMSG or NOTICE, splitting it up so every line fits once the
+     * server has put our hostmask in front of it.
+     */
+    private void sendMessage(String command, String[] targets, String msg)
+    {
+        ServerSupport support = _support;
+        int maxTargets = support.getMaxTargets(command);
+        int prefixLen = support.getPrefixLength(getNick());
+
+        int i = 0;
+        while (i < targets.length)
+        {
+            StringBuilder start = new StringBuilder(command).append(' ').append(targets[i++]);
+            // Leave enough room for the message to be worth it.
+            for (int n = 1; n < maxTargets && i < targets.length
+                     && ServerSupport.utf8Length(start) + ServerSupport.utf8Length(targets[i]) < MAX_TARGETS_LENGTH; n++)
+            {
+                start.append(',').append(targets[i++]);
+            }
+            start.append(" :");
+
+            int room = IRC_MAX_LINE_LENGTH - 2 - prefixLen - ServerSupport.utf8Length(start);
+            for (String part : splitMessage(msg, room))
+            {
+                sendRaw(start + part);
+            }
+        }
+    }
+
+    /**
+     * Splits a message into parts that are no more than a amount of bytes in
+     * UTF-8. Line breaks always start a new part, and parts are broken at
+     * spaces where possible, never in the middle of a character.
+     * @param msg The message.
+     * @param maxBytes The most bytes a part can be.
+     * @return The parts. Empty lines are left out, unless there's nothing
+     *         else, then it's a single empty part.
+     */
+    public static List<String> splitMessage(String msg, int maxBytes)
+    {
+        List<String> parts = new ArrayList<String>();
+        maxBytes = Math.max(maxBytes, MIN_MESSAGE_LENGTH);
+
+        for (String line : msg.split("\r\n|\r|\n"))
+        {
+            int start = 0;
+            while (start < line.length())
+            {
+                int bytes = 0;
+                int end = start;
+                int lastSpace = -1;
+                while (end < line.length())
+                {
+                    int cp = line.codePointAt(end);
+                    int len = cp < 0x80 ? 1 : cp < 0x800 ? 2 : cp < 0x10000 ? 3 : 4;
+                    if (bytes + len > maxBytes)
+                    {
+                        break;
+                    }
+                    if (cp == ' ')
+                    {
+                        lastSpace = end;
+                    }
+                    bytes += len;
+                    end += Character.charCount(cp);
+                }
+
+                if (end < line.length() && lastSpace > start)
+                {
+                    // Break at the space, and don't start the next part with it.
+                    parts.add(line.substring(start, lastSpace));
+                    start = lastSpace + 1;
+                }
+                else
+                {
+                    parts.add(line.substring(start, end));
+                    start = end;
+                }
+            }
+        }
+
+        if (parts.isEmpty())
+        {
+            // Never the message itself, it might be nothing but line breaks.
+            parts.add("");
+        }
+        return parts;
+    }
+
+    /**
+     * Sets the IRCv3 capabilities to ask the server for when we connect, if it
+     * has them. The default is {@link BotConstants#DEFAULT_CAPS}. Changes take
+     * effect the next time we connect, or when the server gets new
+     * capabilities. With none, capabilities aren't negotiated at all.
+     * @param caps The names of the capabilities, like "multi-prefix".
+     */
+    public void setCapabilities(String... caps)
+    {
+        _wantedCaps.retainAll(Arrays.asList(caps));
+        _wantedCaps.addAll(Arrays.asList(caps));
+    }
+
+    /** @return The IRCv3 capabilities asked for when we connect. Which are turned on is in {@link #getServerSupport()}. */
+    public Set<String> getCapabilities()
+    {
+        return Collections.unmodifiableSet(_wantedCaps);
+    }
+
+    /** Gets what we know about the server we're connected to (or were last connected to).
+     * @return The server's options and our hostmask.
+     */
+    public ServerSupport getServerSupport()
+    {
+        return _support;
     }
 
     public void disconnect(String msg)
     {
+        // The server will close the connection, don't come back.
+        _quitting = true;
+        _reconnector.cancel();
         sendRaw("QUIT" + (msg != null ? " :" + msg : ""));
     }
 	
@@ -516,14 +1188,8 @@ public class IRCSocketManager implements InternalConstants, BotConstants, Runnab
     @Override
     public void run()
     {
-        if (_rawSocket != null)
-        {
-            try {
-                _rawSocket.close();
-            } catch (IOException e) {
-                // We're terminating. Silently ignore the error.
-            }
-        }
+        // We're terminating. The transport silently ignores any errors.
+        close();
     }
 
     // Class-scope variables
@@ -545,13 +1211,51 @@ public class IRCSocketManager implements InternalConstants, BotConstants, Runnab
      * The IRCReciever that will be in a separate thread, passing messages to
      * the handler
      */
-    private IRCReceiver _receiver;
+    private volatile IRCReceiver _receiver;
 	
     private static final Logger _logger = Logger.getLogger(IRCSocketManager.class.getCanonicalName());
 	
-    private Socket _rawSocket;
-	
-    private BufferedReader _reader;
-	
-    private PrintStream _writer;
+    /** Moves the lines to and from the server. */
+    private volatile IRCTransport _transport;
+
+    /** The selector used by the non-blocking transport, null for the default. */
+    private IRCSelector _selector;
+
+    /** What we know about the server, filled in by the receiver. */
+    private volatile ServerSupport _support = new ServerSupport();
+    /** The capabilities to ask for. */
+    private final Set<String> _wantedCaps = new CopyOnWriteArraySet<String>(Arrays.asList(DEFAULT_CAPS));
+
+    /** The longest list of targets put in one PRIVMSG or NOTICE, in bytes. */
+    private static final int MAX_TARGETS_LENGTH = 200;
+    /** The least room a part of a message gets, however little the server leaves. */
+    private static final int MIN_MESSAGE_LENGTH = 16;
+
+    /** Where we last connected to, and how, so we can do it again. */
+    private InetSocketAddress[] _servers;
+    private String _passwd;
+
+    /** Set when we disconnect on purpose, so we don't reconnect. */
+    private volatile boolean _quitting;
+    private volatile boolean _autoReconnect = true;
+    private final Reconnector _reconnector = new Reconnector(this);
+    /** When we last connected, from {@link System#nanoTime()}. */
+    private volatile long _connectedAt;
+    /** Connections lost sooner than this after connecting make the next reconnect wait longer, in nanoseconds. */
+    private static final long STABLE_CONNECTION = 60 * 1000000000L;
+
+    /** Paces the lines we send. */
+    private volatile SendQueue _sendQueue;
+    private int _sendBurst = DEFAULT_SEND_BURST;
+    private long _sendInterval = DEFAULT_SEND_INTERVAL;
+
+    /** The filters and the handler lines from the server go through. Replaced, never changed. */
+    private volatile InputPipeline _pipeline = InputPipeline.EMPTY;
+    /** Held while changing the pipeline, so two changes at once don't lose one. */
+    private final Object _pipelineLock = new Object();
+
+    /** PINGs the server and watches for the answers. */
+    private volatile LagMonitor _lag;
+    private long _pingInterval = DEFAULT_PING_INTERVAL;
+    private int _staleLagMultiple = DEFAULT_STALE_LAG_MULTIPLE;
 }
@@ -0,0 +1,71 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import javax.net.SocketFactory;
+
+/**
+ * The layer that actually moves lines between a {@link IRCSocketManager} and
+ * the IRC server. The socket manager only talks to this interface, so the way
+ * bytes get on and off the wire can be swapped out without touching
+ * sendRaw/recvRaw or the {@link InputHandler}s.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+public interface IRCTransport
+{
+    /**
+     * Opens the connection to the server. Nothing is read from it until
+     * {@link #start()}, but lines can be written.
+     *
+     * @param servers The servers to connect to, the first one that answers
+     *            is used. Their hosts aren't resolved yet.
+     * @param factory The SocketFactory the user asked for. Never null.
+     * @throws IOException If we could not connect to any of them.
+     */
+    void open(InetSocketAddress[] servers, SocketFactory factory) throws IOException;
+
+    /**
+     * Starts reading from the server, passing the lines to the
+     * {@link IRCReceiver}. Called once, after {@link #open}, when everything
+     * the receiver needs (like somewhere to send the answers) is ready.
+     */
+    void start();
+
+    /**
+     * Sends a line to the server. The line terminator is added by the
+     * transport. The line may be held back so it can be sent along with
+     * the next few, call {@link #flush()} to make sure it goes out.
+     *
+     * @param line The line to send, without a line terminator.
+     */
+    void write(String line);
+
+    /** Sends any lines that were held back by {@link #write(String)}. */
+    void flush();
+
+    /**
+     * Reads a line from the server, blocking until one arrives.
+     *
+     * @return The line, or null if the server closed the connection.
+     * @throws IOException If there was a error reading from the server.
+     */
+    String readLine() throws IOException;
+
+    boolean isConnected();
+
+    /** Closes the connection. Calling this more than once does nothing. */
+    void close();
+}
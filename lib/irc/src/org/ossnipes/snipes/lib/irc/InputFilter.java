@@ -0,0 +1,36 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc;
+
+/**
+ * A stage lines from the server go through before the {@link InputHandler}.
+ * Filters can look at lines (to count them, or log them), change them, or
+ * drop them. They're added to a connection with
+ * {@link IRCSocketManager#addInputFilter(InputFilter)}, and can be added and
+ * removed while it's running.
+ *
+ * Filters are called on the Thread that reads from the server (or the
+ * {@link IRCSelector}'s), one line at a time, so they should be quick.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+public interface InputFilter
+{
+    /**
+     * Filters a line from the server.
+     *
+     * @param line The line, with any IRCv3 tags still on it.
+     * @return The line to pass on (the same one, or a changed one), or null
+     *         to drop it.
+     */
+    String filter(String line);
+}
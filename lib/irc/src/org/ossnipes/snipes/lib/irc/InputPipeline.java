@@ -0,0 +1,130 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The {@link InputFilter}s a line from the server goes through, in order, and
+ * the {@link InputHandler} at the end. A pipeline never changes, adding or
+ * removing a stage makes a new one. So the Thread reading from the server can
+ * run a line through it without taking a lock, while somebody else is
+ * swapping it for another.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+public final class InputPipeline
+{
+    /** No filters, and no handler. */
+    public static final InputPipeline EMPTY = new InputPipeline(new InputFilter[0], null);
+
+    private InputPipeline(InputFilter[] filters, InputHandler handler)
+    {
+        _filters = filters;
+        _handler = handler;
+    }
+
+    /**
+     * Runs a line through the filters, and then to the handler if none of
+     * them dropped it.
+     * @param line The line.
+     */
+    public void handle(String line)
+    {
+        for (InputFilter f : _filters)
+        {
+            try
+            {
+                line = f.filter(line);
+            } catch (RuntimeException e)
+            {
+                // A broken filter shouldn't lose us the line.
+                System.err.println("Snipes IRC: Exception in input filter " + f + ":");
+                e.printStackTrace();
+            }
+            if (line == null)
+            {
+                return;
+            }
+        }
+        if (_handler != null)
+        {
+            _handler.handle(line);
+        }
+    }
+
+    /** @return A pipeline like this one, with another handler at the end. */
+    public InputPipeline withHandler(InputHandler handler)
+    {
+        return new InputPipeline(_filters, handler);
+    }
+
+    /**
+     * @param index Where to put the filter, 0 for the first.
+     * @param filter The filter.
+     * @return A pipeline like this one, with the filter added.
+     */
+    public InputPipeline withFilter(int index, InputFilter filter)
+    {
+        if (filter == null)
+        {
+            throw new IllegalArgumentException("Cannot add null input filter.");
+        }
+        if (index < 0 || index > _filters.length)
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Filters: " + _filters.length);
+        }
+        InputFilter[] filters = new InputFilter[_filters.length + 1];
+        System.arraycopy(_filters, 0, filters, 0, index);
+        filters[index] = filter;
+        System.arraycopy(_filters, index, filters, index + 1, _filters.length - index);
+        return new InputPipeline(filters, _handler);
+    }
+
+    /**
+     * @param filter The filter.
+     * @return A pipeline like this one, without the filter. This one, if it
+     *         doesn't have it.
+     */
+    public InputPipeline withoutFilter(InputFilter filter)
+    {
+        List<InputFilter> filters = new ArrayList<InputFilter>(Arrays.asList(_filters));
+        if (!filters.remove(filter))
+        {
+            return this;
+        }
+        return new InputPipeline(filters.toArray(new InputFilter[filters.size()]), _handler);
+    }
+
+    /** @return The amount of filters. */
+    public int getFilterCount()
+    {
+        return _filters.length;
+    }
+
+    /** @return The filters, in order. The list can't be changed. */
+    public List<InputFilter> getFilters()
+    {
+        return Collections.unmodifiableList(Arrays.asList(_filters));
+    }
+
+    public InputHandler getHandler()
+    {
+        return _handler;
+    }
+
+    private final InputFilter[] _filters;
+    private final InputHandler _handler;
+}
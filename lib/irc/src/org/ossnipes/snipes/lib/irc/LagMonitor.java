@@ -0,0 +1,312 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.ossnipes.snipes.lib.events.IRCMessage;
+
+/**
+ * Keeps a connection alive and measures it's lag. Every so often we PING the
+ * server with a token of our own and time how long it takes to PONG it back.
+ *
+ * If the answer doesn't come, the connection is treated as lost and the
+ * socket manager reconnects (if it's allowed to). A connection that's only
+ * half open, where the server went away without closing it, would otherwise
+ * go unnoticed until the server noticed us instead. How long we wait grows
+ * with the lag we've measured, so a slow server doesn't get dropped for being
+ * slow.
+ *
+ * The PINGs and the waiting are done by one Thread shared by every
+ * connection in the JVM. It never writes to a socket, the PINGs are handed to
+ * each connection's own writer, so a connection that's stuck writing can't
+ * hold up the others, or it's own ping timeout.
+ *
+ * One monitor belongs to one connection.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+public final class LagMonitor implements Runnable
+{
+    /**
+     * @param manager What to send the PINGs with.
+     * @param receiver The receiver of the connection, told when it's lost.
+     * @param intervalMillis How often to PING, in milliseconds. 0 never PINGs.
+     * @param staleMultiple How many times the usual lag to wait for a PONG.
+     */
+    public LagMonitor(IRCSocketManager manager, IRCReceiver receiver, long intervalMillis, int staleMultiple)
+    {
+        _manager = manager;
+        _receiver = receiver;
+        _interval = intervalMillis;
+        _staleMultiple = staleMultiple;
+    }
+
+    /** Starts PINGing. Called once we're connected. */
+    public synchronized void start()
+    {
+        _stopped = false;
+        schedule();
+    }
+
+    /** Stops PINGing, the connection is gone. */
+    public synchronized void stop()
+    {
+        _stopped = true;
+        _token = null;
+        if (_future != null)
+        {
+            _future.cancel(false);
+            _future = null;
+        }
+    }
+
+    /**
+     * Changes how often we PING, and how long we wait for the answers.
+     * @see IRCSocketManager#setKeepalive(long, int)
+     */
+    synchronized void setKeepalive(long intervalMillis, int staleMultiple)
+    {
+        _interval = intervalMillis;
+        _staleMultiple = staleMultiple;
+        if (!_stopped)
+        {
+            schedule();
+        }
+    }
+
+    /**
+     * Looks at a line from the server for the answer to our PING.
+     * @param line The line.
+     */
+    public void lineReceived(String line)
+    {
+        String token = IRCMessage.lastParam(line, "PONG");
+        if (token == null)
+        {
+            return;
+        }
+        synchronized (this)
+        {
+            if (token.equals(_token))
+            {
+                add(System.nanoTime() - _sentAt);
+                _token = null;
+            }
+        }
+    }
+
+    /**
+     * @return The lag, in milliseconds: how long our last PING took, or how
+     *         long the one we're waiting on has taken so far if that's longer.
+     *         -1 if we haven't PINGed yet.
+     */
+    public synchronized long getLag()
+    {
+        long lag = _count > 0 ? _samples[(_next + _samples.length - 1) % _samples.length] : -1;
+        if (_token != null)
+        {
+            lag = Math.max(lag, System.nanoTime() - _sentAt);
+        }
+        return lag < 0 ? -1 : lag / 1000000L;
+    }
+
+    /**
+     * @param percentile The percentile, more than 0 and up to 100.
+     * @return The lag that that percent of our recent PINGs took no longer
+     *         than, in milliseconds. -1 if none have been answered yet.
+     */
+    public synchronized long getLagPercentile(double percentile)
+    {
+        if (percentile <= 0 || percentile > 100)
+        {
+            throw new IllegalArgumentException("The percentile must be more than 0 and up to 100.");
+        }
+        long lag = percentile(percentile);
+        return lag < 0 ? -1 : lag / 1000000L;
+    }
+
+    /**
+     * @return How long we'd wait for the answer to a PING sent now before
+     *         giving up on the connection, in milliseconds.
+     */
+    public synchronized long getPingTimeout()
+    {
+        return staleNanos() / 1000000L;
+    }
+
+    /** Sends the next PING. Run by the shared Thread. */
+    @Override
+    public void run()
+    {
+        String token;
+        long stale;
+        synchronized (this)
+        {
+            if (_stopped || _token != null)
+            {
+                // Still waiting on the last one, it's being watched.
+                return;
+            }
+            token = Long.toString(++_sequence, 36) + "-snipes";
+            _token = token;
+            _sentAt = System.nanoTime();
+            stale = staleNanos();
+        }
+
+        try
+        {
+            // Only queued, the connection's writer sends it.
+            _manager.sendUrgent("PING :" + token);
+        } catch (NotConnectedException e)
+        {
+            // We'll be stopped any moment now.
+            return;
+        }
+        scheduler().schedule(new Stale(token), stale, TimeUnit.NANOSECONDS);
+    }
+
+    private void schedule()
+    {
+        if (_future != null)
+        {
+            _future.cancel(false);
+            _future = null;
+        }
+        if (_interval > 0)
+        {
+            _future = scheduler().scheduleWithFixedDelay(this, _interval, _interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** @return How long to wait for a PONG, in nanoseconds. */
+    private long staleNanos()
+    {
+        long usual = Math.max(0, percentile(USUAL_PERCENTILE));
+        return Math.max(MIN_STALE_TIME * 1000000L, usual * _staleMultiple);
+    }
+
+    /** @return The percentile of the recent samples, in nanoseconds, or -1 if there aren't any. */
+    private long percentile(double percentile)
+    {
+        if (_count == 0)
+        {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(_samples, _count);
+        Arrays.sort(sorted);
+        // Nearest rank.
+        int rank = (int)Math.ceil(percentile / 100 * _count);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    private void add(long sample)
+    {
+        _samples[_next] = sample;
+        _next = (_next + 1) % _samples.length;
+        _count = Math.min(_count + 1, _samples.length);
+    }
+
+    /** Checks if a PING was answered in time. */
+    private class Stale implements Runnable
+    {
+        Stale(String token)
+        {
+            _stale = token;
+        }
+
+        @Override
+        public void run()
+        {
+            long waited;
+            synchronized (LagMonitor.this)
+            {
+                if (_stopped || !_stale.equals(_token))
+                {
+                    // Answered, or it doesn't matter any more.
+                    return;
+                }
+                waited = (System.nanoTime() - _sentAt) / 1000000L;
+            }
+            stop();
+            final IOException e = new IOException("Ping timeout: The server didn't answer for " + (waited / 1000) + " seconds.");
+            // Closing a TLS socket can wait on a writer that's stuck, which
+            // mustn't hold up the other connections. It's rare enough for a
+            // Thread of it's own.
+            Thread t = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    _receiver.connectionLost(e);
+                }
+            }, "Snipes-IRC-Framework-Timeout");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        private final String _stale;
+    }
+
+    private static ScheduledExecutorService scheduler()
+    {
+        return SchedulerHolder.SCHEDULER;
+    }
+
+    // Lazily created, so it doesn't exist if keepalives are turned off.
+    private static class SchedulerHolder
+    {
+        static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "Snipes-IRC-Framework-Keepalive");
+                // The connections keep the JVM up, not us.
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /** The shortest we ever wait for a PONG, in milliseconds. */
+    private static final long MIN_STALE_TIME = 30 * 1000;
+    /** The percentile of the recent lag taken as the usual lag. */
+    private static final double USUAL_PERCENTILE = 95;
+    /** How many of the most recent PINGs the percentiles are worked out from. */
+    private static final int SAMPLES = 64;
+
+    private final IRCSocketManager _manager;
+    private final IRCReceiver _receiver;
+    private long _interval;
+    private int _staleMultiple;
+    private ScheduledFuture<?> _future;
+    private boolean _stopped = true;
+
+    /** The token of the PING we're waiting on, or null if we aren't. */
+    private String _token;
+    /** When it was sent, from {@link System#nanoTime()}. */
+    private long _sentAt;
+    private long _sequence;
+
+    /** How long the recent PINGs took, in nanoseconds. */
+    private final long[] _samples = new long[SAMPLES];
+    /** Where the next sample goes. */
+    private int _next;
+    private int _count;
+}
@@ -0,0 +1,153 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Connects a {@link IRCSocketManager} again after it's connection was lost.
+ * Every attempt that fails doubles the time until the next one (up to a
+ * limit), and the times are jittered so a lot of bots that were dropped
+ * together don't all come back at the same moment and get throttled.
+ *
+ * The attempts are made from a Thread of the reconnector's own, as connecting
+ * blocks. That Thread isn't a daemon, so the JVM stays up while we're away.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+final class Reconnector implements Runnable, BotConstants
+{
+    Reconnector(IRCSocketManager manager)
+    {
+        _manager = manager;
+    }
+
+    /**
+     * Sets how long to wait before reconnecting.
+     * @param minMillis How long to wait the first time.
+     * @param maxMillis The longest to ever wait.
+     */
+    synchronized void setDelays(long minMillis, long maxMillis)
+    {
+        if (minMillis < 0 || maxMillis < minMillis)
+        {
+            throw new IllegalArgumentException("The delays can't be negative, and the longest can't be shorter than the first.");
+        }
+        _min = minMillis;
+        _max = maxMillis;
+        _delay = Math.min(Math.max(_delay, _min), _max);
+    }
+
+    /**
+     * Starts trying to reconnect, unless we already are.
+     * @param quickly If the connection was lost soon after it was made. If it
+     *            was, we carry on backing off from where we were, so a server
+     *            that keeps dropping us doesn't get hammered.
+     */
+    synchronized void start(boolean quickly)
+    {
+        if (_thread != null)
+        {
+            return;
+        }
+        _delay = quickly ? Math.min(Math.max(_delay * 2, _min), _max) : _min;
+        _thread = new Thread(this, "Snipes-IRC-Framework-Reconnect");
+        _thread.start();
+    }
+
+    /** Stops trying to reconnect. */
+    synchronized void cancel()
+    {
+        if (_thread != null)
+        {
+            _thread.interrupt();
+            _thread = null;
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        Thread self = Thread.currentThread();
+        while (true)
+        {
+            long wait;
+            synchronized (this)
+            {
+                if (_thread != self)
+                {
+                    return;
+                }
+                wait = jitter(_delay);
+            }
+
+            System.err.println("Snipes IRC: Reconnecting in " + (wait / 1000) + " seconds.");
+            try
+            {
+                Thread.sleep(wait);
+            } catch (InterruptedException e)
+            {
+                return;
+            }
+
+            synchronized (this)
+            {
+                if (_thread != self)
+                {
+                    return;
+                }
+                // From here, losing the connection again has to start us again.
+                _thread = null;
+                if (_manager.isQuitting())
+                {
+                    // Told to disconnect, but cancel() hasn't got to us yet.
+                    return;
+                }
+            }
+            try
+            {
+                _manager.reopen();
+                return;
+            } catch (IOException e)
+            {
+                System.err.println("Snipes IRC: Reconnecting failed: " + e.getMessage());
+            }
+
+            synchronized (this)
+            {
+                if (_thread != null || _manager.isQuitting())
+                {
+                    // Somebody else is looking after it now.
+                    return;
+                }
+                _thread = self;
+                _delay = Math.min(_delay * 2, _max);
+            }
+        }
+    }
+
+    /** @return Somewhere between half of and the whole delay. */
+    private static long jitter(long delay)
+    {
+        return delay / 2 + (long)(RANDOM.nextDouble() * (delay - delay / 2));
+    }
+
+    private static final Random RANDOM = new Random();
+
+    private final IRCSocketManager _manager;
+    private long _min = DEFAULT_RECONNECT_DELAY;
+    private long _max = DEFAULT_MAX_RECONNECT_DELAY;
+    private long _delay = _min;
+    /** The Thread trying to reconnect, or null if we aren't. */
+    private Thread _thread;
+}
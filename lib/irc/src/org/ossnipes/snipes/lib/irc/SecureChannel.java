@@ -0,0 +1,302 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+
+/**
+ * TLS on top of a non-blocking {@link SocketChannel}, for the
+ * {@link ChannelTransport}. Reads and writes look like the channel's own, but
+ * go through a {@link SSLEngine}, which does the handshake as the bytes for
+ * it come and go. Nothing here ever blocks: when the socket can't take any
+ * more, the bytes wait in here until the transport says it's writable again.
+ *
+ * Only used from the selector's Thread, so it's not thread safe.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+final class SecureChannel
+{
+    SecureChannel(SocketChannel channel, SSLEngine engine)
+    {
+        _channel = channel;
+        _engine = engine;
+        int packet = engine.getSession().getPacketBufferSize();
+        _netIn = ByteBuffer.allocate(packet);
+        _netOut = ByteBuffer.allocate(packet);
+        _netOut.flip();
+        _appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        _appIn.flip();
+    }
+
+    /** Starts the handshake. The first bytes of it are sent by the next {@link #flush()}. */
+    void begin() throws IOException
+    {
+        _engine.beginHandshake();
+    }
+
+    /** @return True until the handshake is done, application data has to wait for it. */
+    boolean isHandshaking()
+    {
+        HandshakeStatus hs = _engine.getHandshakeStatus();
+        return hs != HandshakeStatus.NOT_HANDSHAKING && hs != HandshakeStatus.FINISHED;
+    }
+
+    /**
+     * Reads from the socket and decrypts what came in.
+     * 
+     * @param dst Where to put what was decrypted.
+     * @return The bytes put in dst, or -1 if the connection has ended.
+     */
+    int read(ByteBuffer dst) throws IOException
+    {
+        int n = _channel.read(_netIn);
+        pump();
+        int copied = drain(dst);
+        if (copied == 0 && (n == -1 || _engine.isInboundDone()))
+        {
+            return -1;
+        }
+        return copied;
+    }
+
+    /** @return True if there's decrypted data that didn't fit in the last read's buffer. */
+    boolean hasBufferedInput()
+    {
+        return _appIn.hasRemaining();
+    }
+
+    /**
+     * Encrypts and sends as much of some buffers as the socket will take.
+     * Nothing is taken until the handshake is done.
+     * 
+     * @return The bytes taken from the buffers.
+     */
+    long write(ByteBuffer[] srcs, int offset, int length) throws IOException
+    {
+        if (!flush() || isHandshaking())
+        {
+            return 0;
+        }
+        long taken = 0;
+        while (true)
+        {
+            _netOut.compact();
+            SSLEngineResult result;
+            try
+            {
+                result = _engine.wrap(srcs, offset, length, _netOut);
+            } finally
+            {
+                _netOut.flip();
+            }
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+            {
+                throw new IOException("The TLS connection has been closed.");
+            }
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW)
+            {
+                if (!sendNet())
+                {
+                    return taken;
+                }
+                grow();
+                continue;
+            }
+            taken += result.bytesConsumed();
+            if (!sendNet() || result.bytesConsumed() == 0)
+            {
+                return taken;
+            }
+        }
+    }
+
+    /**
+     * Moves the handshake along and sends anything waiting to go out.
+     * 
+     * @return True if everything went, false if the socket is full.
+     */
+    boolean flush() throws IOException
+    {
+        pump();
+        return sendNet();
+    }
+
+    /** @return True if there are encrypted bytes the socket wouldn't take yet. */
+    boolean hasPendingOutput()
+    {
+        return _netOut.hasRemaining();
+    }
+
+    /**
+     * Does whatever the engine needs: runs it's tasks, wraps handshake
+     * messages and unwraps what we've received, until it's waiting on the
+     * socket.
+     */
+    private void pump() throws IOException
+    {
+        while (true)
+        {
+            HandshakeStatus hs = _engine.getHandshakeStatus();
+            if (hs == HandshakeStatus.NEED_TASK)
+            {
+                // Checking certificates and the like. They're quick enough to
+                // do right here, and it keeps the handshake simple.
+                Runnable task;
+                while ((task = _engine.getDelegatedTask()) != null)
+                {
+                    task.run();
+                }
+            }
+            else if (hs == HandshakeStatus.NEED_WRAP)
+            {
+                if (!wrapHandshake())
+                {
+                    return;
+                }
+            }
+            else if (!unwrap())
+            {
+                return;
+            }
+        }
+    }
+
+    /** @return True if a handshake message was wrapped, false if there's no room until the socket takes some. */
+    private boolean wrapHandshake() throws IOException
+    {
+        _netOut.compact();
+        SSLEngineResult result;
+        try
+        {
+            result = _engine.wrap(EMPTY, _netOut);
+        } finally
+        {
+            _netOut.flip();
+        }
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW)
+        {
+            // Make room and try again, unless the socket's full.
+            if (!sendNet())
+            {
+                return false;
+            }
+            grow();
+            return true;
+        }
+        return result.getStatus() != SSLEngineResult.Status.CLOSED;
+    }
+
+    /** @return True if unwrapping got anywhere, false if it has to wait for more bytes (or room). */
+    private boolean unwrap() throws IOException
+    {
+        _netIn.flip();
+        _appIn.compact();
+        SSLEngineResult result;
+        try
+        {
+            result = _engine.unwrap(_netIn, _appIn);
+        } finally
+        {
+            _netIn.compact();
+            _appIn.flip();
+        }
+
+        switch (result.getStatus())
+        {
+        case BUFFER_UNDERFLOW:
+            // Not a whole record yet. Make sure a whole one will fit.
+            int packet = _engine.getSession().getPacketBufferSize();
+            if (_netIn.capacity() < packet)
+            {
+                ByteBuffer bigger = ByteBuffer.allocate(packet);
+                _netIn.flip();
+                bigger.put(_netIn);
+                _netIn = bigger;
+            }
+            return false;
+        case BUFFER_OVERFLOW:
+            // What we decrypted last hasn't been read yet, or the records
+            // are bigger than we thought.
+            if (_appIn.hasRemaining())
+            {
+                return false;
+            }
+            _appIn = ByteBuffer.allocate(_engine.getSession().getApplicationBufferSize());
+            _appIn.flip();
+            return true;
+        case CLOSED:
+            return false;
+        default:
+            HandshakeStatus hs = result.getHandshakeStatus();
+            return result.bytesConsumed() > 0 || result.bytesProduced() > 0
+                || hs == HandshakeStatus.NEED_TASK || hs == HandshakeStatus.NEED_WRAP;
+        }
+    }
+
+    /** Makes _netOut big enough for the biggest record, if it isn't. */
+    private void grow()
+    {
+        int packet = _engine.getSession().getPacketBufferSize();
+        if (_netOut.capacity() < packet)
+        {
+            ByteBuffer bigger = ByteBuffer.allocate(packet);
+            bigger.put(_netOut);
+            bigger.flip();
+            _netOut = bigger;
+        }
+    }
+
+    /** @return True if everything waiting to go out went. */
+    private boolean sendNet() throws IOException
+    {
+        while (_netOut.hasRemaining())
+        {
+            if (_channel.write(_netOut) == 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int drain(ByteBuffer dst)
+    {
+        int n = Math.min(_appIn.remaining(), dst.remaining());
+        if (n == 0)
+        {
+            return 0;
+        }
+        int limit = _appIn.limit();
+        _appIn.limit(_appIn.position() + n);
+        dst.put(_appIn);
+        _appIn.limit(limit);
+        return n;
+    }
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel _channel;
+    private final SSLEngine _engine;
+    /** Bytes from the socket that haven't been unwrapped yet, ready to be written to. */
+    private ByteBuffer _netIn;
+    /** Wrapped bytes waiting for the socket, ready to be read from. */
+    private ByteBuffer _netOut;
+    /** Unwrapped bytes nobody has read yet, ready to be read from. */
+    private ByteBuffer _appIn;
+}
@@ -0,0 +1,420 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Paces the lines sent to the server so it doesn't kill us for flooding.
+ * Servers let a client send a few lines at once and then about one every two
+ * seconds, so this is a token bucket: every line takes a token, a token comes
+ * back every interval, and there are never more than the burst size.
+ *
+ * Lines waiting for a token are queued by who they're for (the first param of
+ * the command), and the targets take turns, so one channel getting a long
+ * reply doesn't hold up everyone else. Lines to the same target are always
+ * sent in order. Lines that can't wait (see {@link #PRIORITY_COMMANDS}) skip
+ * the queue.
+ *
+ * With the blocking transport the lines are written by a writer Thread of
+ * the connection's own, with the non-blocking one they're written by the
+ * {@link IRCSelector}. Nothing else ever writes, so adding a line never
+ * blocks, even if the socket is full.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+public final class SendQueue
+{
+    /**
+     * Creates a send queue.
+     * @param transport Where to write lines to.
+     * @param selector The selector looking after the transport, or null to start a writer Thread.
+     * @param burst The most lines that can be sent at once.
+     * @param intervalMillis How long it takes for another line to be allowed. 0 turns pacing off.
+     */
+    public SendQueue(IRCTransport transport, IRCSelector selector, int burst, long intervalMillis)
+    {
+        _transport = transport;
+        _selector = selector;
+        setRate(burst, intervalMillis);
+        _tokens = _burst;
+        _lastRefill = System.nanoTime();
+
+        if (_selector == null)
+        {
+            Thread t = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    writeLoop();
+                }
+            }, "Snipes-IRC-Framework-Writer");
+            // Don't keep the JVM alive for lines nobody will read.
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Changes the rate lines are sent at.
+     * @param burst The most lines that can be sent at once.
+     * @param intervalMillis How long it takes for another line to be allowed. 0 turns pacing off.
+     */
+    public synchronized void setRate(int burst, long intervalMillis)
+    {
+        if (burst < 1 || intervalMillis < 0)
+        {
+            throw new IllegalArgumentException("Burst must be at least 1 and the interval can't be negative.");
+        }
+        _burst = burst;
+        _intervalNanos = intervalMillis * 1000000L;
+        _tokens = Math.min(_tokens, burst);
+        notifyAll();
+    }
+
+    /**
+     * Sends a line, or queues it until it's allowed to be sent.
+     * @param line The line, without a line terminator.
+     */
+    public void add(String line)
+    {
+        int cmdEnd = line.indexOf(' ');
+        String cmd = cmdEnd >= 0 ? line.substring(0, cmdEnd) : line;
+        for (String p : PRIORITY_COMMANDS)
+        {
+            if (p.equalsIgnoreCase(cmd))
+            {
+                addUrgent(line);
+                return;
+            }
+        }
+
+        synchronized (this)
+        {
+            if (_closed)
+            {
+                return;
+            }
+            String target = target(line, cmdEnd);
+            Queue<Entry> q = _byTarget.get(target);
+            if (q == null)
+            {
+                q = new ArrayDeque<Entry>();
+                _byTarget.put(target, q);
+                _rotation.add(target);
+            }
+            q.add(new Entry(line, System.nanoTime()));
+            _depth++;
+            notifyAll();
+        }
+
+        if (_selector != null && _drainScheduled.compareAndSet(false, true))
+        {
+            _selector.execute(_drainTask);
+        }
+    }
+
+    /**
+     * Sends a line as soon as the writer gets to it, ahead of anything queued
+     * and without using up a token.
+     * @param line The line, without a line terminator.
+     */
+    public void addUrgent(String line)
+    {
+        synchronized (this)
+        {
+            if (_closed)
+            {
+                return;
+            }
+            _urgent.add(line);
+            notifyAll();
+        }
+        // Not the drain, that may be waiting on a token.
+        if (_selector != null && _urgentScheduled.compareAndSet(false, true))
+        {
+            _selector.execute(_urgentTask);
+        }
+    }
+
+    /** Throws away anything still queued and stops the writer. */
+    public synchronized void close()
+    {
+        _closed = true;
+        _urgent.clear();
+        _byTarget.clear();
+        _rotation.clear();
+        _depth = 0;
+        notifyAll();
+    }
+
+    /** @return The amount of lines waiting to be sent. */
+    public synchronized int getDepth()
+    {
+        return _depth;
+    }
+
+    /** @return About how long lines have been waiting in the queue lately, in milliseconds. */
+    public synchronized long getLatency()
+    {
+        return _latencyNanos / 1000000L;
+    }
+
+    /**
+     * Takes the next line off the queue if there's a token for it. Urgent
+     * lines come first and don't need one.
+     * @param now The time, from {@link System#nanoTime()}.
+     * @return The line, or null if there's nothing queued or no token.
+     */
+    private String poll(long now)
+    {
+        String urgent = _urgent.poll();
+        if (urgent != null)
+        {
+            return urgent;
+        }
+        if (_depth == 0)
+        {
+            return null;
+        }
+        if (_intervalNanos > 0)
+        {
+            refill(now);
+            if (_tokens < 1)
+            {
+                return null;
+            }
+            _tokens--;
+        }
+
+        String target = _rotation.poll();
+        Queue<Entry> q = _byTarget.get(target);
+        Entry e = q.poll();
+        if (q.isEmpty())
+        {
+            _byTarget.remove(target);
+        }
+        else
+        {
+            // Let the other targets have a turn first.
+            _rotation.add(target);
+        }
+        _depth--;
+
+        // Moving average, a eighth of the way towards the newest.
+        _latencyNanos += (now - e.queuedAt - _latencyNanos) / 8;
+        return e.line;
+    }
+
+    /** @return How long until {@link #poll(long)} could give a line, in nanoseconds. 0 to wait for a line. */
+    private long waitTime(long now)
+    {
+        if (_depth == 0 || _intervalNanos == 0)
+        {
+            return 0;
+        }
+        refill(now);
+        return Math.max(1, (long)((1 - _tokens) * _intervalNanos));
+    }
+
+    private void refill(long now)
+    {
+        _tokens = Math.min(_burst, _tokens + (double)(now - _lastRefill) / _intervalNanos);
+        _lastRefill = now;
+    }
+
+    /**
+     * The blocking transport's writer Thread. Lines that are ready one after
+     * another are written to the socket together, it's only flushed when
+     * there's nothing more to write straight away or a line has been held
+     * back for {@link #FLUSH_DEADLINE}.
+     */
+    private void writeLoop()
+    {
+        // When the oldest line not flushed yet was written, 0 if there isn't one.
+        long unflushedSince = 0;
+        while (true)
+        {
+            String line = null;
+            synchronized (this)
+            {
+                while (!_closed && (line = poll(System.nanoTime())) == null)
+                {
+                    if (unflushedSince != 0)
+                    {
+                        break;
+                    }
+                    long wait = waitTime(System.nanoTime());
+                    try
+                    {
+                        // Rounded up, or we'd wake up a bit early and wait again.
+                        wait(wait == 0 ? 0 : (wait + 999999L) / 1000000L);
+                    } catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+                if (_closed)
+                {
+                    return;
+                }
+            }
+            // Written outside the lock, the socket may be full.
+            if (line != null)
+            {
+                _transport.write(line);
+                if (unflushedSince == 0)
+                {
+                    unflushedSince = System.nanoTime();
+                }
+            }
+            if (line == null || System.nanoTime() - unflushedSince >= FLUSH_DEADLINE)
+            {
+                _transport.flush();
+                unflushedSince = 0;
+            }
+        }
+    }
+
+    /** The non-blocking transport's version of {@link #writeLoop()}, run on the selector's Thread. */
+    private void drain()
+    {
+        _drainScheduled.set(false);
+        long wait;
+        boolean wrote = false;
+        while (true)
+        {
+            String line;
+            synchronized (this)
+            {
+                line = poll(System.nanoTime());
+                if (line == null)
+                {
+                    wait = _closed ? 0 : waitTime(System.nanoTime());
+                    break;
+                }
+            }
+            _transport.write(line);
+            wrote = true;
+        }
+        if (wrote)
+        {
+            // Everything that was ready goes out together.
+            _transport.flush();
+        }
+        if (wait > 0 && _drainScheduled.compareAndSet(false, true))
+        {
+            _selector.schedule(_drainTask, (wait + 999999L) / 1000000L);
+        }
+    }
+
+    /** Writes the urgent lines on the selector's Thread, without waiting for a token. */
+    private void drainUrgent()
+    {
+        _urgentScheduled.set(false);
+        boolean wrote = false;
+        while (true)
+        {
+            String line;
+            synchronized (this)
+            {
+                line = _urgent.poll();
+            }
+            if (line == null)
+            {
+                break;
+            }
+            _transport.write(line);
+            wrote = true;
+        }
+        if (wrote)
+        {
+            _transport.flush();
+        }
+    }
+
+    /** Gets who a line is for, so lines to different targets can take turns. */
+    private static String target(String line, int cmdEnd)
+    {
+        if (cmdEnd < 0)
+        {
+            return "";
+        }
+        int end = line.indexOf(' ', cmdEnd + 1);
+        String target = end >= 0 ? line.substring(cmdEnd + 1, end) : line.substring(cmdEnd + 1);
+        return target.startsWith(":") ? "" : CaseMapping.RFC1459.toLowerCase(target);
+    }
+
+    private static final class Entry
+    {
+        Entry(String line, long queuedAt)
+        {
+            this.line = line;
+            this.queuedAt = queuedAt;
+        }
+
+        final String line;
+        final long queuedAt;
+    }
+
+    /**
+     * Commands that are sent straight away, without waiting for or using up a
+     * token. The server kills us if we don't answer it's PINGs, we want to
+     * be able to leave even if we're flooding, and registering has to be done
+     * quickly.
+     */
+    static final String[] PRIORITY_COMMANDS = {"PONG", "QUIT", "PASS", "USER", "CAP"};
+
+    /** The longest the writer Thread holds written lines back before flushing them, in nanoseconds. */
+    private static final long FLUSH_DEADLINE = 20 * 1000000L;
+
+    private final IRCTransport _transport;
+    private final IRCSelector _selector;
+    private final Runnable _drainTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            drain();
+        }
+    };
+    private final AtomicBoolean _drainScheduled = new AtomicBoolean();
+    private final Runnable _urgentTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            drainUrgent();
+        }
+    };
+    private final AtomicBoolean _urgentScheduled = new AtomicBoolean();
+
+    /** Lines to send before anything else, in order. */
+    private final Queue<String> _urgent = new ArrayDeque<String>();
+    /** Lines waiting to be sent, by target. */
+    private final Map<String, Queue<Entry>> _byTarget = new HashMap<String, Queue<Entry>>();
+    /** The targets that have lines waiting, in the order they get their turn. */
+    private final Queue<String> _rotation = new ArrayDeque<String>();
+    private int _depth;
+    private boolean _closed;
+
+    private int _burst;
+    private long _intervalNanos;
+    private double _tokens;
+    private long _lastRefill;
+    private long _latencyNanos;
+}
@@ -0,0 +1,322 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Connects to the first of a list of servers that answers. Every server's
+ * address is looked up at once, each on it's own Thread, and we start
+ * connecting as soon as the first lookup comes back. Connections are tried one
+ * after the other, but we only give each one a short head start before trying
+ * the next, without giving up on it ("happy eyeballs", RFC 8305). The first
+ * one to connect wins and the rest are closed. So a dead server, or a address
+ * that doesn't route (usually IPv6), costs a quarter of a second instead of a
+ * whole connect timeout.
+ *
+ * The servers are tried in the order they were given, and a server's IPv6 and
+ * IPv4 addresses take turns.
+ *
+ * One connector connects once.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+public final class ServerConnector
+{
+    /**
+     * @param servers The servers to try, in the order to try them. Their hosts
+     *            don't need to be resolved, we do that.
+     */
+    public ServerConnector(InetSocketAddress[] servers)
+    {
+        if (servers == null || servers.length == 0)
+        {
+            throw new IllegalArgumentException("There must be at least one server to connect to.");
+        }
+        _servers = servers.clone();
+        _addresses = new ArrayList<List<InetAddress>>(Collections.nCopies(servers.length, (List<InetAddress>) null));
+    }
+
+    /**
+     * Connects to one of the servers, blocking until we have.
+     *
+     * @return The connection, in blocking mode.
+     * @throws UnknownHostException If none of the servers could be found.
+     * @throws IOException If we couldn't connect to any of them, or it took
+     *             longer than {@link #CONNECT_TIMEOUT}.
+     */
+    public SocketChannel connect() throws IOException
+    {
+        _selector = Selector.open();
+        SocketChannel connected = null;
+        try
+        {
+            for (int i = 0; i < _servers.length; i++)
+            {
+                Thread t = new Thread(new Resolver(i), "Snipes-DNS-Resolver");
+                // A lookup that never returns mustn't keep the JVM up.
+                t.setDaemon(true);
+                t.start();
+            }
+            connected = race();
+        } finally
+        {
+            // Closing the selector lets go of the winner so it can be put in
+            // blocking mode, or registered with another selector.
+            for (SelectionKey key : _selector.keys())
+            {
+                if (key.channel() != connected)
+                {
+                    close((SocketChannel)key.channel());
+                }
+            }
+            _selector.close();
+        }
+        connected.configureBlocking(true);
+        return connected;
+    }
+
+    /** @return The server we connected to, unresolved. Null until we have. */
+    public InetSocketAddress getServer()
+    {
+        return _server;
+    }
+
+    private SocketChannel race() throws IOException
+    {
+        long deadline = System.nanoTime() + CONNECT_TIMEOUT * 1000000L;
+        long nextAttempt = 0;
+        int resolving = _servers.length;
+        int connecting = 0;
+        IOException failure = null;
+
+        while (true)
+        {
+            Resolved r;
+            while ((r = _resolved.poll()) != null)
+            {
+                resolving--;
+                if (r.error != null)
+                {
+                    // A server we couldn't reach says more than one that
+                    // doesn't exist.
+                    failure = failure != null ? failure : r.error;
+                }
+                else
+                {
+                    _addresses.set(r.server, interleave(r.addresses));
+                }
+            }
+
+            long now = System.nanoTime();
+            while (connecting == 0 || now - nextAttempt >= 0)
+            {
+                int server = nextServer();
+                if (server == -1)
+                {
+                    break;
+                }
+                InetSocketAddress address = new InetSocketAddress(_addresses.get(server).remove(0), _servers[server].getPort());
+                SocketChannel channel = SocketChannel.open();
+                try
+                {
+                    channel.configureBlocking(false);
+                    if (channel.connect(address))
+                    {
+                        // Straight away, it's probably on this machine.
+                        _server = _servers[server];
+                        return channel;
+                    }
+                    channel.register(_selector, SelectionKey.OP_CONNECT, Integer.valueOf(server));
+                    connecting++;
+                    nextAttempt = now + ATTEMPT_DELAY * 1000000L;
+                    break;
+                } catch (IOException e)
+                {
+                    // Usually no route to it, try the next one now.
+                    failure = e;
+                    close(channel);
+                }
+            }
+
+            if (connecting == 0 && resolving == 0 && nextServer() == -1)
+            {
+                throw failure != null ? failure : new IOException("Could not connect to any server.");
+            }
+            if (now - deadline >= 0)
+            {
+                throw new SocketTimeoutException("Timed out connecting to the server.");
+            }
+
+            // Wake up for the next attempt if there's anything left to try,
+            // the resolvers wake us up if there isn't yet.
+            long wait = deadline - now;
+            if (connecting > 0 && nextServer() != -1)
+            {
+                wait = Math.min(wait, nextAttempt - now);
+            }
+            _selector.select(Math.max(1, wait / 1000000L));
+
+            Iterator<SelectionKey> it = _selector.selectedKeys().iterator();
+            while (it.hasNext())
+            {
+                SelectionKey key = it.next();
+                it.remove();
+                SocketChannel channel = (SocketChannel)key.channel();
+                try
+                {
+                    if (channel.finishConnect())
+                    {
+                        _server = _servers[((Integer)key.attachment()).intValue()];
+                        return channel;
+                    }
+                } catch (IOException e)
+                {
+                    // Refused, or unreachable. Don't wait to try the next one.
+                    failure = e;
+                    close(channel);
+                    connecting--;
+                    nextAttempt = System.nanoTime();
+                }
+            }
+        }
+    }
+
+    /** @return The first server with addresses left to try, or -1 if there aren't any yet. */
+    private int nextServer()
+    {
+        for (int i = 0; i < _addresses.size(); i++)
+        {
+            List<InetAddress> addresses = _addresses.get(i);
+            if (addresses != null && !addresses.isEmpty())
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Orders a server's addresses so the IPv6 and IPv4 ones take turns,
+     * starting with whichever the system put first.
+     * @param addresses The addresses, as the system gave them. At least one.
+     * @return The addresses in the order to try them.
+     */
+    public static List<InetAddress> interleave(InetAddress[] addresses)
+    {
+        List<InetAddress> first = new LinkedList<InetAddress>();
+        List<InetAddress> second = new LinkedList<InetAddress>();
+        boolean v6First = addresses[0] instanceof Inet6Address;
+        for (InetAddress a : addresses)
+        {
+            if ((a instanceof Inet6Address) == v6First)
+            {
+                first.add(a);
+            }
+            else
+            {
+                second.add(a);
+            }
+        }
+
+        List<InetAddress> result = new ArrayList<InetAddress>(addresses.length);
+        while (!first.isEmpty() || !second.isEmpty())
+        {
+            if (!first.isEmpty())
+            {
+                result.add(first.remove(0));
+            }
+            if (!second.isEmpty())
+            {
+                result.add(second.remove(0));
+            }
+        }
+        return result;
+    }
+
+    private static void close(SocketChannel channel)
+    {
+        try
+        {
+            channel.close();
+        } catch (IOException e)
+        {
+            // We don't care.
+        }
+    }
+
+    /** Looks up one server's addresses. */
+    private class Resolver implements Runnable
+    {
+        Resolver(int index)
+        {
+            _index = index;
+        }
+
+        @Override
+        public void run()
+        {
+            Resolved r = new Resolved(_index);
+            try
+            {
+                r.addresses = InetAddress.getAllByName(_servers[_index].getHostString());
+            } catch (UnknownHostException e)
+            {
+                r.error = e;
+            }
+            _resolved.add(r);
+            _selector.wakeup();
+        }
+
+        private final int _index;
+    }
+
+    /** What a {@link Resolver} found. */
+    private static class Resolved
+    {
+        Resolved(int server)
+        {
+            this.server = server;
+        }
+
+        final int server;
+        InetAddress[] addresses;
+        UnknownHostException error;
+    }
+
+    /** How long a connection gets before we start trying the next one too, in milliseconds. */
+    private static final long ATTEMPT_DELAY = 250;
+    /** The longest we try to connect for, in milliseconds. */
+    private static final long CONNECT_TIMEOUT = 30 * 1000;
+
+    private final InetSocketAddress[] _servers;
+    /** The addresses of each server still to try, null until it's been looked up. */
+    private final List<List<InetAddress>> _addresses;
+    private final Queue<Resolved> _resolved = new ConcurrentLinkedQueue<Resolved>();
+    private Selector _selector;
+    private volatile InetSocketAddress _server;
+}
@@ -0,0 +1,398 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What we know about the server we're connected to: the options it sent in
+ * it's ISUPPORT (005) replies, the IRCv3 capabilities it has and which of
+ * them are turned on, and the hostmask it shows us with. The hostmask
+ * matters because the server puts it in front of every line it passes on for
+ * us, and the whole thing has to fit in {@link BotConstants#IRC_MAX_LINE_LENGTH}.
+ *
+ * This is filled in by the receiver as lines come in, before they're handled,
+ * so listeners already see the new values when they get the event for a line.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+public final class ServerSupport
+{
+    /**
+     * Makes a empty ServerSupport, for reading the options out of lines you
+     * got some other way with {@link #lineReceived(String, String)}.
+     */
+    public ServerSupport()
+    {
+        this(null);
+    }
+
+    /** @param negotiator Told about the capabilities the server has, so it can ask for them. May be null. */
+    ServerSupport(CapNegotiator negotiator)
+    {
+        _negotiator = negotiator;
+    }
+
+    /**
+     * Gets a option from the server's ISUPPORT replies.
+     * @param name The name of the option, like "CHANTYPES".
+     * @return It's value, "" if it doesn't have one, or null if the server didn't send it.
+     */
+    public String get(String name)
+    {
+        return _tokens.get(name.toUpperCase());
+    }
+
+    /** @return If the server sent the option in it's ISUPPORT replies. */
+    public boolean isSupported(String name)
+    {
+        return get(name) != null;
+    }
+
+    /**
+     * @param cap The name of a IRCv3 capability, like "multi-prefix".
+     * @return True if the server has the capability, whether it's turned on or not.
+     */
+    public boolean isCapAvailable(String cap)
+    {
+        return _caps.containsKey(cap);
+    }
+
+    /**
+     * @param cap The name of a IRCv3 capability.
+     * @return The value the server gave the capability ("sasl=PLAIN,EXTERNAL"), "" if it didn't give one, or null if it doesn't have it.
+     */
+    public String getCapValue(String cap)
+    {
+        return _caps.get(cap);
+    }
+
+    /**
+     * @param cap The name of a IRCv3 capability, like "extended-join".
+     * @return True if the capability is turned on for our connection.
+     */
+    public boolean isCapEnabled(String cap)
+    {
+        return _enabledCaps.contains(cap);
+    }
+
+    /** @return The IRCv3 capabilities turned on for our connection. The set can't be changed. */
+    public Set<String> getEnabledCaps()
+    {
+        return Collections.unmodifiableSet(_enabledCaps);
+    }
+
+    /** @return The case mapping the server uses for nicks and channel names. RFC1459 if it didn't say. */
+    public CaseMapping getCaseMapping()
+    {
+        return CaseMapping.forName(get("CASEMAPPING"));
+    }
+
+    /**
+     * Gets the most targets a command can be sent to at once, from TARGMAX or
+     * MAXTARGETS.
+     * @param command The command, like "PRIVMSG".
+     * @return The most targets. 1 if the server didn't say, so nothing gets rejected.
+     */
+    public int getMaxTargets(String command)
+    {
+        String targmax = get("TARGMAX");
+        if (targmax != null)
+        {
+            // "PRIVMSG:4,NOTICE:4,JOIN:", no number means no limit.
+            for (String entry : targmax.split(","))
+            {
+                int colon = entry.indexOf(':');
+                if (colon > 0 && entry.substring(0, colon).equalsIgnoreCase(command))
+                {
+                    return colon == entry.length() - 1 ? Integer.MAX_VALUE : parsePositive(entry.substring(colon + 1), 1);
+                }
+            }
+            return 1;
+        }
+        return parsePositive(get("MAXTARGETS"), 1);
+    }
+
+    /**
+     * Gets how many bytes the server adds to the front of a line when it passes
+     * it on for us (":nick!user@host "). If we haven't seen our hostmask yet,
+     * the longest user and host the server could give us are assumed.
+     * @param nick Our nick.
+     * @return The amount of bytes.
+     */
+    public int getPrefixLength(String nick)
+    {
+        String user = _user;
+        String host = _host;
+        int userLen = user != null ? utf8Length(user) : parsePositive(get("USERLEN"), DEFAULT_USER_LENGTH) + 1;
+        int hostLen = host != null ? utf8Length(host) : MAX_HOST_LENGTH;
+        // ':' + nick + '!' + user + '@' + host + ' '
+        return 4 + utf8Length(nick) + userLen + hostLen;
+    }
+
+    /** @return Our username as the server shows it (with the ~ if it has one), or null if we haven't seen it. */
+    public String getUser()
+    {
+        return _user;
+    }
+
+    /** @return Our host as the server shows it, or null if we haven't seen it. */
+    public String getHost()
+    {
+        return _host;
+    }
+
+    /**
+     * Looks at a line from the server for anything we want to know.
+     * @param line The line, without the line ending.
+     * @param nick Our nick.
+     */
+    public void lineReceived(String line, String nick)
+    {
+        int start = 0;
+        if (line.startsWith("@"))
+        {
+            // Skip the message tags.
+            start = line.indexOf(' ') + 1;
+            if (start == 0)
+            {
+                return;
+            }
+        }
+        if (!line.startsWith(":", start))
+        {
+            return;
+        }
+        int cmdStart = line.indexOf(' ', start) + 1;
+        if (cmdStart == 0)
+        {
+            return;
+        }
+        int cmdEnd = line.indexOf(' ', cmdStart);
+        if (cmdEnd < 0)
+        {
+            return;
+        }
+
+        String cmd = line.substring(cmdStart, cmdEnd);
+        if (cmd.equals(ISUPPORT))
+        {
+            parseISupport(line.substring(cmdEnd + 1));
+        }
+        else if (cmd.equals(WELCOME))
+        {
+            // "Welcome to the Internet Relay Network nick!user@host"
+            int mask = line.lastIndexOf(' ');
+            setHostmask(line.substring(mask + 1), nick);
+            if (_negotiator != null)
+            {
+                _negotiator.registered();
+            }
+        }
+        else if (cmd.equalsIgnoreCase("JOIN"))
+        {
+            // Our own JOINs come from the hostmask everyone else sees.
+            setHostmask(line.substring(start + 1, cmdStart - 1), nick);
+        }
+        else if (cmd.equalsIgnoreCase("CAP"))
+        {
+            parseCap(line.substring(cmdEnd + 1));
+        }
+    }
+
+    /** @param params "nick LS * :multi-prefix sasl=PLAIN", the * means there's more to come. */
+    private void parseCap(String params)
+    {
+        String[] split = params.split(" ", 3);
+        if (split.length < 3)
+        {
+            return;
+        }
+        String sub = split[1].toUpperCase();
+        String rest = split[2];
+        boolean more = rest.startsWith("* ");
+        if (more)
+        {
+            rest = rest.substring(2);
+        }
+        if (rest.startsWith(":"))
+        {
+            rest = rest.substring(1);
+        }
+        rest = rest.trim();
+        String[] caps = rest.length() == 0 ? new String[0] : rest.split(" +");
+
+        if (sub.equals("LS") || sub.equals("NEW"))
+        {
+            for (int i = 0; i < caps.length; i++)
+            {
+                // CAP LS 302 gives some of them values.
+                int eq = caps[i].indexOf('=');
+                String value = eq < 0 ? "" : caps[i].substring(eq + 1);
+                if (eq >= 0)
+                {
+                    caps[i] = caps[i].substring(0, eq);
+                }
+                _caps.put(caps[i], value);
+            }
+        }
+        else if (sub.equals("ACK"))
+        {
+            for (String cap : caps)
+            {
+                if (cap.startsWith("-"))
+                {
+                    _enabledCaps.remove(cap.substring(1));
+                }
+                else
+                {
+                    _enabledCaps.add(cap);
+                }
+            }
+        }
+        else if (sub.equals("DEL"))
+        {
+            for (String cap : caps)
+            {
+                _caps.remove(cap);
+                _enabledCaps.remove(cap);
+            }
+        }
+
+        CapNegotiator negotiator = _negotiator;
+        if (negotiator == null)
+        {
+            return;
+        }
+        if (sub.equals("LS") && !more)
+        {
+            negotiator.capsListed(this);
+        }
+        else if (sub.equals("NEW"))
+        {
+            negotiator.capsAdded(this, caps);
+        }
+        else if ((sub.equals("ACK") || sub.equals("NAK")) && !more)
+        {
+            negotiator.capsAnswered();
+        }
+    }
+
+    /** @param params "nick TOKEN TOKEN=value -TOKEN :are supported by this server" */
+    private void parseISupport(String params)
+    {
+        String[] split = params.split(" ");
+        // The first is our nick.
+        for (int i = 1; i < split.length; i++)
+        {
+            String token = split[i];
+            if (token.startsWith(":"))
+            {
+                break;
+            }
+            if (token.startsWith("-"))
+            {
+                _tokens.remove(token.substring(1).toUpperCase());
+                continue;
+            }
+            int eq = token.indexOf('=');
+            if (eq < 0)
+            {
+                _tokens.put(token.toUpperCase(), "");
+            }
+            else if (eq > 0)
+            {
+                _tokens.put(token.substring(0, eq).toUpperCase(), token.substring(eq + 1));
+            }
+        }
+    }
+
+    private void setHostmask(String mask, String nick)
+    {
+        int bang = mask.indexOf('!');
+        int at = mask.indexOf('@', bang + 1);
+        if (bang <= 0 || at < 0 || !getCaseMapping().equals(mask.substring(0, bang), nick))
+        {
+            return;
+        }
+        _user = mask.substring(bang + 1, at);
+        _host = mask.substring(at + 1);
+    }
+
+    private static int parsePositive(String s, int def)
+    {
+        if (s == null)
+        {
+            return def;
+        }
+        try
+        {
+            int i = Integer.parseInt(s.trim());
+            return i > 0 ? i : def;
+        } catch (NumberFormatException e)
+        {
+            return def;
+        }
+    }
+
+    /**
+     * Counts the bytes a String takes up as UTF-8, without encoding it.
+     * @param s The String.
+     * @return The amount of bytes.
+     */
+    public static int utf8Length(CharSequence s)
+    {
+        int len = 0;
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c < 0x80)
+            {
+                len++;
+            }
+            else if (c < 0x800)
+            {
+                len += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1)))
+            {
+                len += 4;
+                i++;
+            }
+            else
+            {
+                len += 3;
+            }
+        }
+        return len;
+    }
+
+    private static final String WELCOME = "001";
+    private static final String ISUPPORT = "005";
+    /** The longest username most servers allow, if they don't send USERLEN. */
+    private static final int DEFAULT_USER_LENGTH = 10;
+    /** The longest host a server can show us with. */
+    private static final int MAX_HOST_LENGTH = 63;
+
+    /** The ISUPPORT options, by their upper case names. */
+    private final Map<String, String> _tokens = new ConcurrentHashMap<String, String>();
+    /** The capabilities the server has, with their values. */
+    private final Map<String, String> _caps = new ConcurrentHashMap<String, String>();
+    /** The capabilities turned on for our connection. */
+    private final Set<String> _enabledCaps = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final CapNegotiator _negotiator;
+    private volatile String _user;
+    private volatile String _host;
+}
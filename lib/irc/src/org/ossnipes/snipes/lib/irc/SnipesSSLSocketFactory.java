@@ -14,8 +14,17 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 
 import javax.net.SocketFactory;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 
 import org.ossnipes.snipes.lib.events.IRCBase;
@@ -33,68 +42,184 @@ import org.ossnipes.snipes.lib.events.IRCBase;
  * with the #createSocket method (also to move more towards the "singleton"
  * method).
  * 
- * If you wish to use SSL when connecting to a server, try
- * {@link SnipesSSLSocketFactory}
+ * Every connection made by one factory uses the same {@link SSLContext}, so
+ * when we reconnect to a server the TLS session from last time is resumed
+ * instead of doing a full handshake. Make your own factory with
+ * {@link #SnipesSSLSocketFactory(SSLContext)} to use your own keys or trust
+ * store, or to pick the protocols and cipher suites without changing them for
+ * everybody using {@link #getDefault()}. The server's name is sent with SNI,
+ * so servers hosting a few networks on one address give us the right
+ * certificate.
+ * 
+ * The non-blocking transport supports connections made by this factory too,
+ * it does the TLS itself with {@link #createSSLEngine(String, int)}.
  * 
  * @since Snipes 0.6 Jack McCracken (<a
  *        href="http://ossnipes.org/">http://ossnipes.org</a>)
- * @see SnipesSSLSocketFactory
+ * @see SnipesSocketFactory
  */
 
 public class SnipesSSLSocketFactory extends SocketFactory implements
                                                           BotConstants
 {
-    // This class might be considered a hack for SSL compatibility, as there's
-    // no documentation on
-    // how to actually *use* SSLSockets.
-    // So, we use a SSLSocketFactory to create our sockets, and just set the
-    // timeout on that.
-
-    private static final SocketFactory parent = SSLSocketFactory.getDefault();
-
     // The default, returned by getDefault()
-    private static final SnipesSSLSocketFactory def = new SnipesSSLSocketFactory();
-
+    private static final SnipesSSLSocketFactory def = new SnipesSSLSocketFactory(null);
 
-
-    private SnipesSSLSocketFactory()
+    /**
+     * Creates a factory that makes it's connections with a SSLContext.
+     * 
+     * @param context The context, already initialised. If null, the JVM's
+     *            default context is used.
+     */
+    public SnipesSSLSocketFactory(SSLContext context)
     {
-
+        if (context == null)
+        {
+            try
+            {
+                context = SSLContext.getDefault();
+            } catch (NoSuchAlgorithmException e)
+            {
+                throw new IllegalStateException("This JVM has no default SSLContext.", e);
+            }
+        }
+        _context = context;
+        _parent = context.getSocketFactory();
     }
 
     @Override
     public Socket createSocket(String host, int port) throws IOException,
 	UnknownHostException
     {
-        Socket s = parent.createSocket(host, port);
-        s.setSoTimeout(IRC_TIMEOUT);
-        return s;
+        return configure(_parent.createSocket(host, port), host);
     }
 
     @Override
     public Socket createSocket(InetAddress host, int port) throws IOException
     {
-        Socket s = parent.createSocket(host, port);
-        s.setSoTimeout(IRC_TIMEOUT);
-        return s;
+        return configure(_parent.createSocket(host, port), null);
     }
 
     @Override
     public Socket createSocket(String host, int port, InetAddress localHost,
                                int localPort) throws IOException, UnknownHostException
     {
-        Socket s = parent.createSocket(host, port, localHost, localPort);
-        s.setSoTimeout(IRC_TIMEOUT);
-        return s;
+        return configure(_parent.createSocket(host, port, localHost, localPort), host);
     }
 
     @Override
     public Socket createSocket(InetAddress address, int port,
                                InetAddress localAddress, int localPort) throws IOException
     {
-        Socket s = parent.createSocket(address, port, localAddress, localPort);
-        s.setSoTimeout(IRC_TIMEOUT);
-        return s;
+        return configure(_parent.createSocket(address, port, localAddress, localPort), null);
+    }
+
+    /**
+     * Does TLS over a connection that's already been made.
+     * 
+     * @param s The connection. It's closed when the TLS Socket is.
+     * @param host The host it's to, for SNI and to find a session to resume.
+     * @param port The port it's to.
+     * @return The TLS Socket, it does the handshake the first time it's read
+     *         or written.
+     * @throws IOException If s isn't connected.
+     */
+    public Socket createSocket(Socket s, String host, int port) throws IOException
+    {
+        return configure(_parent.createSocket(s, host, port, true), host);
+    }
+
+    /**
+     * Creates a SSLEngine for a connection to a server, set up the same way
+     * as the sockets this factory makes. The engine is in client mode, and
+     * it's handshake hasn't started yet.
+     * 
+     * @param host The server's host name, used for SNI and to find a session
+     *            to resume.
+     * @param port The server's port.
+     * @return The engine.
+     */
+    public SSLEngine createSSLEngine(String host, int port)
+    {
+        SSLEngine engine = _context.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        engine.setSSLParameters(parameters(engine.getSSLParameters(), host));
+        return engine;
+    }
+
+    /**
+     * Sets the protocols connections may use, like "TLSv1.3" and "TLSv1.2".
+     * 
+     * @param protocols The protocols, or null for the context's defaults.
+     * @throws IllegalArgumentException If the context doesn't support one of
+     *             them.
+     */
+    public void setProtocols(String... protocols)
+    {
+        check(protocols, _context.getSupportedSSLParameters().getProtocols(), "protocol");
+        _protocols = protocols != null ? protocols.clone() : null;
+    }
+
+    /** @return The protocols connections may use, or null for the context's defaults. */
+    public String[] getProtocols()
+    {
+        String[] protocols = _protocols;
+        return protocols != null ? protocols.clone() : null;
+    }
+
+    /**
+     * Sets the cipher suites connections may use.
+     * 
+     * @param suites The cipher suites, or null for the context's defaults.
+     * @throws IllegalArgumentException If the context doesn't support one of
+     *             them.
+     */
+    public void setCipherSuites(String... suites)
+    {
+        check(suites, _context.getSupportedSSLParameters().getCipherSuites(), "cipher suite");
+        _cipherSuites = suites != null ? suites.clone() : null;
+    }
+
+    /** @return The cipher suites connections may use, or null for the context's defaults. */
+    public String[] getCipherSuites()
+    {
+        String[] suites = _cipherSuites;
+        return suites != null ? suites.clone() : null;
+    }
+
+    /**
+     * Sets how many TLS sessions are kept to be resumed. This changes the
+     * context, so it affects everything else using it (for the default
+     * factory, that's everything using the JVM's default context).
+     * 
+     * @param size The most sessions to keep, 0 for no limit.
+     */
+    public void setSessionCacheSize(int size)
+    {
+        getSessionContext().setSessionCacheSize(size);
+    }
+
+    /**
+     * Sets how long a TLS session can be resumed for. Like
+     * {@link #setSessionCacheSize(int)}, this changes the context.
+     * 
+     * @param seconds The time in seconds, 0 for no limit.
+     */
+    public void setSessionTimeout(int seconds)
+    {
+        getSessionContext().setSessionTimeout(seconds);
+    }
+
+    /** @return The sessions kept to be resumed. */
+    public SSLSessionContext getSessionContext()
+    {
+        return _context.getClientSessionContext();
+    }
+
+    /** @return The context connections are made with. */
+    public SSLContext getContext()
+    {
+        return _context;
     }
 
     public static SocketFactory getDefault()
@@ -102,4 +227,81 @@ public class SnipesSSLSocketFactory extends SocketFactory implements
         return def;
     }
 
+    private Socket configure(Socket s, String host) throws IOException
+    {
+        s.setSoTimeout(IRC_TIMEOUT);
+        if (s instanceof SSLSocket)
+        {
+            // The handshake hasn't started yet, it waits for the first read or write.
+            SSLSocket ssl = (SSLSocket)s;
+            ssl.setSSLParameters(parameters(ssl.getSSLParameters(), host));
+        }
+        return s;
+    }
+
+    private SSLParameters parameters(SSLParameters params, String host)
+    {
+        String[] protocols = _protocols;
+        if (protocols != null)
+        {
+            params.setProtocols(protocols);
+        }
+        String[] suites = _cipherSuites;
+        if (suites != null)
+        {
+            params.setCipherSuites(suites);
+        }
+        if (host != null && isHostName(host))
+        {
+            params.setServerNames(Collections.<SNIServerName>singletonList(new SNIHostName(host)));
+        }
+        return params;
+    }
+
+    /** @return False for IP addresses, which can't be sent with SNI. */
+    private static boolean isHostName(String host)
+    {
+        if (host.indexOf(':') != -1)
+        {
+            return false;
+        }
+        for (int i = 0; i < host.length(); i++)
+        {
+            char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9'))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void check(String[] wanted, String[] supported, String what)
+    {
+        if (wanted == null)
+        {
+            return;
+        }
+        for (String s : wanted)
+        {
+            boolean found = false;
+            for (String t : supported)
+            {
+                if (t.equals(s))
+                {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found)
+            {
+                throw new IllegalArgumentException("Unsupported " + what + ": " + s);
+            }
+        }
+    }
+
+    private final SSLContext _context;
+    private final SSLSocketFactory _parent;
+    private volatile String[] _protocols;
+    private volatile String[] _cipherSuites;
 }
@@ -0,0 +1,166 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import javax.net.SocketFactory;
+
+/**
+ * The classic blocking transport. A {@link Socket} is created through the
+ * given SocketFactory (so SSL works as usual) and a dedicated
+ * "Snipes-IRC-Framework-Receiver" Thread reads from it.
+ *
+ * @author Jack McCracken
+ * @since Snipes 0.6
+ */
+class SocketTransport implements IRCTransport, BotConstants
+{
+    SocketTransport(IRCReceiver receiver)
+    {
+        _receiver = receiver;
+    }
+
+    @Override
+    public void open(InetSocketAddress[] servers, SocketFactory factory) throws IOException
+    {
+        _rawSocket = connect(servers, factory);
+        _in = _rawSocket.getInputStream();
+        // Lines are collected here until they're flushed, so a few lines
+        // written together go out in one write.
+        _writer = new BufferedOutputStream(_rawSocket.getOutputStream(), BUFFER_SIZE);
+    }
+
+    @Override
+    public void start()
+    {
+        // Create/Start the recv Thread
+        new Thread(_receiver, "Snipes-IRC-Framework-Receiver").start();
+    }
+
+    /** Connects to the first server that answers. */
+    private static Socket connect(InetSocketAddress[] servers, SocketFactory factory) throws IOException
+    {
+        if (factory instanceof SnipesSocketFactory || factory instanceof SnipesSSLSocketFactory)
+        {
+            // We know what these would do with the Socket, so we can race
+            // the servers and do it ourselves.
+            ServerConnector connector = new ServerConnector(servers);
+            Socket s = connector.connect().socket();
+            if (factory instanceof SnipesSSLSocketFactory)
+            {
+                InetSocketAddress server = connector.getServer();
+                return ((SnipesSSLSocketFactory)factory).createSocket(s, server.getHostString(), server.getPort());
+            }
+            s.setSoTimeout(IRC_TIMEOUT);
+            return s;
+        }
+
+        // Somebody else's factory makes it's own connections, so all we can
+        // do is try the servers one at a time.
+        IOException failure = null;
+        for (InetSocketAddress server : servers)
+        {
+            try
+            {
+                return factory.createSocket(server.getHostString(), server.getPort());
+            } catch (IOException e)
+            {
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    @Override
+    public void write(String line)
+    {
+        byte[] b = IRCLineFramer.encode(line);
+        synchronized (_writer)
+        {
+            try
+            {
+                _writer.write(b);
+            } catch (IOException e)
+            {
+                // The receiver will find out we've been disconnected.
+            }
+        }
+    }
+
+    @Override
+    public void flush()
+    {
+        synchronized (_writer)
+        {
+            try
+            {
+                _writer.flush();
+            } catch (IOException e)
+            {
+                // Same as above.
+            }
+        }
+    }
+
+    @Override
+    public String readLine() throws IOException
+    {
+        return _framer.readLine(_in);
+    }
+
+    @Override
+    public boolean isConnected()
+    {
+        if (_rawSocket == null)
+        {
+            return false;
+        }
+        else
+        {
+            // A Socket stays "connected" after it's been closed.
+            return _rawSocket.isConnected() && !_rawSocket.isClosed();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (_rawSocket != null)
+        {
+            try
+            {
+                _rawSocket.close();
+            } catch (IOException e)
+            {
+                // We don't care.
+            }
+        }
+    }
+
+    private final IRCReceiver _receiver;
+
+    private Socket _rawSocket;
+
+    private final IRCLineFramer _framer = new IRCLineFramer();
+
+    private InputStream _in;
+
+    /** Big enough for a few full lines. */
+    private static final int BUFFER_SIZE = 4 * IRC_MAX_LINE_LENGTH;
+
+    private OutputStream _writer;
+}
@@ -0,0 +1,85 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc.test;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.ossnipes.snipes.lib.events.IRCMessage;
+
+
+public class TestIRCMessage extends TestCase
+{
+	@Test
+	public void testPrivMsg()
+	{
+		IRCMessage m = new IRCMessage(":Unix!rubicon@projectinfinity.net PRIVMSG #Snipes :Hello  world!");
+		assertEquals("Unix", m.getNick());
+		assertEquals("rubicon", m.getUser());
+		assertEquals("projectinfinity.net", m.getHost());
+		assertEquals("PRIVMSG", m.getCommand());
+		assertTrue(m.isCommand("privmsg"));
+		assertEquals(2, m.getParamCount());
+		assertEquals("#Snipes", m.getParam(0));
+		assertEquals("Hello  world!", m.getParam(1));
+		assertTrue(m.hasTrailing());
+	}
+
+	@Test
+	public void testNumeric()
+	{
+		IRCMessage m = new IRCMessage(":irc.server 353 Snipes = #Snipes :@Unix +Auv5");
+		assertEquals(353, m.getNumeric());
+		assertEquals("irc.server", m.getNick());
+		assertNull(m.getHost());
+		assertEquals("= #Snipes :@Unix +Auv5", m.getParamsFrom(1));
+		assertEquals("@Unix +Auv5", m.getParamsFrom(3));
+		assertNull(m.getParamsFrom(4));
+	}
+
+	@Test
+	public void testReuse()
+	{
+		IRCMessage m = new IRCMessage(":a!b@c PART #Snipes :Ciao.");
+		m.parse("PING :irc.server");
+		assertFalse(m.hasPrefix());
+		assertNull(m.getNick());
+		assertEquals(-1, m.getNumeric());
+		assertEquals("PING", m.getCommand());
+		assertEquals("irc.server", m.getLastParam());
+
+		m.parse(":a!b@c MODE #Snipes +o");
+		assertEquals(2, m.getParamCount());
+		assertTrue(m.paramStartsWith(1, '+'));
+		assertFalse(m.hasTrailing());
+	}
+
+	@Test
+	public void testTags()
+	{
+		IRCMessage m = new IRCMessage("@time=2011-10-19T16:40:51.620Z;account=Unix;msg=a\\sb\\:c;bot :Unix!rubicon@host JOIN #Snipes Unix :Real name");
+		assertTrue(m.hasTags());
+		assertEquals("Unix", m.getNick());
+		assertEquals("host", m.getHost());
+		assertEquals("JOIN", m.getCommand());
+		assertEquals(":Unix!rubicon@host JOIN #Snipes Unix :Real name", m.getLine());
+		assertEquals("Unix", m.getTags().get("account"));
+		assertEquals("a b;c", m.getTags().get("msg"));
+		assertEquals("", m.getTags().get("bot"));
+		assertNull(m.getTags().get("acc"));
+		assertEquals(4, m.getTags().asMap().size());
+
+		m.parse(":a!b@c PART #Snipes");
+		assertFalse(m.hasTags());
+		assertTrue(m.getTags().isEmpty());
+		assertEquals(":a!b@c PART #Snipes", m.getLine());
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.ossnipes.snipes.lib.irc.InputFilter;
+import org.ossnipes.snipes.lib.irc.InputHandler;
+import org.ossnipes.snipes.lib.irc.InputPipeline;
+
+public class TestInputPipeline extends TestCase
+{
+	@Test
+	public void testOrder()
+	{
+		Recorder handler = new Recorder();
+		InputFilter a = new Append("a");
+		InputFilter b = new Append("b");
+		InputFilter c = new Append("c");
+		InputPipeline p = InputPipeline.EMPTY.withHandler(handler).withFilter(0, a).withFilter(1, c).withFilter(1, b);
+
+		assertEquals(Arrays.asList(a, b, c), p.getFilters());
+		p.handle("PING :x");
+		assertEquals(Arrays.asList("PING :x a b c"), handler._lines);
+
+		// The old ones don't change.
+		assertEquals(0, InputPipeline.EMPTY.getFilterCount());
+		assertNull(InputPipeline.EMPTY.getHandler());
+	}
+
+	@Test
+	public void testDrop()
+	{
+		Recorder handler = new Recorder();
+		Recorder after = new Recorder();
+		InputFilter drop = new InputFilter()
+		{
+			@Override
+			public String filter(String line)
+			{
+				return line.startsWith("PING") ? null : line;
+			}
+		};
+		InputPipeline p = InputPipeline.EMPTY.withHandler(handler).withFilter(0, drop).withFilter(1, after);
+
+		p.handle("PING :x");
+		p.handle("PRIVMSG #Snipes :hi");
+		// Nothing after the filter that dropped it sees it.
+		assertEquals(Arrays.asList("PRIVMSG #Snipes :hi"), after._lines);
+		assertEquals(Arrays.asList("PRIVMSG #Snipes :hi"), handler._lines);
+	}
+
+	@Test
+	public void testThrowingFilter()
+	{
+		Recorder handler = new Recorder();
+		InputFilter broken = new InputFilter()
+		{
+			@Override
+			public String filter(String line)
+			{
+				throw new IllegalStateException("Broken on purpose.");
+			}
+		};
+		InputPipeline p = InputPipeline.EMPTY.withHandler(handler).withFilter(0, new Append("a"))
+				.withFilter(1, broken).withFilter(2, new Append("b"));
+
+		// Passed on as it was before the broken filter.
+		p.handle("PING :x");
+		assertEquals(Arrays.asList("PING :x a b"), handler._lines);
+	}
+
+	@Test
+	public void testWithoutFilter()
+	{
+		InputFilter a = new Append("a");
+		InputFilter b = new Append("b");
+		InputPipeline p = InputPipeline.EMPTY.withFilter(0, a).withFilter(1, b);
+
+		// Not there, so nothing to change.
+		assertSame(p, p.withoutFilter(new Append("a")));
+		assertSame(InputPipeline.EMPTY, InputPipeline.EMPTY.withoutFilter(a));
+
+		InputPipeline without = p.withoutFilter(a);
+		assertEquals(Arrays.asList(b), without.getFilters());
+		assertEquals(2, p.getFilterCount());
+
+		try
+		{
+			p.withFilter(3, a);
+			fail("A filter was added past the end.");
+		} catch (IndexOutOfBoundsException e)
+		{
+		}
+		try
+		{
+			p.withFilter(0, null);
+			fail("A null filter was added.");
+		} catch (IllegalArgumentException e)
+		{
+		}
+	}
+
+	/** Adds a word to the end of every line. */
+	private static class Append implements InputFilter
+	{
+		Append(String word)
+		{
+			_word = word;
+		}
+
+		@Override
+		public String filter(String line)
+		{
+			return line + " " + _word;
+		}
+
+		private final String _word;
+	}
+
+	/** Remembers what it was given, and passes it on unchanged. */
+	private static class Recorder implements InputFilter, InputHandler
+	{
+		@Override
+		public String filter(String line)
+		{
+			_lines.add(line);
+			return line;
+		}
+
+		@Override
+		public void handle(String line)
+		{
+			_lines.add(line);
+		}
+
+		private final List<String> _lines = new ArrayList<String>();
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc.test;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.ossnipes.snipes.lib.irc.IRCSocketManager;
+import org.ossnipes.snipes.lib.irc.LagMonitor;
+
+// The PINGs are sent by hand with run(), and every monitor is stopped long
+// before one could time out, so there's no receiver to tell.
+public class TestLagMonitor extends TestCase
+{
+	@Test
+	public void testPongWithPrefix() throws InterruptedException
+	{
+		StubManager man = new StubManager();
+		LagMonitor lag = new LagMonitor(man, null, 0, 4);
+		lag.start();
+		try
+		{
+			assertEquals(-1, lag.getLag());
+			String token = ping(lag, man);
+			assertTrue(token.endsWith("-snipes"));
+
+			Thread.sleep(50);
+			// Still waiting, so it's at least how long it's been so far.
+			assertTrue(lag.getLag() >= 50);
+			assertEquals(-1, lag.getLagPercentile(50));
+
+			// Not ours, or not a PONG.
+			lag.lineReceived(":irc.server PONG irc.server :someone-else");
+			lag.lineReceived(":Unix!rubicon@projectinfinity.net PRIVMSG #Snipes :" + token);
+			assertEquals(-1, lag.getLagPercentile(50));
+
+			lag.lineReceived("@time=2011-10-19T16:40:51.620Z :irc.server PONG irc.server :" + token);
+			assertTrue(lag.getLagPercentile(50) >= 50);
+			assertEquals(lag.getLagPercentile(50), lag.getLag());
+
+			// A new token each time.
+			assertFalse(token.equals(ping(lag, man)));
+		}
+		finally
+		{
+			lag.stop();
+		}
+	}
+
+	@Test
+	public void testPercentiles() throws InterruptedException
+	{
+		StubManager man = new StubManager();
+		LagMonitor lag = new LagMonitor(man, null, 0, 4);
+		lag.start();
+		try
+		{
+			// 10ms, 20ms, ... 100ms, out of order.
+			int[] waits = {40, 100, 10, 70, 20, 90, 30, 60, 50, 80};
+			for (int wait : waits)
+			{
+				pong(lag, man, wait);
+			}
+			assertTrue(lag.getLagPercentile(10) >= 10);
+			assertTrue(lag.getLagPercentile(10) < lag.getLagPercentile(20));
+			// Nearest rank, the 5th of 10.
+			assertTrue(lag.getLagPercentile(50) >= 50);
+			assertTrue(lag.getLagPercentile(50) < lag.getLagPercentile(60));
+			assertTrue(lag.getLagPercentile(100) >= 100);
+			assertEquals(lag.getLagPercentile(100), lag.getLagPercentile(95));
+			// The last one, not the worst one.
+			assertTrue(lag.getLag() < lag.getLagPercentile(100));
+
+			try
+			{
+				lag.getLagPercentile(0);
+				fail("A percentile of 0 was allowed.");
+			} catch (IllegalArgumentException e)
+			{
+			}
+		}
+		finally
+		{
+			lag.stop();
+		}
+	}
+
+	@Test
+	public void testPingTimeout() throws InterruptedException
+	{
+		StubManager man = new StubManager();
+		LagMonitor lag = new LagMonitor(man, null, 0, 4);
+		lag.start();
+		try
+		{
+			// Never less than 30 seconds, however fast the server is.
+			assertEquals(30 * 1000, lag.getPingTimeout());
+			pong(lag, man, 20);
+			assertEquals(30 * 1000, lag.getPingTimeout());
+		}
+		finally
+		{
+			lag.stop();
+		}
+
+		// Otherwise it's the 95th percentile times the multiple.
+		lag = new LagMonitor(man, null, 0, 1000);
+		lag.start();
+		try
+		{
+			pong(lag, man, 40);
+			pong(lag, man, 60);
+			long p95 = lag.getLagPercentile(95);
+			assertTrue(p95 >= 60);
+			assertTrue(lag.getPingTimeout() >= p95 * 1000);
+			assertTrue(lag.getPingTimeout() < (p95 + 1) * 1000);
+		}
+		finally
+		{
+			lag.stop();
+		}
+	}
+
+	@Test
+	public void testOldSamplesForgotten() throws InterruptedException
+	{
+		StubManager man = new StubManager();
+		LagMonitor lag = new LagMonitor(man, null, 0, 4);
+		lag.start();
+		try
+		{
+			pong(lag, man, 200);
+			// The slow one is one of the 64 most recent up to here...
+			for (int i = 0; i < 63; i++)
+			{
+				pong(lag, man, 0);
+			}
+			assertTrue(lag.getLagPercentile(100) >= 200);
+			// ...and pushed out by the next.
+			pong(lag, man, 0);
+			assertTrue(lag.getLagPercentile(100) < 200);
+		}
+		finally
+		{
+			lag.stop();
+		}
+	}
+
+	/** Sends a PING, and returns it's token. */
+	private static String ping(LagMonitor lag, StubManager man)
+	{
+		lag.run();
+		assertTrue(man._sent.startsWith("PING :"));
+		return man._sent.substring("PING :".length());
+	}
+
+	/** Sends a PING and answers it after a while. */
+	private static void pong(LagMonitor lag, StubManager man, long millis) throws InterruptedException
+	{
+		String token = ping(lag, man);
+		if (millis > 0)
+		{
+			Thread.sleep(millis);
+		}
+		lag.lineReceived(":irc.server PONG irc.server :" + token);
+	}
+
+	/** Remembers the last line it was asked to send, instead of sending it. */
+	private static class StubManager extends IRCSocketManager
+	{
+		@Override
+		protected void sendUrgent(String line)
+		{
+			_sent = line;
+		}
+
+		private String _sent;
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc.test;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.ossnipes.snipes.lib.events.IRCMessage;
+
+public class TestLastParam extends TestCase
+{
+	@Test
+	public void testBarePing()
+	{
+		assertEquals("irc.server", IRCMessage.lastParam("PING :irc.server", "PING"));
+		assertEquals("irc.server", IRCMessage.lastParam("PING irc.server", "PING"));
+		assertEquals("two words", IRCMessage.lastParam("PING :two words", "PING"));
+	}
+
+	@Test
+	public void testPrefixAndTags()
+	{
+		assertEquals("token", IRCMessage.lastParam(":irc.server PING Snipes :token", "PING"));
+		assertEquals("token", IRCMessage.lastParam("@time=2011-10-19T16:40:51.620Z PING :token", "PING"));
+		assertEquals("token", IRCMessage.lastParam("@a=b;c :irc.server PING :token", "PING"));
+		assertNull(IRCMessage.lastParam("@a=b;c", "PING"));
+		assertNull(IRCMessage.lastParam(":irc.server", "PING"));
+	}
+
+	@Test
+	public void testLowerCase()
+	{
+		assertEquals("irc.server", IRCMessage.lastParam("ping :irc.server", "PING"));
+		assertEquals("irc.server", IRCMessage.lastParam(":irc.server Ping :irc.server", "PING"));
+	}
+
+	@Test
+	public void testNotTheCommand()
+	{
+		assertNull(IRCMessage.lastParam("PING", "PING"));
+		assertNull(IRCMessage.lastParam(":irc.server PING", "PING"));
+		assertNull(IRCMessage.lastParam("PINGS :irc.server", "PING"));
+		assertNull(IRCMessage.lastParam(":Unix!rubicon@projectinfinity.net PRIVMSG #Snipes :PING :x", "PING"));
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.ossnipes.snipes.lib.irc.BotConstants;
+import org.ossnipes.snipes.lib.irc.IRCLineFramer;
+
+public class TestLineFramer extends TestCase
+{
+	@Test
+	public void testNext() throws IOException
+	{
+		IRCLineFramer f = new IRCLineFramer();
+		f.buffer().put(bytes("PING :one\r\nPING :tw"));
+		assertEquals("PING :one", f.next());
+		// Not finished yet.
+		assertNull(f.next());
+
+		f.compact();
+		f.buffer().put(bytes("o\nPING :three\r\n"));
+		assertEquals("PING :two", f.next());
+		assertEquals("PING :three", f.next());
+		assertNull(f.next());
+	}
+
+	@Test
+	public void testTooLong() throws IOException
+	{
+		IRCLineFramer f = new IRCLineFramer();
+		// In several reads, so it's cut before the line ending has even arrived.
+		InputStream in = new ChunkedStream(bytes(repeat('a', 600)), bytes(repeat('b', 100) + "\r\n"),
+				bytes("PING :next\r\n"));
+		assertEquals(repeat('a', MAX), f.readLine(in));
+		// The rest of it is thrown away, not made into a line of it's own.
+		assertEquals("PING :next", f.readLine(in));
+		assertNull(f.readLine(in));
+	}
+
+	@Test
+	public void testCarriageReturnAtCut() throws IOException
+	{
+		IRCLineFramer f = new IRCLineFramer();
+		InputStream in = new ChunkedStream(bytes(repeat('a', MAX - 1) + "\r" + repeat('b', 10) + "\r\nPING :next\r\n"));
+		assertEquals(repeat('a', MAX - 1), f.readLine(in));
+		assertEquals("PING :next", f.readLine(in));
+	}
+
+	@Test
+	public void testTagsGetMoreRoom() throws IOException
+	{
+		IRCLineFramer f = new IRCLineFramer();
+		String tagged = "@a=" + repeat('t', 2000) + " PRIVMSG #Snipes :" + repeat('m', 400);
+		InputStream in = new ChunkedStream(bytes(tagged + "\r\n"), bytes("PING :next\r\n"));
+		assertEquals(tagged, f.readLine(in));
+		assertEquals("PING :next", f.readLine(in));
+
+		// But not forever.
+		String tooLong = "@a=" + repeat('t', BotConstants.IRC_MAX_TAGS_LENGTH + MAX);
+		in = new ChunkedStream(bytes(tooLong + "\r\nPING :next\r\n"));
+		assertEquals(tooLong.substring(0, BotConstants.IRC_MAX_TAGS_LENGTH + MAX), f.readLine(in));
+		assertEquals("PING :next", f.readLine(in));
+
+		// A untagged line isn't allowed the tags' room.
+		in = new ChunkedStream(bytes("PRIVMSG #Snipes :" + repeat('m', 2000) + "\r\n"));
+		assertEquals(MAX, f.readLine(in).length());
+	}
+
+	@Test
+	public void testMultibyteSplitAcrossReads() throws IOException
+	{
+		IRCLineFramer f = new IRCLineFramer();
+		byte[] line = bytes("PRIVMSG #Snipes :caf\u00e9 \u20ac5\r\n");
+		int e = indexOf(line, (byte)0xc3);
+		int euro = indexOf(line, (byte)0xe2);
+		// Cut in the middle of the e acute, and of the euro sign.
+		InputStream in = new ChunkedStream(range(line, 0, e + 1), range(line, e + 1, euro + 2),
+				range(line, euro + 2, line.length));
+		assertEquals("PRIVMSG #Snipes :caf\u00e9 \u20ac5", f.readLine(in));
+
+		// Not UTF-8, so it's taken to be latin-1.
+		in = new ChunkedStream(new byte[] {'h', 'i', (byte)0xe9, '\r', '\n'});
+		assertEquals("hi\u00e9", f.readLine(in));
+	}
+
+	@Test
+	public void testRestAtEndOfStream() throws IOException
+	{
+		IRCLineFramer f = new IRCLineFramer();
+		InputStream in = new ChunkedStream(bytes("PING :one\r\nQUIT :unfinis"), bytes("hed"));
+		assertEquals("PING :one", f.readLine(in));
+		assertEquals("QUIT :unfinished", f.readLine(in));
+		assertNull(f.readLine(in));
+		assertNull(f.rest());
+
+		// Nothing is handed over for a line that was already cut off.
+		f = new IRCLineFramer();
+		in = new ChunkedStream(bytes(repeat('a', 600)));
+		assertEquals(repeat('a', MAX), f.readLine(in));
+		assertNull(f.readLine(in));
+	}
+
+	private static byte[] bytes(String s) throws UnsupportedEncodingException
+	{
+		return s.getBytes("UTF-8");
+	}
+
+	private static byte[] range(byte[] b, int from, int to)
+	{
+		byte[] r = new byte[to - from];
+		System.arraycopy(b, from, r, 0, r.length);
+		return r;
+	}
+
+	private static int indexOf(byte[] b, byte x)
+	{
+		for (int i = 0; i < b.length; i++)
+		{
+			if (b[i] == x)
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String repeat(char c, int times)
+	{
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < times; i++)
+		{
+			b.append(c);
+		}
+		return b.toString();
+	}
+
+	/** The most a line can have without tags, not counting the line ending. */
+	private static final int MAX = BotConstants.IRC_MAX_LINE_LENGTH - 2;
+
+	/** Gives out one chunk per read, like bytes arriving in several packets. */
+	private static class ChunkedStream extends InputStream
+	{
+		ChunkedStream(byte[]... chunks)
+		{
+			_chunks = chunks;
+		}
+
+		@Override
+		public int read()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len)
+		{
+			while (_chunk < _chunks.length && _pos == _chunks[_chunk].length)
+			{
+				_chunk++;
+				_pos = 0;
+			}
+			if (_chunk == _chunks.length)
+			{
+				return -1;
+			}
+			int n = Math.min(len, _chunks[_chunk].length - _pos);
+			System.arraycopy(_chunks[_chunk], _pos, b, off, n);
+			_pos += n;
+			return n;
+		}
+
+		private final byte[][] _chunks;
+		private int _chunk;
+		private int _pos;
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc.test;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.ossnipes.snipes.lib.irc.IRCTransport;
+import org.ossnipes.snipes.lib.irc.SendQueue;
+
+// With no selector, so the queue's own writer Thread does the writing.
+public class TestSendQueue extends TestCase
+{
+	@Test
+	public void testBurstThenPacing() throws InterruptedException
+	{
+		FakeTransport t = new FakeTransport();
+		SendQueue q = new SendQueue(t, null, 3, 200);
+		try
+		{
+			long start = System.nanoTime();
+			for (int i = 1; i <= 5; i++)
+			{
+				q.add("PRIVMSG #Snipes :" + i);
+			}
+			// The burst goes straight out...
+			for (int i = 1; i <= 3; i++)
+			{
+				assertEquals("PRIVMSG #Snipes :" + i, t.next(100));
+			}
+			// ...then it's one a interval.
+			assertNull(t.next(100));
+			assertEquals("PRIVMSG #Snipes :4", t.next(500));
+			assertTrue(millisSince(start) >= 150);
+			assertEquals("PRIVMSG #Snipes :5", t.next(500));
+			assertTrue(millisSince(start) >= 350);
+			assertEquals(0, q.getDepth());
+		}
+		finally
+		{
+			q.close();
+		}
+	}
+
+	@Test
+	public void testRoundRobin() throws InterruptedException
+	{
+		FakeTransport t = new FakeTransport();
+		SendQueue q = new SendQueue(t, null, 1, 100);
+		try
+		{
+			// Use up the token, so everything after this is queued together.
+			q.add("PRIVMSG #first :0");
+			assertEquals("PRIVMSG #first :0", t.next(100));
+
+			q.add("PRIVMSG #a :1");
+			q.add("PRIVMSG #a :2");
+			q.add("PRIVMSG #a :3");
+			q.add("NOTICE #b :1");
+			q.add("NOTICE #b :2");
+			assertEquals(5, q.getDepth());
+
+			assertEquals("PRIVMSG #a :1", t.next(500));
+			assertEquals("NOTICE #b :1", t.next(500));
+			assertEquals("PRIVMSG #a :2", t.next(500));
+			assertEquals("NOTICE #b :2", t.next(500));
+			assertEquals("PRIVMSG #a :3", t.next(500));
+		}
+		finally
+		{
+			q.close();
+		}
+	}
+
+	@Test
+	public void testPriorityCommands() throws InterruptedException
+	{
+		FakeTransport t = new FakeTransport();
+		SendQueue q = new SendQueue(t, null, 1, 200);
+		try
+		{
+			q.add("PRIVMSG #first :0");
+			assertEquals("PRIVMSG #first :0", t.next(100));
+
+			q.add("PRIVMSG #Snipes :1");
+			q.add("PRIVMSG #Snipes :2");
+			q.add("PONG :irc.server");
+			q.add("quit :Bye");
+			q.add("CAP END");
+
+			// Without waiting for a token, and ahead of what was queued.
+			assertEquals("PONG :irc.server", t.next(100));
+			assertEquals("quit :Bye", t.next(100));
+			assertEquals("CAP END", t.next(100));
+			assertEquals(2, q.getDepth());
+			assertEquals("PRIVMSG #Snipes :1", t.next(500));
+			assertEquals("PRIVMSG #Snipes :2", t.next(500));
+		}
+		finally
+		{
+			q.close();
+		}
+	}
+
+	@Test
+	public void testCloseDropsQueued() throws InterruptedException
+	{
+		FakeTransport t = new FakeTransport();
+		SendQueue q = new SendQueue(t, null, 1, 100);
+		q.add("PRIVMSG #first :0");
+		assertEquals("PRIVMSG #first :0", t.next(100));
+
+		q.add("PRIVMSG #Snipes :1");
+		q.add("PRIVMSG #Snipes :2");
+		q.add("PRIVMSG #Snipes :3");
+		assertEquals(3, q.getDepth());
+		q.close();
+		assertEquals(0, q.getDepth());
+
+		// Nothing after closing, even urgent lines.
+		q.add("PRIVMSG #Snipes :4");
+		q.addUrgent("PONG :irc.server");
+		assertEquals(0, q.getDepth());
+		assertNull(t.next(300));
+	}
+
+	private static long millisSince(long start)
+	{
+		return (System.nanoTime() - start) / 1000000L;
+	}
+
+	/** Remembers the lines written to it. */
+	private static class FakeTransport implements IRCTransport
+	{
+		@Override
+		public void open(InetSocketAddress[] servers, SocketFactory factory)
+		{
+		}
+
+		@Override
+		public void start()
+		{
+		}
+
+		@Override
+		public void write(String line)
+		{
+			_written.add(line);
+		}
+
+		@Override
+		public void flush()
+		{
+		}
+
+		@Override
+		public String readLine()
+		{
+			return null;
+		}
+
+		@Override
+		public boolean isConnected()
+		{
+			return true;
+		}
+
+		@Override
+		public void close()
+		{
+		}
+
+		/** @return The next line written, or null if there wasn't one in time. */
+		String next(long millis) throws InterruptedException
+		{
+			return _written.poll(millis, TimeUnit.MILLISECONDS);
+		}
+
+		private final BlockingQueue<String> _written = new LinkedBlockingQueue<String>();
+	}
+}
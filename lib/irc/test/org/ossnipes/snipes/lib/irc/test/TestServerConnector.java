@@ -0,0 +1,105 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc.test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.ossnipes.snipes.lib.irc.ServerConnector;
+
+// Nothing here needs a network. The addresses are all literals, which are
+// never looked up, and the connections are to this machine.
+public class TestServerConnector extends TestCase
+{
+	@Test
+	public void testInterleave() throws UnknownHostException
+	{
+		InetAddress v6a = InetAddress.getByName("2001:db8::1");
+		InetAddress v6b = InetAddress.getByName("2001:db8::2");
+		InetAddress v4a = InetAddress.getByName("192.0.2.1");
+		InetAddress v4b = InetAddress.getByName("192.0.2.2");
+		InetAddress v4c = InetAddress.getByName("192.0.2.3");
+
+		assertEquals(Arrays.asList(v6a, v4a, v6b, v4b, v4c),
+				ServerConnector.interleave(new InetAddress[] {v6a, v6b, v4a, v4b, v4c}));
+		// Whichever came first goes first.
+		assertEquals(Arrays.asList(v4a, v6a, v4b, v6b, v4c),
+				ServerConnector.interleave(new InetAddress[] {v4a, v4b, v4c, v6a, v6b}));
+		assertEquals(Arrays.asList(v4a, v4b),
+				ServerConnector.interleave(new InetAddress[] {v4a, v4b}));
+	}
+
+	@Test
+	public void testNoneResolved() throws IOException
+	{
+		// Malformed IPv6 literals, these fail without asking a DNS server.
+		ServerConnector c = new ServerConnector(new InetSocketAddress[] {
+				InetSocketAddress.createUnresolved("[::1", 6667), InetSocketAddress.createUnresolved("[zz]", 6667)});
+		try
+		{
+			c.connect();
+			fail("Connected to a server that can't be looked up.");
+		} catch (UnknownHostException e)
+		{
+		}
+		assertNull(c.getServer());
+
+		try
+		{
+			new ServerConnector(new InetSocketAddress[0]);
+			fail("A connector was made with no servers.");
+		} catch (IllegalArgumentException e)
+		{
+		}
+	}
+
+	@Test
+	public void testSkipsFailedServers() throws IOException
+	{
+		// Nothing listens on a port we've just closed.
+		ServerSocket closed = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		int refused = closed.getLocalPort();
+		closed.close();
+
+		ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		try
+		{
+			InetSocketAddress good = InetSocketAddress.createUnresolved("127.0.0.1", server.getLocalPort());
+			ServerConnector c = new ServerConnector(new InetSocketAddress[] {
+					InetSocketAddress.createUnresolved("[::1", 6667),
+					InetSocketAddress.createUnresolved("127.0.0.1", refused), good});
+			SocketChannel channel = c.connect();
+			try
+			{
+				assertTrue(channel.isConnected());
+				assertTrue(channel.isBlocking());
+				assertEquals(server.getLocalPort(), ((InetSocketAddress)channel.socket().getRemoteSocketAddress()).getPort());
+				assertSame(good, c.getServer());
+			}
+			finally
+			{
+				channel.close();
+			}
+		}
+		finally
+		{
+			server.close();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.ossnipes.snipes.lib.irc.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.ossnipes.snipes.lib.irc.IRCSocketManager;
+import org.ossnipes.snipes.lib.irc.ServerSupport;
+
+public class TestSplitMessage extends TestCase
+{
+	@Test
+	public void testMultibyte()
+	{
+		// 2 bytes each, 8 to a part.
+		List<String> parts = IRCSocketManager.splitMessage(repeat("\u00e9", 20), 16);
+		assertEquals(Arrays.asList(repeat("\u00e9", 8), repeat("\u00e9", 8), repeat("\u00e9", 4)), parts);
+
+		// 3 bytes each, only 5 fit.
+		parts = IRCSocketManager.splitMessage(repeat("\u20ac", 10), 16);
+		assertEquals(Arrays.asList(repeat("\u20ac", 5), repeat("\u20ac", 5)), parts);
+		for (String part : parts)
+		{
+			assertTrue(ServerSupport.utf8Length(part) <= 16);
+		}
+	}
+
+	@Test
+	public void testSurrogatePairs()
+	{
+		// U+1F600, 4 bytes but 2 chars.
+		String face = new String(Character.toChars(0x1F600));
+		List<String> parts = IRCSocketManager.splitMessage("a" + repeat(face, 5), 16);
+		assertEquals(Arrays.asList("a" + repeat(face, 3), repeat(face, 2)), parts);
+		for (String part : parts)
+		{
+			assertFalse(Character.isHighSurrogate(part.charAt(part.length() - 1)));
+			assertFalse(Character.isLowSurrogate(part.charAt(0)));
+		}
+	}
+
+	@Test
+	public void testSpaces()
+	{
+		assertEquals(Arrays.asList("aaaa bbbb cccc", "dddd"),
+				IRCSocketManager.splitMessage("aaaa bbbb cccc dddd", 16));
+		// Nowhere to break, so it's cut.
+		assertEquals(Arrays.asList(repeat("a", 16), "aaaa"),
+				IRCSocketManager.splitMessage(repeat("a", 20), 16));
+		assertEquals(Arrays.asList("short enough"),
+				IRCSocketManager.splitMessage("short enough", 16));
+	}
+
+	@Test
+	public void testLineBreaks()
+	{
+		assertEquals(Arrays.asList("one", "two", "three", "four"),
+				IRCSocketManager.splitMessage("one\r\ntwo\nthree\rfour", 100));
+		assertEquals(Arrays.asList("a", "b"), IRCSocketManager.splitMessage("a\n\nb\n", 100));
+		// Never a line break in what's sent.
+		assertEquals(Arrays.asList(""), IRCSocketManager.splitMessage("\r\n\n", 100));
+		assertEquals(Arrays.asList(""), IRCSocketManager.splitMessage("", 100));
+	}
+
+	@Test
+	public void testTargMax()
+	{
+		ServerSupport s = new ServerSupport();
+		s.lineReceived(":irc.server 005 Snipes TARGMAX=PRIVMSG:4,NOTICE:3,JOIN: :are supported by this server", "Snipes");
+		assertEquals(4, s.getMaxTargets("PRIVMSG"));
+		assertEquals(4, s.getMaxTargets("privmsg"));
+		assertEquals(3, s.getMaxTargets("NOTICE"));
+		assertEquals(Integer.MAX_VALUE, s.getMaxTargets("JOIN"));
+		assertEquals(1, s.getMaxTargets("KICK"));
+
+		s = new ServerSupport();
+		s.lineReceived(":irc.server 005 Snipes MAXTARGETS=5 :are supported by this server", "Snipes");
+		assertEquals(5, s.getMaxTargets("PRIVMSG"));
+
+		assertEquals(1, new ServerSupport().getMaxTargets("PRIVMSG"));
+	}
+
+	private static String repeat(String s, int times)
+	{
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < times; i++)
+		{
+			b.append(s);
+		}
+		return b.toString();
+	}
+}